@@ -0,0 +1,111 @@
+package pl.edu.agh.sm.eyetracking;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import pl.edu.agh.sm.eyetracking.detectors.CascadeBackend;
+import pl.edu.agh.sm.eyetracking.detectors.FaceDetector;
+import pl.edu.agh.sm.eyetracking.util.ClassifierLoader;
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/**
+ * Compares the whole-face and the constrained eye search on recorded frames: the constrained
+ * search has to find mostly the same eyes, and must not be slower. Frames are PNG files of one resolution, pushed to the app's external files dir, e.g.
+ * {@code adb push frames/ /sdcard/Android/data/pl.edu.agh.sm.eyetracking/files/recordings/}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EyeSearchComparisonTest {
+
+    private static final String TAG = EyeSearchComparisonTest.class.getCanonicalName();
+    private static final String RECORDINGS_DIRECTORY = "recordings";
+    private static final double MIN_AGREEMENT = 0.8;
+
+    @Test
+    public void compareEyeSearch() throws IOException {
+        Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        File[] recordedFrames = listRecordedFrames(appContext);
+        assumeTrue("No recorded frames", recordedFrames.length > 0);
+        assertTrue(OpenCVLoader.initDebug());
+
+        ClassifierLoader loader = new ClassifierLoader(appContext);
+        CascadeClassifier faceClassifier = loader.load(
+                R.raw.haarcascade_frontalface_alt2,
+                "haarcascade_frontalface_alt2.xml");
+        CascadeClassifier eyeClassifier = loader.load(
+                R.raw.haarcascade_eye,
+                "haarcascade_eye.xml");
+
+        FaceDetector faceDetector = null;
+        FramePyramid pyramid = null;
+        EyeSearchComparison comparison = null;
+        TrackingResult result = new TrackingResult();
+
+        for (File recordedFrame : recordedFrames) {
+            Mat gray = Imgcodecs.imread(recordedFrame.getAbsolutePath(), Imgcodecs.IMREAD_GRAYSCALE);
+            if (comparison == null) {
+                Size frameSize = new Size(gray.cols(), gray.rows());
+                faceDetector = new FaceDetector(new CascadeBackend(faceClassifier));
+                faceDetector.initialize(frameSize);
+                pyramid = new FramePyramid(frameSize);
+                comparison = new EyeSearchComparison(eyeClassifier, frameSize);
+            }
+
+            pyramid.update(gray);
+            if (faceDetector.detect(pyramid, result)) {
+                comparison.compare(pyramid, result.face);
+            }
+            gray.release();
+        }
+
+        String report = comparison.report();
+        Log.i(TAG, report);
+        int frames = comparison.getFrames();
+        double leftAgreement = comparison.getLeftAgreement();
+        double rightAgreement = comparison.getRightAgreement();
+        double speedup = comparison.getSpeedup();
+
+        comparison.release();
+        pyramid.release();
+        faceDetector.deinitialize();
+
+        assumeTrue("No face in the recorded frames", frames > 0);
+        assertTrue("Left eyes differ: " + report, leftAgreement >= MIN_AGREEMENT);
+        assertTrue("Right eyes differ: " + report, rightAgreement >= MIN_AGREEMENT);
+        assertTrue("Constrained search is slower: " + report, speedup >= 1);
+    }
+
+    private File[] listRecordedFrames(Context context) {
+        File directory = context.getExternalFilesDir(RECORDINGS_DIRECTORY);
+        File[] files = directory == null ? null : directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        File[] frames = new File[files.length];
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(".png")) {
+                frames[count++] = file;
+            }
+        }
+        frames = Arrays.copyOf(frames, count);
+        Arrays.sort(frames);
+        return frames;
+    }
+}
@@ -0,0 +1,12 @@
+package pl.edu.agh.sm.eyetracking.logging;
+
+/**
+ * Logging switches of the debug build.
+ */
+final class LogConfig {
+
+    static final boolean DEBUG_LOGGING = true;
+
+    private LogConfig() {
+    }
+}
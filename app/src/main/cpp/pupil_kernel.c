@@ -0,0 +1,211 @@
+#include "pupil_kernel.h"
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#include <arm_neon.h>
+#define PUPIL_KERNEL_NEON 1
+#endif
+
+/*
+ * Every step is separable: a horizontal pass into one scratch plane and a vertical pass into
+ * the other. Thresholding commutes with min and max, so the erosion runs on the gray crop and
+ * its vertical pass thresholds what it writes. The median of a binary image is the majority,
+ * so it counts set pixels instead of sorting them.
+ */
+
+enum op {
+    OP_MIN,
+    OP_MAX,
+    // horizontal: counts set pixels of a binary image, vertical: adds up the counts
+    OP_COUNT
+};
+
+enum output {
+    OUTPUT_VALUE,
+    // 255 where the value is above the threshold
+    OUTPUT_THRESHOLD,
+    // 255 where more than half of the window is set
+    OUTPUT_MAJORITY
+};
+
+static inline int clamp(int value, int max) {
+    return value < 0 ? 0 : (value > max ? max : value);
+}
+
+static inline uint8_t combine(enum op op, uint8_t a, uint8_t b) {
+    switch (op) {
+        case OP_MIN:
+            return a < b ? a : b;
+        case OP_MAX:
+            return a > b ? a : b;
+        default:
+            return (uint8_t) (a + b);
+    }
+}
+
+static inline uint8_t horizontal_input(enum op op, uint8_t value) {
+    return op == OP_COUNT ? (uint8_t) (value >> 7) : value;
+}
+
+static inline uint8_t finish(enum output output, int threshold, int majority, uint8_t value) {
+    switch (output) {
+        case OUTPUT_THRESHOLD:
+            return value > threshold ? 255 : 0;
+        case OUTPUT_MAJORITY:
+            return value >= majority ? 255 : 0;
+        default:
+            return value;
+    }
+}
+
+static inline uint8_t horizontal_pixel(enum op op, const uint8_t *row, int x, int width, int radius) {
+    uint8_t acc = horizontal_input(op, row[clamp(x - radius, width - 1)]);
+    for (int k = -radius + 1; k <= radius; k++) {
+        acc = combine(op, acc, horizontal_input(op, row[clamp(x + k, width - 1)]));
+    }
+    return acc;
+}
+
+#ifdef PUPIL_KERNEL_NEON
+
+static inline uint8x16_t combine_neon(enum op op, uint8x16_t a, uint8x16_t b) {
+    switch (op) {
+        case OP_MIN:
+            return vminq_u8(a, b);
+        case OP_MAX:
+            return vmaxq_u8(a, b);
+        default:
+            return vaddq_u8(a, b);
+    }
+}
+
+static inline uint8x16_t horizontal_input_neon(enum op op, uint8x16_t value) {
+    return op == OP_COUNT ? vshrq_n_u8(value, 7) : value;
+}
+
+static inline uint8x16_t finish_neon(enum output output, int threshold, int majority, uint8x16_t value) {
+    switch (output) {
+        case OUTPUT_THRESHOLD:
+            return threshold < 0 ? vdupq_n_u8(255) : vcgtq_u8(value, vdupq_n_u8((uint8_t) threshold));
+        case OUTPUT_MAJORITY:
+            return vcgeq_u8(value, vdupq_n_u8((uint8_t) majority));
+        default:
+            return value;
+    }
+}
+
+#endif
+
+static void horizontal(enum op op, int radius, const uint8_t *src, size_t src_step,
+                       uint8_t *dst, size_t dst_step, int width, int height, int vector) {
+    for (int y = 0; y < height; y++) {
+        const uint8_t *row = src + y * src_step;
+        uint8_t *out = dst + y * dst_step;
+        int x = 0;
+        // the borders replicate the edge pixels
+        for (; x < radius && x < width; x++) {
+            out[x] = horizontal_pixel(op, row, x, width, radius);
+        }
+#ifdef PUPIL_KERNEL_NEON
+        if (vector) {
+            for (; x + 16 <= width - radius; x += 16) {
+                uint8x16_t acc = horizontal_input_neon(op, vld1q_u8(row + x - radius));
+                for (int k = -radius + 1; k <= radius; k++) {
+                    acc = combine_neon(op, acc, horizontal_input_neon(op, vld1q_u8(row + x + k)));
+                }
+                vst1q_u8(out + x, acc);
+            }
+        }
+#else
+        (void) vector;
+#endif
+        for (; x < width - radius; x++) {
+            uint8_t acc = horizontal_input(op, row[x - radius]);
+            for (int k = -radius + 1; k <= radius; k++) {
+                acc = combine(op, acc, horizontal_input(op, row[x + k]));
+            }
+            out[x] = acc;
+        }
+        for (; x < width; x++) {
+            out[x] = horizontal_pixel(op, row, x, width, radius);
+        }
+    }
+}
+
+static void vertical(enum op op, int radius, enum output output, int threshold,
+                     const uint8_t *src, size_t src_step, uint8_t *dst, size_t dst_step,
+                     int width, int height, int vector) {
+    int side = 2 * radius + 1;
+    int majority = side * side / 2 + 1;
+    const uint8_t *rows[2 * PUPIL_KERNEL_DILATE_RADIUS + 1];
+    for (int y = 0; y < height; y++) {
+        for (int k = -radius; k <= radius; k++) {
+            rows[k + radius] = src + clamp(y + k, height - 1) * src_step;
+        }
+        uint8_t *out = dst + y * dst_step;
+        int x = 0;
+#ifdef PUPIL_KERNEL_NEON
+        if (vector) {
+            for (; x + 16 <= width; x += 16) {
+                uint8x16_t acc = vld1q_u8(rows[0] + x);
+                for (int k = 1; k < side; k++) {
+                    acc = combine_neon(op, acc, vld1q_u8(rows[k] + x));
+                }
+                vst1q_u8(out + x, finish_neon(output, threshold, majority, acc));
+            }
+        }
+#else
+        (void) vector;
+#endif
+        for (; x < width; x++) {
+            uint8_t acc = rows[0][x];
+            for (int k = 1; k < side; k++) {
+                acc = combine(op, acc, rows[k][x]);
+            }
+            out[x] = finish(output, threshold, majority, acc);
+        }
+    }
+}
+
+static void run(const uint8_t *src, size_t src_step, uint8_t *dst, size_t dst_step,
+                int width, int height, int threshold, uint8_t *scratch, int vector) {
+    if (width <= 0 || height <= 0) {
+        return;
+    }
+    // below 0 every pixel is set, from 255 none is
+    threshold = threshold < -1 ? -1 : (threshold > 255 ? 255 : threshold);
+    size_t step = (size_t) width;
+    uint8_t *a = scratch;
+    uint8_t *b = scratch + step * height;
+
+    horizontal(OP_MIN, PUPIL_KERNEL_ERODE_RADIUS, src, src_step, a, step, width, height, vector);
+    vertical(OP_MIN, PUPIL_KERNEL_ERODE_RADIUS, OUTPUT_THRESHOLD, threshold,
+             a, step, b, step, width, height, vector);
+    horizontal(OP_MAX, PUPIL_KERNEL_DILATE_RADIUS, b, step, a, step, width, height, vector);
+    vertical(OP_MAX, PUPIL_KERNEL_DILATE_RADIUS, OUTPUT_VALUE, 0,
+             a, step, b, step, width, height, vector);
+    horizontal(OP_COUNT, PUPIL_KERNEL_MEDIAN_RADIUS, b, step, a, step, width, height, vector);
+    vertical(OP_COUNT, PUPIL_KERNEL_MEDIAN_RADIUS, OUTPUT_MAJORITY, 0,
+             a, step, dst, dst_step, width, height, vector);
+}
+
+size_t pupil_kernel_scratch_size(int width, int height) {
+    return width <= 0 || height <= 0 ? 0 : 2 * (size_t) width * (size_t) height;
+}
+
+void pupil_kernel_run(const uint8_t *src, size_t src_step, uint8_t *dst, size_t dst_step,
+                      int width, int height, int threshold, uint8_t *scratch) {
+    run(src, src_step, dst, dst_step, width, height, threshold, scratch, pupil_kernel_has_neon());
+}
+
+void pupil_kernel_run_scalar(const uint8_t *src, size_t src_step, uint8_t *dst, size_t dst_step,
+                             int width, int height, int threshold, uint8_t *scratch) {
+    run(src, src_step, dst, dst_step, width, height, threshold, scratch, 0);
+}
+
+int pupil_kernel_has_neon(void) {
+#ifdef PUPIL_KERNEL_NEON
+    return 1;
+#else
+    return 0;
+#endif
+}
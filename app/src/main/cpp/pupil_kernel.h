@@ -0,0 +1,42 @@
+#ifndef PUPIL_KERNEL_H
+#define PUPIL_KERNEL_H
+
+#include <stddef.h>
+#include <stdint.h>
+
+/*
+ * The pupil morphology of BlobPupilLocator in one call: binary threshold, erosion by a 5x5
+ * square, dilation by a 9x9 square and a 5x5 median, with replicated borders. The same result
+ * as the OpenCV chain threshold, erode x2, dilate x4 and medianBlur 5 with 3x3 kernels.
+ *
+ * Intermediate images live in the scratch buffer, which for eye crops of a few thousand pixels
+ * stays in cache between the steps. The source and the destination may be the same image.
+ */
+
+#define PUPIL_KERNEL_ERODE_RADIUS 2
+#define PUPIL_KERNEL_DILATE_RADIUS 4
+#define PUPIL_KERNEL_MEDIAN_RADIUS 2
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+/* Bytes of scratch needed for an image of the given size. */
+size_t pupil_kernel_scratch_size(int width, int height);
+
+/* The fastest implementation on this CPU, NEON where available. */
+void pupil_kernel_run(const uint8_t *src, size_t src_step, uint8_t *dst, size_t dst_step,
+                      int width, int height, int threshold, uint8_t *scratch);
+
+/* Plain C, used where NEON is not available and by the tests as the reference. */
+void pupil_kernel_run_scalar(const uint8_t *src, size_t src_step, uint8_t *dst, size_t dst_step,
+                             int width, int height, int threshold, uint8_t *scratch);
+
+/* Whether pupil_kernel_run uses NEON. */
+int pupil_kernel_has_neon(void);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif
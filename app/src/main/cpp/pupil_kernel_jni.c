@@ -0,0 +1,30 @@
+#include <jni.h>
+
+#include "pupil_kernel.h"
+
+JNIEXPORT void JNICALL
+Java_pl_edu_agh_sm_eyetracking_detectors_PupilKernel_process(JNIEnv *env, jclass type,
+                                                             jlong source, jlong sourceStep,
+                                                             jlong target, jlong targetStep,
+                                                             jint width, jint height,
+                                                             jint threshold, jobject scratch) {
+    (void) type;
+    uint8_t *scratchAddress = (*env)->GetDirectBufferAddress(env, scratch);
+    jlong capacity = (*env)->GetDirectBufferCapacity(env, scratch);
+    if (scratchAddress == NULL || capacity < (jlong) pupil_kernel_scratch_size(width, height)) {
+        jclass exception = (*env)->FindClass(env, "java/lang/IllegalArgumentException");
+        (*env)->ThrowNew(env, exception, "Scratch buffer too small or not direct");
+        return;
+    }
+    // Mat data addresses, valid while the Java side holds the Mats
+    pupil_kernel_run((const uint8_t *) (intptr_t) source, (size_t) sourceStep,
+                     (uint8_t *) (intptr_t) target, (size_t) targetStep,
+                     width, height, threshold, scratchAddress);
+}
+
+JNIEXPORT jboolean JNICALL
+Java_pl_edu_agh_sm_eyetracking_detectors_PupilKernel_hasNeon(JNIEnv *env, jclass type) {
+    (void) env;
+    (void) type;
+    return (jboolean) (pupil_kernel_has_neon() ? JNI_TRUE : JNI_FALSE);
+}
@@ -0,0 +1,173 @@
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "../pupil_kernel.h"
+
+/*
+ * Compares the kernel with a direct implementation of the OpenCV chain: threshold, square
+ * erosion and dilation, and a true median, each pixel computed from its clamped neighbourhood.
+ */
+
+static unsigned int seed = 1;
+
+static int next_random(int bound) {
+    seed = seed * 1103515245u + 12345u;
+    return (int) ((seed >> 16) % (unsigned int) bound);
+}
+
+static int clamp(int value, int max) {
+    return value < 0 ? 0 : (value > max ? max : value);
+}
+
+static void window(const uint8_t *src, uint8_t *dst, int width, int height, int radius, int max) {
+    for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+            int acc = src[clamp(y - radius, height - 1) * width + clamp(x - radius, width - 1)];
+            for (int dy = -radius; dy <= radius; dy++) {
+                for (int dx = -radius; dx <= radius; dx++) {
+                    int value = src[clamp(y + dy, height - 1) * width + clamp(x + dx, width - 1)];
+                    acc = max ? (value > acc ? value : acc) : (value < acc ? value : acc);
+                }
+            }
+            dst[y * width + x] = (uint8_t) acc;
+        }
+    }
+}
+
+static int compare_bytes(const void *a, const void *b) {
+    return *(const uint8_t *) a - *(const uint8_t *) b;
+}
+
+static void median(const uint8_t *src, uint8_t *dst, int width, int height, int radius) {
+    uint8_t values[(2 * PUPIL_KERNEL_MEDIAN_RADIUS + 1) * (2 * PUPIL_KERNEL_MEDIAN_RADIUS + 1)];
+    int count = (2 * radius + 1) * (2 * radius + 1);
+    for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+            int n = 0;
+            for (int dy = -radius; dy <= radius; dy++) {
+                for (int dx = -radius; dx <= radius; dx++) {
+                    values[n++] = src[clamp(y + dy, height - 1) * width + clamp(x + dx, width - 1)];
+                }
+            }
+            qsort(values, (size_t) count, 1, compare_bytes);
+            dst[y * width + x] = values[count / 2];
+        }
+    }
+}
+
+static void reference(const uint8_t *src, uint8_t *dst, int width, int height, int threshold) {
+    size_t size = (size_t) width * height;
+    uint8_t *a = malloc(size);
+    uint8_t *b = malloc(size);
+    for (size_t i = 0; i < size; i++) {
+        a[i] = src[i] > threshold ? 255 : 0;
+    }
+    window(a, b, width, height, PUPIL_KERNEL_ERODE_RADIUS, 0);
+    window(b, a, width, height, PUPIL_KERNEL_DILATE_RADIUS, 1);
+    median(a, dst, width, height, PUPIL_KERNEL_MEDIAN_RADIUS);
+    free(a);
+    free(b);
+}
+
+/* Dark discs on a bright, noisy background, like a thresholded eye. */
+static void fill(uint8_t *image, int width, int height, int smooth) {
+    for (int i = 0; i < width * height; i++) {
+        image[i] = (uint8_t) (smooth ? 120 + next_random(60) : next_random(256));
+    }
+    if (!smooth) {
+        return;
+    }
+    int discs = 1 + next_random(3);
+    for (int d = 0; d < discs; d++) {
+        int cx = next_random(width);
+        int cy = next_random(height);
+        int r = 1 + next_random(width / 3 + 1);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if ((x - cx) * (x - cx) + (y - cy) * (y - cy) <= r * r) {
+                    image[y * width + x] = (uint8_t) next_random(60);
+                }
+            }
+        }
+    }
+}
+
+typedef void (*kernel)(const uint8_t *, size_t, uint8_t *, size_t, int, int, int, uint8_t *);
+
+/* Runs the kernel on a strided copy of the image, out of place and in place. */
+static int check(const char *name, kernel run, const uint8_t *image, const uint8_t *expected,
+                 int width, int height, int threshold) {
+    size_t step = (size_t) width + 7;
+    uint8_t *src = malloc(step * height);
+    uint8_t *dst = malloc(step * height);
+    uint8_t *scratch = malloc(pupil_kernel_scratch_size(width, height));
+    memset(dst, 0xAB, step * height);
+    for (int y = 0; y < height; y++) {
+        memcpy(src + y * step, image + y * width, (size_t) width);
+        memset(src + y * step + width, 0xCD, step - width);
+    }
+
+    int failures = 0;
+    for (int in_place = 0; in_place <= 1; in_place++) {
+        uint8_t *out = in_place ? src : dst;
+        run(src, step, out, step, width, height, threshold, scratch);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (out[y * step + x] != expected[y * width + x]) {
+                    fprintf(stderr, "%s%s %dx%d threshold %d: (%d, %d) is %d, expected %d\n",
+                            name, in_place ? " in place" : "", width, height, threshold,
+                            x, y, out[y * step + x], expected[y * width + x]);
+                    failures++;
+                    goto next;
+                }
+            }
+            // the padding of each row is left alone
+            if (out[y * step + width] != (in_place ? 0xCD : 0xAB)) {
+                fprintf(stderr, "%s%s %dx%d: padding of row %d overwritten\n",
+                        name, in_place ? " in place" : "", width, height, y);
+                failures++;
+                goto next;
+            }
+        }
+        next:;
+    }
+    free(scratch);
+    free(dst);
+    free(src);
+    return failures;
+}
+
+int main(void) {
+    static const int thresholds[] = {-5, 0, 70, 128, 254, 255, 300};
+    static const int sizes[][2] = {
+            {1, 1}, {2, 3}, {5, 1}, {1, 9}, {4, 4}, {9, 9}, {15, 11}, {16, 16},
+            {17, 5}, {31, 23}, {40, 30}, {53, 37}, {80, 45}, {100, 64}
+    };
+    int failures = 0;
+    int cases = 0;
+
+    for (size_t s = 0; s < sizeof(sizes) / sizeof(sizes[0]); s++) {
+        int width = sizes[s][0];
+        int height = sizes[s][1];
+        uint8_t *image = malloc((size_t) width * height);
+        uint8_t *expected = malloc((size_t) width * height);
+        for (int round = 0; round < 6; round++) {
+            fill(image, width, height, round % 3 != 0);
+            for (size_t t = 0; t < sizeof(thresholds) / sizeof(thresholds[0]); t++) {
+                reference(image, expected, width, height, thresholds[t]);
+                failures += check("scalar", pupil_kernel_run_scalar, image, expected,
+                                  width, height, thresholds[t]);
+                failures += check("default", pupil_kernel_run, image, expected,
+                                  width, height, thresholds[t]);
+                cases++;
+            }
+        }
+        free(expected);
+        free(image);
+    }
+
+    printf("%d cases, %d failures, NEON %s\n", cases, failures,
+           pupil_kernel_has_neon() ? "on" : "off");
+    return failures == 0 ? 0 : 1;
+}
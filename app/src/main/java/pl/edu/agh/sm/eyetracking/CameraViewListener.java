@@ -0,0 +1,79 @@
+package pl.edu.agh.sm.eyetracking;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.Mat;
+
+import pl.edu.agh.sm.eyetracking.source.CameraFrame;
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+/**
+ * Feeds camera view frames to the processor. The camera can be started before the processor
+ * is ready, frames are shown unprocessed until one is set.
+ */
+public class CameraViewListener implements CameraBridgeViewBase.CvCameraViewListener2 {
+
+    private volatile EyeTrackingProcessor processor;
+    private final CameraViewFrame frame = new CameraViewFrame();
+    // the processor started on the camera thread and the size it was started with
+    private EyeTrackingProcessor started;
+    private Size frameSize;
+
+    public CameraViewListener() {
+        this(null);
+    }
+
+    public CameraViewListener(EyeTrackingProcessor processor) {
+        this.processor = processor;
+    }
+
+    /**
+     * Sets the processor for the camera frames, it is started with the next frame.
+     */
+    public void setProcessor(EyeTrackingProcessor processor) {
+        this.processor = processor;
+    }
+
+    @Override
+    public void onCameraViewStarted(int width, int height) {
+        frameSize = new Size(width, height);
+    }
+
+    @Override
+    public void onCameraViewStopped() {
+        if (started != null) {
+            started.stop();
+            started = null;
+        }
+    }
+
+    @Override
+    public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame cvCameraViewFrame) {
+        EyeTrackingProcessor current = processor;
+        if (current != started) {
+            onCameraViewStopped();
+            if (current != null) {
+                current.start(frameSize);
+            }
+            started = current;
+        }
+        if (started == null) {
+            return cvCameraViewFrame.rgba();
+        }
+        frame.cvCameraViewFrame = cvCameraViewFrame;
+        return started.process(frame);
+    }
+
+    private static class CameraViewFrame implements CameraFrame {
+        CameraBridgeViewBase.CvCameraViewFrame cvCameraViewFrame;
+
+        @Override
+        public Mat gray() {
+            return cvCameraViewFrame.gray();
+        }
+
+        @Override
+        public Mat rgba() {
+            return cvCameraViewFrame.rgba();
+        }
+    }
+}
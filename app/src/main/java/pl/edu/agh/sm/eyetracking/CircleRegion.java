@@ -2,41 +2,76 @@ package pl.edu.agh.sm.eyetracking;
 
 import org.opencv.core.KeyPoint;
 
+import pl.edu.agh.sm.eyetracking.util.AlphaBetaFilter;
 import pl.edu.agh.sm.eyetracking.util.Circle;
 import pl.edu.agh.sm.eyetracking.util.Point;
 import pl.edu.agh.sm.eyetracking.util.Size;
 
+/**
+ * Circular region following a detected blob with a constant velocity model, see {@link SquareRegion}.
+ */
 public class CircleRegion {
 
-    private Point center;
-    private int radius;
-    private final int centerEpsilon;
-    private final int radiusEpsilon;
+    private final AlphaBetaFilter centerX;
+    private final AlphaBetaFilter centerY;
+    private final AlphaBetaFilter radius;
+    private boolean tracking;
 
     private final Size screenSize;
 
-    public CircleRegion(Size screenSize, Point center, int radius, int centerEpsilon, int radiusEpsilon) {
+    /**
+     * @param center initial guess, replaced by the first detection
+     * @param radius initial guess, replaced by the first detection
+     */
+    public CircleRegion(Size screenSize, Point center, int radius, double alpha, double beta) {
         this.screenSize = screenSize;
-        this.center = center;
-        this.radius = radius;
-        this.centerEpsilon = centerEpsilon;
-        this.radiusEpsilon = radiusEpsilon;
+        centerX = new AlphaBetaFilter(alpha, beta);
+        centerY = new AlphaBetaFilter(alpha, beta);
+        this.radius = new AlphaBetaFilter(alpha, beta);
+        centerX.reset(center.x);
+        centerY.reset(center.y);
+        this.radius.reset(radius);
     }
 
-    public void update(KeyPoint blob) {
-        Point potentialCenter = new Point(
-                (int) blob.pt.x,
-                (int) blob.pt.y
-        );
-
-        if (Math.abs(potentialCenter.x - center.x) > centerEpsilon
-                || Math.abs(potentialCenter.y - center.y) > centerEpsilon) {
-            center = potentialCenter;
+    /**
+     * Moves the region to where it is expected in the next frame. Called once per frame, before {@link #update}.
+     */
+    public void predict() {
+        if (!tracking) {
+            return;
         }
+        centerX.predict();
+        centerY.predict();
+        radius.predict();
+    }
+
+    public void update(KeyPoint blob) {
+        update(blob.pt.x, blob.pt.y, blob.size);
+    }
 
-        if (Math.abs(blob.size - radius) > radiusEpsilon) {
-            radius = (int) blob.size;
+    public void update(double blobX, double blobY, double blobSize) {
+        // saccades are too fast to be followed, a jump further than the radius is taken as it is
+        double gate = Math.max(radius.position(), 1);
+        if (!tracking
+                || Math.abs(blobX - centerX.position()) > gate
+                || Math.abs(blobY - centerY.position()) > gate) {
+            centerX.reset(blobX);
+            centerY.reset(blobY);
+            radius.reset(blobSize);
+            tracking = true;
+            return;
         }
+
+        centerX.update(blobX);
+        centerY.update(blobY);
+        radius.update(blobSize);
+    }
+
+    /**
+     * Forgets the motion, the next detection is taken as it is.
+     */
+    public void reset() {
+        tracking = false;
     }
 
     public Circle get() {
@@ -44,9 +79,13 @@ public class CircleRegion {
     }
 
     public Circle get(Point offset) {
-        int x = center.x + offset.x;
-        int y = center.y + offset.y;
-        int radius = this.radius;
+        return get(offset.x, offset.y, new Circle());
+    }
+
+    public Circle get(int offsetX, int offsetY, Circle out) {
+        int x = (int) centerX.position() + offsetX;
+        int y = (int) centerY.position() + offsetY;
+        int radius = (int) this.radius.position();
 
         if (x < 0) {
             x = 0;
@@ -67,9 +106,7 @@ public class CircleRegion {
             radius = screenSize.height;
         }
 
-        return new Circle(
-                new Point(x, y),
-                radius
-        );
+        out.set(x, y, radius);
+        return out;
     }
 }
@@ -0,0 +1,242 @@
+package pl.edu.agh.sm.eyetracking;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pl.edu.agh.sm.eyetracking.logging.Logger;
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+/**
+ * Runs detection stages on their own threads, decoupled from the camera callback thread.
+ * Every stage boundary is a single-slot handoff where the latest frame wins, so a slow stage
+ * never builds a backlog. Frames overwritten before entering the pipeline are counted as dropped,
+ * frames overtaken between stages (after some detection work was spent on them) as stale.
+ */
+public class DetectionPipeline {
+
+    public interface Stage {
+        void process(FramePyramid pyramid, TrackingResult result);
+    }
+
+    private static final String TAG = DetectionPipeline.class.getCanonicalName();
+    private static final long STOP_TIMEOUT_MS = 1000;
+
+    private final Stage[] stages;
+    private final FrameSlot[] slots;
+    private final ExecutorService[] executors;
+
+    private final List<PipelineFrame> frames = new ArrayList<>();
+    private BlockingQueue<PipelineFrame> freeFrames;
+
+    private final TrackingResult latestResult = new TrackingResult();
+    private boolean hasLatestResult;
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong staleFrames = new AtomicLong();
+    private long sequence;
+
+    private volatile boolean started;
+
+    public DetectionPipeline(Stage... stages) {
+        this.stages = stages;
+        slots = new FrameSlot[stages.length];
+        executors = new ExecutorService[stages.length];
+    }
+
+    public void start(Size frameSize) {
+        // one frame being filled, one waiting in front of and one being processed by each stage
+        int poolSize = 2 * stages.length + 1;
+        freeFrames = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            PipelineFrame frame = new PipelineFrame(frameSize);
+            frames.add(frame);
+            freeFrames.add(frame);
+        }
+
+        for (int i = 0; i < stages.length; i++) {
+            slots[i] = new FrameSlot();
+        }
+        for (int i = 0; i < stages.length; i++) {
+            final int index = i;
+            executors[i] = Executors.newSingleThreadExecutor();
+            executors[i].execute(new Runnable() {
+                @Override
+                public void run() {
+                    runStage(index);
+                }
+            });
+        }
+
+        synchronized (latestResult) {
+            hasLatestResult = false;
+        }
+        droppedFrames.set(0);
+        staleFrames.set(0);
+        sequence = 0;
+        started = true;
+    }
+
+    public void submit(Mat gray) {
+        if (!started) {
+            return;
+        }
+        sequence++;
+
+        PipelineFrame frame = freeFrames.poll();
+        if (frame == null) {
+            droppedFrames.incrementAndGet();
+            return;
+        }
+
+        long timestamp = System.nanoTime();
+        gray.copyTo(frame.gray);
+        frame.pyramid.update(frame.gray);
+        frame.result.clear(sequence);
+        frame.result.timestampNanos = timestamp;
+
+        PipelineFrame dropped = slots[0].put(frame);
+        if (dropped != null) {
+            droppedFrames.incrementAndGet();
+            freeFrames.add(dropped);
+        }
+    }
+
+    private void runStage(int index) {
+        Stage stage = stages[index];
+        FrameSlot input = slots[index];
+        FrameSlot output = index + 1 < slots.length ? slots[index + 1] : null;
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                PipelineFrame frame = input.take();
+                stage.process(frame.pyramid, frame.result);
+
+                if (output == null) {
+                    publish(frame.result);
+                    freeFrames.add(frame);
+                    continue;
+                }
+
+                PipelineFrame overtaken = output.put(frame);
+                if (overtaken != null) {
+                    staleFrames.incrementAndGet();
+                    freeFrames.add(overtaken);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void publish(TrackingResult result) {
+        synchronized (latestResult) {
+            latestResult.set(result);
+            hasLatestResult = true;
+        }
+    }
+
+    /**
+     * Returns once every stage has finished its frame, so the stages can be released afterwards.
+     */
+    public void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+
+        for (ExecutorService executor : executors) {
+            executor.shutdownNow();
+        }
+        // an interrupt does not stop a stage inside native detection, and until it returns
+        // it still uses its frame and the detectors, so the wait is not cut short
+        boolean interrupted = false;
+        for (ExecutorService executor : executors) {
+            while (true) {
+                try {
+                    if (executor.awaitTermination(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                        break;
+                    }
+                    Logger.w(TAG, "Still waiting for a detection stage to finish");
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (PipelineFrame frame : frames) {
+            frame.release();
+        }
+        frames.clear();
+        freeFrames = null;
+    }
+
+    /**
+     * Copies the result of the most recently completed frame to {@code out}.
+     *
+     * @return false if no frame has completed yet
+     */
+    public boolean copyLatestResult(TrackingResult out) {
+        synchronized (latestResult) {
+            if (!hasLatestResult) {
+                return false;
+            }
+            out.set(latestResult);
+            return true;
+        }
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    public long getStaleFrames() {
+        return staleFrames.get();
+    }
+
+    private static class PipelineFrame {
+        final Mat gray;
+        final FramePyramid pyramid;
+        final TrackingResult result = new TrackingResult();
+
+        PipelineFrame(Size frameSize) {
+            gray = new Mat(frameSize.toOpenCV(), CvType.CV_8UC1);
+            pyramid = new FramePyramid(frameSize);
+        }
+
+        void release() {
+            pyramid.release();
+            gray.release();
+        }
+    }
+
+    private static class FrameSlot {
+        private PipelineFrame frame;
+
+        synchronized PipelineFrame put(PipelineFrame frame) {
+            PipelineFrame replaced = this.frame;
+            this.frame = frame;
+            notifyAll();
+            return replaced;
+        }
+
+        synchronized PipelineFrame take() throws InterruptedException {
+            while (frame == null) {
+                wait();
+            }
+            PipelineFrame taken = frame;
+            frame = null;
+            return taken;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package pl.edu.agh.sm.eyetracking;
+
+/**
+ * Decides for every frame whether the face and eye cascades run or their regions only follow
+ * the motion model. Pupils are located on every frame.
+ * <p>
+ * The cascades run every few frames, at intervals chosen from the measured cost of each stage
+ * so that detection fits in the frame time of the target frame rate, and at once
+ * after a big movement or a miss.
+ * <p>
+ * {@link #scheduleFace} is called on the face detection thread, {@link #scheduleEyes}
+ * on the eye detection thread and {@link #completed} once the frame is done.
+ */
+public class DetectionScheduler {
+
+    // weight of the newest frame in the averaged stage costs
+    private static final double COST_SMOOTHING = 0.1;
+    // face movement per frame, relative to the face size, that triggers a full detection
+    private static final double MOTION_THRESHOLD = 0.05;
+
+    private volatile boolean enabled = true;
+    private volatile int targetFps = 30;
+    private volatile boolean pipelined;
+    private int maxFaceInterval = 5;
+    private int maxEyeInterval = 2;
+
+    private volatile int faceInterval = 1;
+    private volatile int eyeInterval = 1;
+    private int framesSinceFace;
+    private int framesSinceEyes;
+
+    private double faceCost;
+    private double eyesCost;
+    private double pupilsCost;
+
+    /**
+     * @param motion face speed relative to its size, in faces per frame
+     * @param confident whether the face was found by the last detection
+     * @return whether the face cascade runs on this frame
+     */
+    public boolean scheduleFace(double motion, boolean confident) {
+        framesSinceFace++;
+        if (enabled && confident && motion < MOTION_THRESHOLD && framesSinceFace < faceInterval) {
+            return false;
+        }
+        framesSinceFace = 0;
+        return true;
+    }
+
+    /**
+     * @param faceSearched whether the face cascade ran on this frame, which moves the eye search area
+     * @param confident whether both eyes were found by the last detection
+     * @return whether the eye cascade runs on this frame
+     */
+    public boolean scheduleEyes(boolean faceSearched, boolean confident) {
+        framesSinceEyes++;
+        if (enabled && !faceSearched && confident && framesSinceEyes < eyeInterval) {
+            return false;
+        }
+        framesSinceEyes = 0;
+        return true;
+    }
+
+    /**
+     * Updates the stage costs with the timings of a processed frame and adjusts the intervals.
+     */
+    public void completed(TrackingResult result) {
+        if (result.faceSearched) {
+            faceCost = smooth(faceCost, result.faceNanos);
+        }
+        if (result.eyesSearched) {
+            eyesCost = smooth(eyesCost, result.eyesNanos);
+        }
+        pupilsCost = smooth(pupilsCost, result.pupilsNanos);
+        updateIntervals();
+    }
+
+    private static double smooth(double average, long nanos) {
+        return average == 0 ? nanos : average + COST_SMOOTHING * (nanos - average);
+    }
+
+    /**
+     * Lengthens the interval of the stage that costs more per frame until detection fits in the budget
+     * or both intervals reach their maximum.
+     */
+    private void updateIntervals() {
+        double budget = 1e9 / targetFps;
+        int face = 1;
+        int eyes = 1;
+        while (costPerFrame(face, eyes) > budget) {
+            boolean faceLonger = face < maxFaceInterval
+                    && (eyes >= maxEyeInterval || faceCost / face >= eyesCost / eyes);
+            if (faceLonger) {
+                face++;
+            }
+            else if (eyes < maxEyeInterval) {
+                eyes++;
+            }
+            else {
+                break;
+            }
+        }
+        faceInterval = face;
+        eyeInterval = eyes;
+    }
+
+    private double costPerFrame(int face, int eyes) {
+        // pipelined stages run in parallel, so the slowest one limits the frame rate
+        if (pipelined) {
+            return Math.max(Math.max(faceCost / face, eyesCost / eyes), pupilsCost);
+        }
+        return faceCost / face + eyesCost / eyes + pupilsCost;
+    }
+
+    public void reset() {
+        faceInterval = 1;
+        eyeInterval = 1;
+        framesSinceFace = 0;
+        framesSinceEyes = 0;
+        faceCost = 0;
+        eyesCost = 0;
+        pupilsCost = 0;
+    }
+
+    /**
+     * When disabled, every stage runs on every frame.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setTargetFps(int targetFps) {
+        this.targetFps = targetFps;
+    }
+
+    public int getTargetFps() {
+        return targetFps;
+    }
+
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Limits how long the face and eye regions may only be predicted. Call before detection starts.
+     */
+    public void setMaxIntervals(int maxFaceInterval, int maxEyeInterval) {
+        this.maxFaceInterval = maxFaceInterval;
+        this.maxEyeInterval = maxEyeInterval;
+    }
+
+    public int getFaceInterval() {
+        return enabled ? faceInterval : 1;
+    }
+
+    public int getEyeInterval() {
+        return enabled ? eyeInterval : 1;
+    }
+}
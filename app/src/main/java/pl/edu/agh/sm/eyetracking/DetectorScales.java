@@ -0,0 +1,64 @@
+package pl.edu.agh.sm.eyetracking;
+
+import java.util.Locale;
+
+import pl.edu.agh.sm.eyetracking.detectors.EyeDetector;
+import pl.edu.agh.sm.eyetracking.detectors.FaceDetector;
+import pl.edu.agh.sm.eyetracking.detectors.PupilDetector;
+
+/**
+ * How much each detection stage scales the frame down and how finely the cascades search
+ * between object sizes. Smaller scales find smaller faces and place them more precisely, at a higher cost.
+ */
+public class DetectorScales {
+
+    // a power of two, the face is searched on a level of the frame pyramid
+    public int faceScale = FaceDetector.DEFAULT_SCALE;
+    public double faceScaleFactor = FaceDetector.DEFAULT_SCALE_FACTOR;
+    public int eyeScale = EyeDetector.DEFAULT_SCALE;
+    public int eyeScaleSteps = EyeDetector.DEFAULT_SCALE_STEPS;
+    public int pupilScale = PupilDetector.DEFAULT_SCALE;
+
+    public DetectorScales() {
+    }
+
+    public DetectorScales(DetectorScales other) {
+        set(other);
+    }
+
+    public void set(DetectorScales other) {
+        faceScale = other.faceScale;
+        faceScaleFactor = other.faceScaleFactor;
+        eyeScale = other.eyeScale;
+        eyeScaleSteps = other.eyeScaleSteps;
+        pupilScale = other.pupilScale;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DetectorScales)) {
+            return false;
+        }
+        DetectorScales other = (DetectorScales) o;
+        return faceScale == other.faceScale
+                && faceScaleFactor == other.faceScaleFactor
+                && eyeScale == other.eyeScale
+                && eyeScaleSteps == other.eyeScaleSteps
+                && pupilScale == other.pupilScale;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = faceScale;
+        hash = 31 * hash + Double.valueOf(faceScaleFactor).hashCode();
+        hash = 31 * hash + eyeScale;
+        hash = 31 * hash + eyeScaleSteps;
+        return 31 * hash + pupilScale;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "face 1/%d x%.2f, eyes 1/%d in %d steps, pupils 1/%d",
+                faceScale, faceScaleFactor, eyeScale, eyeScaleSteps, pupilScale);
+    }
+}
@@ -0,0 +1,129 @@
+package pl.edu.agh.sm.eyetracking;
+
+import org.opencv.core.Rect;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.util.Locale;
+
+import pl.edu.agh.sm.eyetracking.detectors.CascadeBackend;
+import pl.edu.agh.sm.eyetracking.detectors.EyeDetector;
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+/**
+ * Runs the whole-face and the constrained eye search side by side on the same frames
+ * and reports time per frame and how often both searches agree on each eye.
+ */
+public class EyeSearchComparison {
+
+    private static final double AGREEMENT_IOU = 0.5;
+
+    private final EyeDetector referenceDetector;
+    private final EyeDetector constrainedDetector;
+    private final TrackingResult reference = new TrackingResult();
+    private final TrackingResult constrained = new TrackingResult();
+
+    private int frames;
+    private long referenceNanos;
+    private long constrainedNanos;
+    private int leftAgreements;
+    private int rightAgreements;
+
+    public EyeSearchComparison(CascadeClassifier eyeClassifier, Size frameSize) {
+        CascadeBackend eyeBackend = new CascadeBackend(eyeClassifier);
+        referenceDetector = new EyeDetector(eyeBackend);
+        referenceDetector.setConstrainedSearch(false);
+        referenceDetector.initialize(frameSize);
+
+        constrainedDetector = new EyeDetector(eyeBackend);
+        constrainedDetector.setConstrainedSearch(true);
+        constrainedDetector.initialize(frameSize);
+    }
+
+    public void compare(FramePyramid pyramid, Rect faceROI) {
+        setFace(reference, faceROI);
+        setFace(constrained, faceROI);
+
+        long start = System.nanoTime();
+        referenceDetector.detect(pyramid, reference);
+        long middle = System.nanoTime();
+        constrainedDetector.detect(pyramid, constrained);
+        long end = System.nanoTime();
+
+        frames++;
+        referenceNanos += middle - start;
+        constrainedNanos += end - middle;
+        if (agree(reference.hasLeftEye, reference.leftEye, constrained.hasLeftEye, constrained.leftEye)) {
+            leftAgreements++;
+        }
+        if (agree(reference.hasRightEye, reference.rightEye, constrained.hasRightEye, constrained.rightEye)) {
+            rightAgreements++;
+        }
+    }
+
+    private static void setFace(TrackingResult result, Rect faceROI) {
+        result.face.x = faceROI.x;
+        result.face.y = faceROI.y;
+        result.face.width = faceROI.width;
+        result.face.height = faceROI.height;
+        result.hasFace = true;
+    }
+
+    private static boolean agree(boolean hasA, Rect a, boolean hasB, Rect b) {
+        if (!hasA || !hasB) {
+            return hasA == hasB;
+        }
+        int x = Math.max(a.x, b.x);
+        int y = Math.max(a.y, b.y);
+        int width = Math.min(a.x + a.width, b.x + b.width) - x;
+        int height = Math.min(a.y + a.height, b.y + b.height) - y;
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+        double intersection = (double) width * height;
+        return intersection / (a.area() + b.area() - intersection) >= AGREEMENT_IOU;
+    }
+
+    public void release() {
+        constrainedDetector.deinitialize();
+        referenceDetector.deinitialize();
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return the fraction of frames in which both searches agree on the left eye
+     */
+    public double getLeftAgreement() {
+        return frames == 0 ? 0 : (double) leftAgreements / frames;
+    }
+
+    public double getRightAgreement() {
+        return frames == 0 ? 0 : (double) rightAgreements / frames;
+    }
+
+    /**
+     * @return the time of the whole-face search divided by the time of the constrained one
+     */
+    public double getSpeedup() {
+        return constrainedNanos == 0 ? 0 : (double) referenceNanos / constrainedNanos;
+    }
+
+    public String report() {
+        if (frames == 0) {
+            return "No frames with a face";
+        }
+        double referenceMs = referenceNanos / 1e6 / frames;
+        double constrainedMs = constrainedNanos / 1e6 / frames;
+        return String.format(Locale.US,
+                "frames: %d, whole face: %.2f ms/frame, constrained: %.2f ms/frame (%.1fx), "
+                        + "left eye agreement: %.1f%%, right eye agreement: %.1f%%",
+                frames,
+                referenceMs,
+                constrainedMs,
+                referenceMs / constrainedMs,
+                100.0 * leftAgreements / frames,
+                100.0 * rightAgreements / frames);
+    }
+}
@@ -1,159 +1,510 @@
 package pl.edu.agh.sm.eyetracking;
 
-import androidx.core.util.Pair;
-
-import org.opencv.android.CameraBridgeViewBase;
-import org.opencv.core.Core;
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.Rect;
-import org.opencv.core.Scalar;
-import org.opencv.imgproc.Imgproc;
 import org.opencv.objdetect.CascadeClassifier;
 
+import java.util.concurrent.atomic.AtomicReference;
+
+import pl.edu.agh.sm.eyetracking.detectors.BlobParameters;
+import pl.edu.agh.sm.eyetracking.detectors.BlobPupilLocator;
+import pl.edu.agh.sm.eyetracking.detectors.CascadeBackend;
+import pl.edu.agh.sm.eyetracking.detectors.DarkRegionPupilLocator;
+import pl.edu.agh.sm.eyetracking.detectors.DetectorBackend;
 import pl.edu.agh.sm.eyetracking.detectors.EyeDetector;
 import pl.edu.agh.sm.eyetracking.detectors.FaceDetector;
 import pl.edu.agh.sm.eyetracking.detectors.PupilDetector;
-import pl.edu.agh.sm.eyetracking.util.Circle;
-import pl.edu.agh.sm.eyetracking.util.Point;
+import pl.edu.agh.sm.eyetracking.gaze.GazeStream;
+import pl.edu.agh.sm.eyetracking.logging.Logger;
+import pl.edu.agh.sm.eyetracking.logging.TraceBuffer;
+import pl.edu.agh.sm.eyetracking.profiling.StageProfiler;
+import pl.edu.agh.sm.eyetracking.source.CameraFrame;
 import pl.edu.agh.sm.eyetracking.util.Size;
 
 
-public class EyeTrackingProcessor implements CameraBridgeViewBase.CvCameraViewListener2 {
+public class EyeTrackingProcessor {
 
     private static final String TAG = EyeTrackingProcessor.class.getCanonicalName();
 
+    private final DetectorBackend faceBackend;
+    private final DetectorBackend eyeBackend;
     private final FaceDetector faceDetector;
     private final EyeDetector eyeDetector;
     private final PupilDetector pupilDetector;
-
-    private Mat outputImage;
+    private final DarkRegionPupilLocator darkRegionPupilLocator = new DarkRegionPupilLocator();
+    private final DetectionPipeline pipeline;
+    private final DetectionScheduler scheduler = new DetectionScheduler();
+    private final MotionGate motionGate = new MotionGate();
+    private volatile boolean motionGateEnabled = true;
+    private final StageProfiler profiler = new StageProfiler();
+    private final TraceBuffer trace = new TraceBuffer();
+
+    private FramePyramid pyramid;
+    private final TrackingResult result = new TrackingResult();
+    private boolean hasResult;
+    private volatile TrackingListener listener;
+    private final GazeStream gazeStream = new GazeStream();
+
+    private volatile boolean preview = true;
+    private boolean pipelined;
+    private boolean pipelineRunning;
+    private long sequence;
+
+    // scales of the detectors, applied on start
+    private final DetectorScales scales = new DetectorScales();
+    private final AtomicReference<DetectorScales> requestedScales = new AtomicReference<>();
+    private volatile ScaleStore scaleStore;
+    private volatile ScaleCalibration.Listener calibrationListener;
+    private final AtomicReference<ScaleCalibration> requestedCalibration = new AtomicReference<>();
+    private ScaleCalibration calibration;
+    // a failed calibration is not repeated on every restart
+    private boolean calibratedOnStart;
+    private Size frameSize;
 
     public EyeTrackingProcessor(CascadeClassifier faceClassifier, CascadeClassifier eyeClassifier) {
-        faceDetector = new FaceDetector(faceClassifier);
-        eyeDetector = new EyeDetector(eyeClassifier);
+        this(faceClassifier, eyeClassifier, null);
+    }
+
+    /**
+     * @param secondEyeClassifier another instance of the eye cascade, so both eyes can be searched
+     *                            at the same time with {@link #setParallelEyes(boolean)}; may be null
+     */
+    public EyeTrackingProcessor(CascadeClassifier faceClassifier, CascadeClassifier eyeClassifier,
+                                CascadeClassifier secondEyeClassifier) {
+        this(new CascadeBackend(faceClassifier),
+                new CascadeBackend(eyeClassifier),
+                secondEyeClassifier != null ? new CascadeBackend(secondEyeClassifier) : null);
+    }
+
+    /**
+     * @param secondEyeBackend another instance of the eye backend, so both eyes can be searched
+     *                         at the same time with {@link #setParallelEyes(boolean)}; may be null
+     */
+    public EyeTrackingProcessor(DetectorBackend faceBackend, DetectorBackend eyeBackend,
+                                DetectorBackend secondEyeBackend) {
+        this.faceBackend = faceBackend;
+        this.eyeBackend = eyeBackend;
+        faceDetector = new FaceDetector(faceBackend);
+        eyeDetector = new EyeDetector(eyeBackend, secondEyeBackend);
+        scales.faceScale = FaceDetector.defaultScale(faceBackend);
         pupilDetector = new PupilDetector();
+        pipeline = new DetectionPipeline(
+                new DetectionPipeline.Stage() {
+                    @Override
+                    public void process(FramePyramid pyramid, TrackingResult result) {
+                        detectFace(pyramid, result);
+                    }
+                },
+                new DetectionPipeline.Stage() {
+                    @Override
+                    public void process(FramePyramid pyramid, TrackingResult result) {
+                        detectEyes(pyramid, result);
+                    }
+                },
+                new DetectionPipeline.Stage() {
+                    @Override
+                    public void process(FramePyramid pyramid, TrackingResult result) {
+                        detectPupils(pyramid, result);
+                        scheduler.completed(result);
+                        profiler.detectionCompleted();
+                        publishResult(result);
+                    }
+                }
+        );
+
+        faceDetector.setProfiler(profiler);
+        eyeDetector.setProfiler(profiler);
+        pupilDetector.setProfiler(profiler);
+        faceDetector.setTrace(trace);
+        eyeDetector.setTrace(trace);
+        pupilDetector.setTrace(trace);
     }
 
-    @Override
-    public void onCameraViewStarted(int width, int height) {
-        Size screenSize = new Size(width, height); 
-        outputImage = new Mat(screenSize.toOpenCV(), CvType.CV_8UC4);
+    public void start(Size screenSize) {
+        frameSize = screenSize;
+        pyramid = new FramePyramid(screenSize);
 
+        ScaleStore store = scaleStore;
+        if (store != null) {
+            DetectorScales stored = store.load(screenSize);
+            if (stored != null) {
+                scales.set(stored);
+            }
+            else if (!calibratedOnStart) {
+                Logger.i(TAG, "No detector scales stored for " + screenSize + ", calibrating");
+                calibratedOnStart = true;
+                calibrate();
+            }
+        }
+        faceDetector.setScale(scales.faceScale, scales.faceScaleFactor);
+        eyeDetector.setScale(scales.eyeScale, scales.eyeScaleSteps);
+        pupilDetector.setScale(scales.pupilScale);
         faceDetector.initialize(screenSize);
         eyeDetector.initialize(screenSize);
         pupilDetector.initialize(screenSize);
+
+        pipelineRunning = pipelined;
+        scheduler.reset();
+        motionGate.reset();
+        scheduler.setPipelined(pipelineRunning);
+        if (pipelineRunning) {
+            pipeline.start(screenSize);
+        }
+        hasResult = false;
+
+        TrackingListener current = listener;
+        if (current != null) {
+            current.onTrackingStarted(screenSize);
+        }
     }
 
-    @Override
-    public void onCameraViewStopped() {
+    public void stop() {
+        if (calibration != null) {
+            calibration.release();
+            calibration = null;
+        }
+        if (pipelineRunning) {
+            pipeline.stop();
+            if (Logger.DEBUG && Logger.isLoggable(Logger.Level.DEBUG)) {
+                Logger.d(TAG, "Pipeline stopped, dropped frames: " + pipeline.getDroppedFrames()
+                        + ", stale frames: " + pipeline.getStaleFrames());
+            }
+            pipelineRunning = false;
+        }
+
         pupilDetector.deinitialize();
         eyeDetector.deinitialize();
         faceDetector.deinitialize();
         
-        outputImage.release();
-    }
+        pyramid.release();
 
-    @Override
-    public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame cvCameraViewFrame) {
-        process(cvCameraViewFrame);
-        return outputImage;
+        TrackingListener current = listener;
+        if (current != null) {
+            current.onTrackingStopped();
+        }
     }
 
-    private void process(CameraBridgeViewBase.CvCameraViewFrame frame) {
-        Mat inputImage = frame.rgba();
-        
-        Rect faceROI = faceDetector.detect(frame);
+    /**
+     * Runs detection on the frame, or hands it to the pipeline. Results are delivered to the
+     * {@link TrackingListener}, nothing is drawn on the frame.
+     *
+     * @return the RGBA frame for the preview, not mirrored, or null when the preview is disabled
+     */
+    public Mat process(CameraFrame frame) {
+        DetectorScales requested = requestedScales.getAndSet(null);
+        if (requested != null && !requested.equals(scales)) {
+            scales.set(requested);
+            restart();
+        }
+        long frameStart = profiler.start();
+
+        long start;
+        Mat previewImage = null;
+        if (preview) {
+            start = profiler.start();
+            previewImage = frame.rgba();
+            profiler.stop(StageProfiler.Stage.RGBA, start);
+        }
 
-        if (faceROI != null) {
-            drawRectangle(inputImage, faceROI, new Scalar(255, 0, 0), 3);
+        // nothing is tracked while calibrating
+        boolean calibrating = calibrate(frame);
+        if (!calibrating && pipelineRunning) {
+            start = profiler.start();
+            pipeline.submit(frame.gray());
+            profiler.stop(StageProfiler.Stage.GRAY, start);
+            hasResult = pipeline.copyLatestResult(result);
+        }
+        else if (!calibrating) {
+            result.clear(++sequence);
+            result.timestampNanos = System.nanoTime();
+            start = profiler.start();
+            pyramid.update(frame);
+            profiler.stop(StageProfiler.Stage.GRAY, start);
+            detectFace(pyramid, result);
+            detectEyes(pyramid, result);
+            detectPupils(pyramid, result);
+            scheduler.completed(result);
+            profiler.detectionCompleted();
+            hasResult = true;
+            publishResult(result);
+        }
 
-            Pair<Rect, Rect> eyeROIs = eyeDetector.detect(frame, faceROI);
+        profiler.stop(StageProfiler.Stage.FRAME, frameStart);
+        profiler.previewFrameCompleted();
+        return previewImage;
+    }
 
-            Rect leftEyeROI = eyeROIs.first;
-            if (leftEyeROI != null) {
-                drawRectangle(inputImage, leftEyeROI, new Scalar(0, 255, 0), 2);
+    /**
+     * Feeds the frame to a requested calibration, instead of tracking.
+     *
+     * @return whether the frame was used for calibration
+     */
+    private boolean calibrate(CameraFrame frame) {
+        if (calibration == null) {
+            calibration = requestedCalibration.getAndSet(null);
+            if (calibration == null) {
+                return false;
             }
-
-            Rect rightEyeROI = eyeROIs.second;
-            if (rightEyeROI != null) {
-                drawRectangle(inputImage, rightEyeROI, new Scalar(0, 255, 128), 2);
+            // the candidates share the backends with the pipeline stages
+            if (pipelineRunning) {
+                pipeline.stop();
+                pipelineRunning = false;
             }
+            calibration.initialize(frameSize, scales);
+        }
+        pyramid.update(frame);
+        if (calibration.process(pyramid)) {
+            // the listener has already applied any new scales
+            calibration = null;
+            restart();
+        }
+        return true;
+    }
 
+    private void restart() {
+        stop();
+        start(frameSize);
+    }
 
-            Pair<Circle, Circle> pupilROIs = pupilDetector.detect(frame, eyeROIs);
+    private void publishResult(TrackingResult result) {
+        gazeStream.publish(result);
+        TrackingListener current = listener;
+        if (current != null) {
+            current.onTrackingResult(result);
+        }
+    }
 
-            Circle leftPupilROI = pupilROIs.first;
-            if (leftPupilROI != null) {
-                drawCircle(inputImage, leftPupilROI);
+    private void detectFace(FramePyramid pyramid, TrackingResult result) {
+        long start = System.nanoTime();
+        if (motionGateEnabled) {
+            // the level is built here once and then reused by the face detector
+            result.still = motionGate.update(pyramid.get(faceDetector.getScale()));
+        }
+        if (result.still && faceDetector.isConfident()) {
+            faceDetector.hold(result);
+        }
+        else {
+            result.faceSearched = scheduler.scheduleFace(faceDetector.getMotion(), faceDetector.isConfident());
+            if (result.faceSearched) {
+                faceDetector.detect(pyramid, result);
             }
-            Circle rightPupilROI = pupilROIs.second;
-            if (rightPupilROI != null) {
-                drawCircle(inputImage, rightPupilROI);
+            else {
+                faceDetector.track(result);
             }
+        }
+        result.faceNanos = System.nanoTime() - start;
+    }
 
-
-            if (leftEyeROI != null && leftPupilROI != null) {
-                visualiseTracking(inputImage, leftEyeROI, leftPupilROI);
+    private void detectEyes(FramePyramid pyramid, TrackingResult result) {
+        if (!result.hasFace) {
+            return;
+        }
+        long start = System.nanoTime();
+        if (result.still && !result.faceSearched && eyeDetector.isConfident()) {
+            eyeDetector.hold(result);
+        }
+        else {
+            result.eyesSearched = scheduler.scheduleEyes(result.faceSearched, eyeDetector.isConfident());
+            if (result.eyesSearched) {
+                eyeDetector.detect(pyramid, result);
             }
-
-            if (rightEyeROI != null && rightPupilROI != null) {
-                visualiseTracking(inputImage, rightEyeROI, rightPupilROI);
+            else {
+                eyeDetector.track(result);
             }
         }
+        result.eyesNanos = System.nanoTime() - start;
+    }
 
-        Core.flip(inputImage, inputImage, 1);
+    private void detectPupils(FramePyramid pyramid, TrackingResult result) {
+        if (!result.hasFace) {
+            return;
+        }
+        long start = System.nanoTime();
+        pupilDetector.detect(pyramid, result);
+        result.pupilsNanos = System.nanoTime() - start;
+    }
 
-        inputImage.copyTo(outputImage);
-        inputImage.release();
+    public void setThreshold(int threshold) {
+        pupilDetector.setThreshold(threshold);
     }
 
-    private void visualiseTracking(Mat inputImage, Rect eyeROI, Circle pupilROI) {
-        Point pupilCenter = new Point(eyeROI.x + eyeROI.width / 2, eyeROI.y + eyeROI.height / 2);
-        drawArrow(inputImage, pupilCenter, pupilROI.center, new Scalar(255, 255, 0), 2);
+    public void setThresholdMode(BlobPupilLocator.ThresholdMode thresholdMode) {
+        pupilDetector.getBlobLocator().setThresholdMode(thresholdMode);
+    }
 
-        Point arrowStart = new Point(
-                pupilCenter.x,
-                pupilCenter.y + eyeROI.height
-        );
+    /**
+     * @param eye {@code PupilLocator.LEFT_EYE} or {@code PupilLocator.RIGHT_EYE}
+     */
+    public int getThreshold(int eye) {
+        return pupilDetector.getBlobLocator().getThreshold(eye);
+    }
 
-        int deltaX = (pupilROI.center.x - pupilCenter.x) * 3;
-        int deltaY = (pupilROI.center.y - pupilCenter.y) * 3;
+    public void setBlobParameters(BlobParameters blobParameters) {
+        pupilDetector.setBlobParameters(blobParameters);
+    }
 
-        Point arrowEnd = new Point(
-                arrowStart.x + deltaX,
-                arrowStart.y + deltaY
-        );
+    /**
+     * Locates pupils as the darkest region of the eye instead of by threshold and blob detection.
+     * The threshold does not apply then.
+     */
+    public void setDarkRegionPupils(boolean darkRegion) {
+        pupilDetector.setLocator(darkRegion ? darkRegionPupilLocator : pupilDetector.getBlobLocator());
+    }
 
-        drawArrow(inputImage, arrowStart, arrowEnd, new Scalar(24, 24, 24), 4);
+    /**
+     * When enabled, the left and the right eye are processed at the same time on worker threads:
+     * the pupils always, the eye cascade when a second eye classifier was given.
+     */
+    public void setParallelEyes(boolean parallel) {
+        eyeDetector.setParallel(parallel);
+        pupilDetector.setParallel(parallel);
     }
 
-    private void drawArrow(Mat inputImage, Point start, Point end, Scalar color, int thickness) {
-        Imgproc.arrowedLine(inputImage,
-                start.toOpenCV(),
-                end.toOpenCV(),
-                color,
-                thickness);
+    public void setFaceTracking(boolean tracking) {
+        faceDetector.setTracking(tracking);
     }
 
-    private void drawRectangle(Mat inputImage, Rect rect, Scalar color, int thickness) {
-        Imgproc.rectangle(inputImage,
-                new Point(rect.x, rect.y).toOpenCV(),
-                new Point(rect.x + rect.width, rect.y + rect.height).toOpenCV(),
-                color,
-                thickness
-        );
+    /**
+     * When disabled, frames are only used in gray and {@link #process} returns null,
+     * for tracking without a preview or with a preview drawn by the camera.
+     */
+    public void setPreview(boolean preview) {
+        this.preview = preview;
     }
 
-    private void drawCircle(Mat inputImage, Circle circle) {
-        Imgproc.circle(inputImage,
-                circle.center.toOpenCV(),
-                circle.radius,
-                new Scalar(0, 255, 255),
-                1);
+    /**
+     * When enabled, the face and eye cascades run only every few frames, as often as the target
+     * frame rate allows, and the regions follow their motion model in between.
+     */
+    public void setScheduledDetection(boolean scheduled) {
+        scheduler.setEnabled(scheduled);
     }
 
-    public void setThreshold(int threshold) {
-        pupilDetector.setThreshold(threshold);
+    /**
+     * When enabled, frames in which nothing moved reuse the face and eye regions and only pupils are located.
+     */
+    public void setMotionGate(boolean enabled) {
+        motionGateEnabled = enabled;
+    }
+
+    public void setTargetFps(int targetFps) {
+        scheduler.setTargetFps(targetFps);
+    }
+
+    public DetectionScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Runs detection on background threads, off the camera callback thread.
+     * Takes effect when the camera view is (re)started.
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Receives the result of every frame that completes detection, on the thread that completed it:
+     * the camera thread, or the last pipeline thread when pipelined. The result instance is reused,
+     * so it has to be copied to be kept. Start and stop are reported on the camera thread.
+     * Pass null to remove the listener.
+     */
+    public void setTrackingListener(TrackingListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Gaze samples of every frame that completes detection, for consumers that must not slow detection down.
+     */
+    public GazeStream getGazeStream() {
+        return gazeStream;
+    }
+
+    /**
+     * @return the latest result available when the last frame was processed, or null if there is none yet.
+     * The instance is reused for the following frames.
+     */
+    public TrackingResult getLatestResult() {
+        return hasResult ? result : null;
+    }
+
+    public StageProfiler getProfiler() {
+        return profiler;
+    }
+
+    public DetectorBackend getFaceBackend() {
+        return faceBackend;
+    }
+
+    /**
+     * Sets the scales of the detectors, they are restarted with the next frame.
+     */
+    public void setScales(DetectorScales scales) {
+        requestedScales.set(new DetectorScales(scales));
+    }
+
+    /**
+     * @return a copy of the scales the detectors run at
+     */
+    public DetectorScales getScales() {
+        return new DetectorScales(scales);
+    }
+
+    /**
+     * Scales are loaded from the store for the frame size on start. If none are stored,
+     * the detectors are calibrated on the first frames and the chosen scales are stored.
+     */
+    public void setScaleStore(ScaleStore scaleStore) {
+        this.scaleStore = scaleStore;
+    }
+
+    public void setCalibrationListener(ScaleCalibration.Listener calibrationListener) {
+        this.calibrationListener = calibrationListener;
+    }
+
+    public void calibrate() {
+        calibrate(ScaleCalibration.DEFAULT_FRAMES);
+    }
+
+    /**
+     * Calibrates the detector scales on the next frames for the target frame rate, for at most
+     * {@link ScaleCalibration#DEFAULT_DURATION_MS}. Nothing is tracked meanwhile. The chosen scales
+     * are applied, stored and reported to the calibration listener.
+     */
+    public void calibrate(int frames) {
+        requestedCalibration.set(new ScaleCalibration(faceBackend, eyeBackend,
+                frames, ScaleCalibration.DEFAULT_DURATION_MS, scheduler.getTargetFps(),
+                new ScaleCalibration.Listener() {
+                    @Override
+                    public void onCalibrated(DetectorScales chosen, String report) {
+                        Logger.i(TAG, "Calibrated: " + report);
+                        if (chosen != null) {
+                            requestedScales.set(null);
+                            scales.set(chosen);
+                            ScaleStore store = scaleStore;
+                            if (store != null) {
+                                store.save(frameSize, chosen);
+                            }
+                        }
+                        ScaleCalibration.Listener current = calibrationListener;
+                        if (current != null) {
+                            current.onCalibrated(chosen, report);
+                        }
+                    }
+                }));
+    }
+
+    /**
+     * Per-frame detector events, recorded once enabled.
+     */
+    public TraceBuffer getTrace() {
+        return trace;
+    }
+
+    public long getDroppedFrames() {
+        return pipeline.getDroppedFrames();
+    }
+
+    public long getStaleFrames() {
+        return pipeline.getStaleFrames();
     }
 }
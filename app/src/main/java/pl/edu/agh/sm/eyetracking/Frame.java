@@ -1,8 +1,8 @@
 package pl.edu.agh.sm.eyetracking;
 
-import org.opencv.android.CameraBridgeViewBase;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.Rect;
 import org.opencv.imgproc.Imgproc;
 
 import pl.edu.agh.sm.eyetracking.util.Size;
@@ -10,24 +10,70 @@ import pl.edu.agh.sm.eyetracking.util.Size;
 public class Frame {
 
     private Mat frame;
+    private Mat region;
     private final Size size;
+    private final int scale;
 
     public Frame(Size originalSize, int scale) {
+        this.scale = scale;
         size = new Size(
                 originalSize.width / scale,
                 originalSize.height / scale);
         frame = new Mat(size.toOpenCV(), CvType.CV_8UC1);
+        region = new Mat();
     }
 
-    public void update(CameraBridgeViewBase.CvCameraViewFrame originalFrame) {
-        Imgproc.resize(originalFrame.gray(), frame, size.toOpenCV());
+    public void update(Mat source) {
+        Imgproc.resize(source, frame, size.toOpenCV(), 0, 0, Imgproc.INTER_AREA);
+    }
+
+    /**
+     * Crops {@code roi} out of the full resolution {@code source} and scales down only that part.
+     * The result is a view into the preallocated buffer, valid until the next update.
+     */
+    public Mat update(Mat source, Rect roi) {
+        return update(source, roi, scale);
+    }
+
+    /**
+     * Like {@link #update(Mat, Rect)}, scaling the region down by {@code regionScale} instead,
+     * which is at least the scale of the frame so the region fits the buffer.
+     */
+    public Mat update(Mat source, Rect roi, int regionScale) {
+        int width = roi.width / regionScale;
+        int height = roi.height / regionScale;
+        if (width != region.cols() || height != region.rows()) {
+            // the view is kept while the region size does not change
+            region.release();
+            if (width == 0 || height == 0) {
+                return region;
+            }
+            region = frame.submat(0, height, 0, width);
+        }
+        if (region.empty()) {
+            return region;
+        }
+
+        Mat sourceRegion = source.submat(roi);
+        Imgproc.resize(sourceRegion, region, region.size(), 0, 0, Imgproc.INTER_AREA);
+        sourceRegion.release();
+        return region;
     }
 
     public void release() {
+        region.release();
         frame.release();
     }
 
     public Mat get() {
         return frame;
     }
+
+    public Size size() {
+        return size;
+    }
+
+    public int scale() {
+        return scale;
+    }
 }
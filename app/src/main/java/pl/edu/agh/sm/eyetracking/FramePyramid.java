@@ -0,0 +1,65 @@
+package pl.edu.agh.sm.eyetracking;
+
+import org.opencv.core.Mat;
+
+import pl.edu.agh.sm.eyetracking.source.CameraFrame;
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+/**
+ * Grayscale pyramid shared by all detectors. Every level is derived from the previous one
+ * and built lazily, at most once per camera frame. Returned Mats must not be modified.
+ */
+public class FramePyramid {
+
+    public static final int MAX_SCALE = 8;
+
+    private final Frame[] levels;
+    private Mat gray;
+    private int builtLevels;
+
+    public FramePyramid(Size originalSize) {
+        int count = Integer.numberOfTrailingZeros(MAX_SCALE);
+        levels = new Frame[count];
+        for (int i = 0; i < count; i++) {
+            levels[i] = new Frame(originalSize, 2 << i);
+        }
+    }
+
+    public void update(CameraFrame originalFrame) {
+        update(originalFrame.gray());
+    }
+
+    public void update(Mat gray) {
+        this.gray = gray;
+        builtLevels = 0;
+    }
+
+    public Mat gray() {
+        return gray;
+    }
+
+    public Mat get(int scale) {
+        if (scale == 1) {
+            return gray;
+        }
+        if (Integer.bitCount(scale) != 1 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("Unsupported pyramid scale: " + scale);
+        }
+
+        int level = Integer.numberOfTrailingZeros(scale) - 1;
+        while (builtLevels <= level) {
+            Mat source = builtLevels == 0 ? gray : levels[builtLevels - 1].get();
+            levels[builtLevels].update(source);
+            builtLevels++;
+        }
+        return levels[level].get();
+    }
+
+    public void release() {
+        for (Frame level : levels) {
+            level.release();
+        }
+        gray = null;
+        builtLevels = 0;
+    }
+}
@@ -0,0 +1,103 @@
+package pl.edu.agh.sm.eyetracking;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import pl.edu.agh.sm.eyetracking.logging.Logger;
+import pl.edu.agh.sm.eyetracking.source.CameraFrame;
+import pl.edu.agh.sm.eyetracking.source.FrameSource;
+
+/**
+ * Feeds frames of a {@link FrameSource} to the processor on its own thread,
+ * for sources that are not driven by a camera view. The loop can run before the processor
+ * is ready, frames are dropped until one is set.
+ */
+public class FrameSourceLoop {
+
+    private static final String TAG = FrameSourceLoop.class.getCanonicalName();
+
+    private final FrameSource source;
+    private volatile EyeTrackingProcessor processor;
+    private Thread thread;
+    private volatile boolean running;
+
+    public FrameSourceLoop(FrameSource source) {
+        this(source, null);
+    }
+
+    public FrameSourceLoop(FrameSource source, EyeTrackingProcessor processor) {
+        this.source = source;
+        this.processor = processor;
+    }
+
+    /**
+     * Sets the processor fed by the loop, it is started with the next frame.
+     */
+    public void setProcessor(EyeTrackingProcessor processor) {
+        this.processor = processor;
+    }
+
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "FrameSourceLoop");
+        thread.start();
+    }
+
+    private void loop() {
+        // the processor started by this loop, null while frames are dropped
+        EyeTrackingProcessor started = null;
+        try {
+            CameraFrame frame;
+            while (running && (frame = source.nextFrame()) != null) {
+                EyeTrackingProcessor current = processor;
+                if (current != started) {
+                    if (started != null) {
+                        started.stop();
+                    }
+                    started = current;
+                    if (started != null) {
+                        started.start(source.getFrameSize());
+                    }
+                }
+                if (started != null) {
+                    started.process(frame);
+                }
+            }
+        } catch (InterruptedIOException e) {
+            // stopped while waiting for a frame
+        } catch (IOException e) {
+            Logger.e(TAG, "Frame source failed", e);
+        } finally {
+            // the interrupt was meant for the source only, the processor waits for its pipeline threads
+            Thread.interrupted();
+            if (started != null) {
+                started.stop();
+            }
+        }
+    }
+
+    /**
+     * Stops the loop and waits for the frame being processed. The source is not closed.
+     */
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+}
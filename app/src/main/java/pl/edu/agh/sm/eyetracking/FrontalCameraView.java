@@ -1,14 +1,87 @@
 package pl.edu.agh.sm.eyetracking;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.PorterDuff;
+import android.graphics.RectF;
 import android.util.AttributeSet;
 
 import org.opencv.android.JavaCameraView;
+import org.opencv.android.Utils;
+import org.opencv.core.Mat;
 
+/**
+ * Front camera view that shows frames mirrored by scaling the canvas, so the frame itself
+ * is never flipped. When the listener returns null, nothing is drawn.
+ */
 public class FrontalCameraView extends JavaCameraView {
 
+    private CvCameraViewListener2 listener;
+    private Bitmap bitmap;
+    private final RectF destination = new RectF();
+
     public FrontalCameraView(Context context, AttributeSet attrs) {
         super(context, attrs);
         mCameraIndex = CAMERA_ID_FRONT;
     }
+
+    @Override
+    public void setCvCameraViewListener(CvCameraViewListener2 listener) {
+        super.setCvCameraViewListener(listener);
+        this.listener = listener;
+    }
+
+    @Override
+    protected void deliverAndDrawFrame(CvCameraViewFrame frame) {
+        Mat preview = listener != null ? listener.onCameraFrame(frame) : frame.rgba();
+        if (preview == null) {
+            return;
+        }
+
+        if (bitmap == null || bitmap.getWidth() != preview.cols() || bitmap.getHeight() != preview.rows()) {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+            bitmap = Bitmap.createBitmap(preview.cols(), preview.rows(), Bitmap.Config.ARGB_8888);
+        }
+        Utils.matToBitmap(preview, bitmap);
+
+        Canvas canvas = getHolder().lockCanvas();
+        if (canvas == null) {
+            return;
+        }
+        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+
+        // fitted to the center, as the overlay expects
+        float scale = Math.min((float) canvas.getWidth() / bitmap.getWidth(),
+                (float) canvas.getHeight() / bitmap.getHeight());
+        float width = bitmap.getWidth() * scale;
+        float height = bitmap.getHeight() * scale;
+        destination.left = (canvas.getWidth() - width) / 2;
+        destination.top = (canvas.getHeight() - height) / 2;
+        destination.right = destination.left + width;
+        destination.bottom = destination.top + height;
+
+        canvas.save();
+        canvas.scale(-1, 1, canvas.getWidth() / 2f, 0);
+        canvas.drawBitmap(bitmap, null, destination, null);
+        canvas.restore();
+
+        if (mFpsMeter != null) {
+            mFpsMeter.measure();
+            mFpsMeter.draw(canvas, 20, 30);
+        }
+        getHolder().unlockCanvasAndPost(canvas);
+    }
+
+    @Override
+    protected void disconnectCamera() {
+        super.disconnectCamera();
+        if (bitmap != null) {
+            bitmap.recycle();
+            bitmap = null;
+        }
+    }
 }
@@ -1,40 +1,123 @@
 package pl.edu.agh.sm.eyetracking;
 
+import androidx.annotation.RequiresApi;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.constraintlayout.widget.ConstraintLayout;
 
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Build;
 import android.os.Bundle;
-import android.util.Log;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.View;
+import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.SeekBar;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import org.opencv.android.BaseLoaderCallback;
 import org.opencv.android.LoaderCallbackInterface;
 import org.opencv.android.OpenCVLoader;
 import org.opencv.objdetect.CascadeClassifier;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.Future;
 
+import pl.edu.agh.sm.eyetracking.detectors.BackendConfig;
+import pl.edu.agh.sm.eyetracking.detectors.BlobParameters;
+import pl.edu.agh.sm.eyetracking.detectors.BlobPupilLocator;
+import pl.edu.agh.sm.eyetracking.detectors.DetectorBackend;
+import pl.edu.agh.sm.eyetracking.detectors.PupilLocator;
+import pl.edu.agh.sm.eyetracking.gaze.GazeStream;
+import pl.edu.agh.sm.eyetracking.gaze.SessionRecorder;
+import pl.edu.agh.sm.eyetracking.logging.Logger;
+import pl.edu.agh.sm.eyetracking.source.Camera2FrameSource;
 import pl.edu.agh.sm.eyetracking.util.ClassifierLoader;
+import pl.edu.agh.sm.eyetracking.util.Size;
 
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = MainActivity.class.getCanonicalName();
+    // the experimental modes are off by default, so the app runs the baseline detection
+    // unless one is switched on to compare against it
+    private static final boolean PIPELINED_DETECTION = false;
+    private static final boolean SCHEDULED_DETECTION = false;
+    private static final int TARGET_FPS = 30;
+    private static final boolean MOTION_GATE = false;
+    // left and right eye on two cores, with a second eye cascade for the band search
+    private static final boolean PARALLEL_EYES = false;
+    // Camera2 delivers YUV frames and draws the preview itself, so no frame is converted to RGBA;
+    // older devices use JavaCameraView
+    private static final boolean CAMERA2_INPUT = false;
+    private static final Size CAMERA2_FRAME_SIZE = new Size(640, 480);
+    private static final long HUD_REFRESH_MS = 500;
+    // detector events are saved together with the stats
+    private static final boolean TRACE_EVENTS = false;
+    // the recorder writes whole chunks, the ring only has to cover a slow write
+    private static final int RECORD_BATCH = 32;
+    private static final long RECORD_BATCH_DELAY_MS = 500;
+    private static final int RECORD_CAPACITY = 1024;
+    // optional, lets the blob detector be tuned on the device without a rebuild
+    private static final String BLOB_PARAMETERS_FILE = "blob_parameters.yml";
+    // optional, overrides the face detector backend of each device class
+    private static final String BACKEND_CONFIG_FILE = "detector_backends.yml";
+    private static final String HAAR_FACE_CASCADE = "haarcascade_frontalface_alt2.xml";
+    private static final String LBP_FACE_CASCADE = "lbpcascade_frontalface_improved.xml";
 
     private SeekBar thresholdSeekBar;
     private TextView thresholdLabel;
+    private CheckBox autoThresholdCheckBox;
+    private CheckBox darkRegionCheckBox;
+    private CheckBox previewCheckBox;
+    private CheckBox hudCheckBox;
+    private CheckBox recordCheckBox;
+    private Button dumpStatsButton;
+    private Button calibrateButton;
+    private TextView hudText;
     private FrontalCameraView cameraBridgeViewBase;
+    private OverlayView overlayView;
+    private SurfaceView camera2Preview;
+    private boolean camera2Input;
+    private boolean camera2PreviewReady;
+    private Camera2FrameSource camera2Source;
+    private FrameSourceLoop camera2Loop;
+
+    private final Handler hudHandler = new Handler(Looper.getMainLooper());
+    private final StringBuilder hudBuilder = new StringBuilder();
 
     private final ClassifierLoader loader;
+    // the camera starts right away, frames are processed once the classifiers are loaded
+    private final CameraViewListener cameraViewListener = new CameraViewListener();
+    private boolean loadingClassifiers;
+    private int faceCascadeResource;
+    private String faceCascadeFile;
     private EyeTrackingProcessor eyeTrackingProcessor;
+    private SessionRecorder sessionRecorder;
+    private GazeStream.Subscription sessionSubscription;
+    private File sessionFile;
 
     private final BaseLoaderCallback baseLoaderCallback = new BaseLoaderCallback(this) {
         @Override
         public void onManagerConnected(int status) {
             switch (status) {
                 case LoaderCallbackInterface.SUCCESS:
+                    if (camera2Input) {
+                        startCamera2();
+                    }
+                    else {
+                        enableCameraView();
+                    }
                     loadClassifiers();
-                    enableCameraView();
                     break;
                 default:
                     super.onManagerConnected(status);
@@ -50,7 +133,9 @@ public class MainActivity extends AppCompatActivity {
                 return;
             }
             thresholdLabel.setText(Integer.toString(progress));
-            eyeTrackingProcessor.setThreshold(progress);
+            if (eyeTrackingProcessor != null) {
+                eyeTrackingProcessor.setThreshold(progress);
+            }
         }
 
         @Override
@@ -60,24 +145,255 @@ public class MainActivity extends AppCompatActivity {
         public void onStopTrackingTouch(SeekBar seekBar) {}
     };
 
+    private final Runnable hudUpdater = new Runnable() {
+        @Override
+        public void run() {
+            if (eyeTrackingProcessor != null) {
+                hudBuilder.setLength(0);
+                eyeTrackingProcessor.getProfiler().appendSummary(hudBuilder);
+                hudBuilder.append("threshold ")
+                        .append(eyeTrackingProcessor.getThreshold(PupilLocator.LEFT_EYE)).append('/')
+                        .append(eyeTrackingProcessor.getThreshold(PupilLocator.RIGHT_EYE)).append('\n');
+                DetectionScheduler scheduler = eyeTrackingProcessor.getScheduler();
+                hudBuilder.append("face ").append(eyeTrackingProcessor.getFaceBackend())
+                        .append(" every ").append(scheduler.getFaceInterval())
+                        .append(", eyes every ").append(scheduler.getEyeInterval()).append('\n');
+                hudBuilder.append(eyeTrackingProcessor.getScales()).append('\n');
+                hudBuilder.append("dropped ").append(eyeTrackingProcessor.getDroppedFrames())
+                        .append(", stale ").append(eyeTrackingProcessor.getStaleFrames());
+                hudText.setText(hudBuilder);
+            }
+            hudHandler.postDelayed(this, HUD_REFRESH_MS);
+        }
+    };
+
+    private final CompoundButton.OnCheckedChangeListener pupilCheckedChangeListener = new CompoundButton.OnCheckedChangeListener() {
+        @Override
+        public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+            if (eyeTrackingProcessor == null) {
+                return;
+            }
+            applyPupilSettings();
+        }
+    };
+
+    private final CompoundButton.OnCheckedChangeListener previewCheckedChangeListener = new CompoundButton.OnCheckedChangeListener() {
+        @Override
+        public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+            applyPreviewSettings();
+        }
+    };
+
+    private final CompoundButton.OnCheckedChangeListener hudCheckedChangeListener = new CompoundButton.OnCheckedChangeListener() {
+        @Override
+        public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+            hudHandler.removeCallbacks(hudUpdater);
+            hudText.setVisibility(isChecked ? View.VISIBLE : View.GONE);
+            if (isChecked) {
+                hudHandler.post(hudUpdater);
+            }
+        }
+    };
+
+    private final SurfaceHolder.Callback camera2PreviewCallback = new SurfaceHolder.Callback() {
+        @Override
+        public void surfaceCreated(SurfaceHolder holder) {
+            camera2PreviewReady = true;
+            startCamera2();
+        }
+
+        @Override
+        public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {}
+
+        @Override
+        public void surfaceDestroyed(SurfaceHolder holder) {
+            camera2PreviewReady = false;
+            stopCamera2();
+        }
+    };
+
+    private final CompoundButton.OnCheckedChangeListener recordCheckedChangeListener = new CompoundButton.OnCheckedChangeListener() {
+        @Override
+        public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+            if (isChecked) {
+                startRecording();
+            }
+            else {
+                stopRecording();
+            }
+        }
+    };
+
+    private final View.OnClickListener dumpStatsClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            dumpStats();
+        }
+    };
+
+    private final View.OnClickListener calibrateClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            if (eyeTrackingProcessor == null) {
+                return;
+            }
+            eyeTrackingProcessor.calibrate();
+            Toast.makeText(MainActivity.this, R.string.calibrating, Toast.LENGTH_LONG).show();
+        }
+    };
+
+    private final ScaleCalibration.Listener calibrationListener = new ScaleCalibration.Listener() {
+        @Override
+        public void onCalibrated(DetectorScales scales, final String report) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(MainActivity.this, report, Toast.LENGTH_LONG).show();
+                }
+            });
+        }
+    };
+
     public MainActivity() {
         loader = new ClassifierLoader(this);
     }
 
-    private void loadClassifiers() {
-        try {
-            CascadeClassifier faceClassifier = loader.load(
-                    R.raw.haarcascade_frontalface_alt2,
-                    "haarcascade_frontalface_alt2.xml");
+    /**
+     * Picks the face cascade for the class of this device.
+     */
+    private void selectFaceCascade() {
+        ActivityManager activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+        boolean lowRamDevice = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                && activityManager.isLowRamDevice();
+        BackendConfig.DeviceClass deviceClass = BackendConfig.classify(
+                Runtime.getRuntime().availableProcessors(),
+                activityManager.getMemoryClass(),
+                lowRamDevice);
+        DetectorBackend.Type type = loadBackendConfig().getFaceBackend(deviceClass);
 
-            CascadeClassifier eyeClassifier = loader.load(
-                    R.raw.haarcascade_eye,
-                    "haarcascade_eye.xml");
+        if (type == DetectorBackend.Type.LBP) {
+            faceCascadeResource = R.raw.lbpcascade_frontalface_improved;
+            faceCascadeFile = LBP_FACE_CASCADE;
+        }
+        else {
+            faceCascadeResource = R.raw.haarcascade_frontalface_alt2;
+            faceCascadeFile = HAAR_FACE_CASCADE;
+        }
+        if (Logger.DEBUG && Logger.isLoggable(Logger.Level.DEBUG)) {
+            Logger.d(TAG, deviceClass + " device class, face cascade " + faceCascadeFile);
+        }
+    }
 
-            eyeTrackingProcessor = new EyeTrackingProcessor(faceClassifier, eyeClassifier);
-            cameraBridgeViewBase.setCvCameraViewListener(eyeTrackingProcessor);
+    private BackendConfig loadBackendConfig() {
+        File file = new File(getExternalFilesDir(null), BACKEND_CONFIG_FILE);
+        if (!file.exists()) {
+            return new BackendConfig();
+        }
+        try {
+            return BackendConfig.read(file);
         } catch (IOException e) {
-            e.printStackTrace();
+            Logger.e(TAG, "Could not load detector backends", e);
+            return new BackendConfig();
+        }
+    }
+
+    private void prepareClassifiers() {
+        loader.prepare(faceCascadeResource, faceCascadeFile);
+        loader.prepare(R.raw.haarcascade_eye, "haarcascade_eye.xml");
+    }
+
+    /**
+     * Parses the cascades in the background and creates the processor on the main thread
+     * when they are ready. The processor is kept across pauses, so it is loaded once.
+     */
+    private void loadClassifiers() {
+        if (eyeTrackingProcessor != null || loadingClassifiers) {
+            return;
+        }
+        loadingClassifiers = true;
+        final long start = SystemClock.elapsedRealtime();
+
+        final Future<CascadeClassifier> faceClassifier = loader.loadAsync(
+                faceCascadeResource,
+                faceCascadeFile);
+
+        final Future<CascadeClassifier> eyeClassifier = loader.loadAsync(
+                R.raw.haarcascade_eye,
+                "haarcascade_eye.xml");
+
+        final Future<CascadeClassifier> secondEyeClassifier = PARALLEL_EYES
+                ? loader.loadAsync(R.raw.haarcascade_eye, "haarcascade_eye.xml")
+                : null;
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final CascadeClassifier face = ClassifierLoader.get(faceClassifier);
+                    final CascadeClassifier eye = ClassifierLoader.get(eyeClassifier);
+                    final CascadeClassifier secondEye = secondEyeClassifier != null
+                            ? ClassifierLoader.get(secondEyeClassifier)
+                            : null;
+                    if (Logger.DEBUG && Logger.isLoggable(Logger.Level.DEBUG)) {
+                        Logger.d(TAG, "Classifiers loaded in " + (SystemClock.elapsedRealtime() - start) + " ms");
+                    }
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            createProcessor(face, eye, secondEye);
+                        }
+                    });
+                } catch (IOException e) {
+                    Logger.e(TAG, "Could not load classifiers", e);
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            onClassifiersFailed();
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "ClassifierWait").start();
+    }
+
+    /**
+     * Lets the next resume try loading the classifiers again.
+     */
+    private void onClassifiersFailed() {
+        loadingClassifiers = false;
+        if (isFinishing()) {
+            return;
+        }
+        Toast.makeText(this, R.string.classifiers_not_loaded, Toast.LENGTH_LONG).show();
+    }
+
+    private void createProcessor(CascadeClassifier faceClassifier, CascadeClassifier eyeClassifier,
+                                 CascadeClassifier secondEyeClassifier) {
+        loadingClassifiers = false;
+        if (isFinishing()) {
+            return;
+        }
+        eyeTrackingProcessor = new EyeTrackingProcessor(faceClassifier, eyeClassifier, secondEyeClassifier);
+        eyeTrackingProcessor.setParallelEyes(PARALLEL_EYES);
+        eyeTrackingProcessor.setPipelined(PIPELINED_DETECTION);
+        eyeTrackingProcessor.setScheduledDetection(SCHEDULED_DETECTION);
+        eyeTrackingProcessor.setTargetFps(TARGET_FPS);
+        eyeTrackingProcessor.setMotionGate(MOTION_GATE);
+        eyeTrackingProcessor.getTrace().setEnabled(TRACE_EVENTS);
+        // calibrated on the first start for each camera resolution
+        eyeTrackingProcessor.setScaleStore(new PreferencesScaleStore(this));
+        eyeTrackingProcessor.setCalibrationListener(calibrationListener);
+        eyeTrackingProcessor.setThreshold(thresholdSeekBar.getProgress());
+        applyPupilSettings();
+        applyPreviewSettings();
+        overlayView.setProfiler(eyeTrackingProcessor.getProfiler());
+        eyeTrackingProcessor.setTrackingListener(overlayView);
+        loadBlobParameters();
+        cameraViewListener.setProcessor(eyeTrackingProcessor);
+        if (camera2Loop != null) {
+            camera2Loop.setProcessor(eyeTrackingProcessor);
         }
     }
 
@@ -86,13 +402,44 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
 
         setContentView(R.layout.activity_main);
+        // copies the cascades while OpenCV is being loaded
+        selectFaceCascade();
+        prepareClassifiers();
 
         cameraBridgeViewBase = findViewById(R.id.frontal_camera_view);
 //        cameraBridgeViewBase.setCvCameraViewListener(eyeTrackingProcessor);
+        cameraBridgeViewBase.setCvCameraViewListener(cameraViewListener);
+        camera2Preview = findViewById(R.id.camera2_preview);
+        camera2Input = CAMERA2_INPUT && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+        if (camera2Input) {
+            cameraBridgeViewBase.setVisibility(View.GONE);
+            camera2Preview.setVisibility(View.VISIBLE);
+            // the front camera preview is mirrored like the JavaCameraView output
+            camera2Preview.setScaleX(-1);
+            camera2Preview.getHolder().addCallback(camera2PreviewCallback);
+        }
 
         thresholdLabel = findViewById(R.id.threshold_label);
         thresholdSeekBar = findViewById(R.id.threshold_seek_bar);
         thresholdSeekBar.setOnSeekBarChangeListener(seekBarChangeListener);
+        autoThresholdCheckBox = findViewById(R.id.auto_threshold_check_box);
+        autoThresholdCheckBox.setOnCheckedChangeListener(pupilCheckedChangeListener);
+        darkRegionCheckBox = findViewById(R.id.dark_region_check_box);
+        darkRegionCheckBox.setOnCheckedChangeListener(pupilCheckedChangeListener);
+
+        overlayView = findViewById(R.id.overlay_view);
+        previewCheckBox = findViewById(R.id.preview_check_box);
+        previewCheckBox.setOnCheckedChangeListener(previewCheckedChangeListener);
+
+        hudText = findViewById(R.id.hud_text);
+        hudCheckBox = findViewById(R.id.hud_check_box);
+        hudCheckBox.setOnCheckedChangeListener(hudCheckedChangeListener);
+        recordCheckBox = findViewById(R.id.record_check_box);
+        recordCheckBox.setOnCheckedChangeListener(recordCheckedChangeListener);
+        dumpStatsButton = findViewById(R.id.dump_stats_button);
+        dumpStatsButton.setOnClickListener(dumpStatsClickListener);
+        calibrateButton = findViewById(R.id.calibrate_button);
+        calibrateButton.setOnClickListener(calibrateClickListener);
     }
 
     @Override
@@ -100,28 +447,183 @@ public class MainActivity extends AppCompatActivity {
         super.onResume();
 
         if (!OpenCVLoader.initDebug()) {
-            Log.d(TAG, "Internal OpenCV library not found. Using OpenCV Manager for initialization");
+            if (Logger.DEBUG && Logger.isLoggable(Logger.Level.DEBUG)) {
+                Logger.d(TAG, "Internal OpenCV library not found. Using OpenCV Manager for initialization");
+            }
 
             OpenCVLoader.initAsync(OpenCVLoader.OPENCV_VERSION_3_4_0, this, baseLoaderCallback);
             return;
         }
 
-        Log.d(TAG, "OpenCV library found inside package. Using it!");
+        if (Logger.DEBUG && Logger.isLoggable(Logger.Level.DEBUG)) {
+            Logger.d(TAG, "OpenCV library found inside package. Using it!");
+        }
         baseLoaderCallback.onManagerConnected(LoaderCallbackInterface.SUCCESS);
     }
 
     @Override
     public void onPause() {
         super.onPause();
+        hudCheckBox.setChecked(false);
+        recordCheckBox.setChecked(false);
         disableCameraView();
+        stopCamera2();
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
         disableCameraView();
+        stopCamera2();
+    }
+
+
+    private void applyPupilSettings() {
+        boolean autoThreshold = autoThresholdCheckBox.isChecked();
+        boolean darkRegion = darkRegionCheckBox.isChecked();
+        eyeTrackingProcessor.setThresholdMode(autoThreshold
+                ? BlobPupilLocator.ThresholdMode.DARK_PERCENTILE
+                : BlobPupilLocator.ThresholdMode.MANUAL);
+        eyeTrackingProcessor.setDarkRegionPupils(darkRegion);
+        thresholdSeekBar.setEnabled(!autoThreshold && !darkRegion);
+        autoThresholdCheckBox.setEnabled(!darkRegion);
+    }
+
+    /**
+     * Without the preview only tracking runs, frames are not converted to RGBA and nothing is drawn.
+     * The Camera2 preview is drawn by the camera and costs nothing, so only the overlay is hidden.
+     */
+    private void applyPreviewSettings() {
+        boolean preview = previewCheckBox.isChecked();
+        overlayView.setVisibility(preview ? View.VISIBLE : View.GONE);
+        if (eyeTrackingProcessor != null) {
+            eyeTrackingProcessor.setPreview(preview && !camera2Input);
+        }
+    }
+
+    private void loadBlobParameters() {
+        File file = new File(getExternalFilesDir(null), BLOB_PARAMETERS_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            eyeTrackingProcessor.setBlobParameters(BlobParameters.read(file));
+            if (Logger.DEBUG && Logger.isLoggable(Logger.Level.DEBUG)) {
+                Logger.d(TAG, "Blob detector parameters loaded from " + file.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            Logger.e(TAG, "Could not load blob detector parameters", e);
+        }
+    }
+
+    private void dumpStats() {
+        if (eyeTrackingProcessor == null) {
+            return;
+        }
+        long time = System.currentTimeMillis();
+        File file = new File(getExternalFilesDir(null), "stats-" + time + ".csv");
+        try (Writer writer = new FileWriter(file)) {
+            eyeTrackingProcessor.getProfiler().writeCsv(writer);
+            if (eyeTrackingProcessor.getTrace().isEnabled()) {
+                try (Writer traceWriter = new FileWriter(new File(getExternalFilesDir(null), "trace-" + time + ".csv"))) {
+                    eyeTrackingProcessor.getTrace().writeCsv(traceWriter);
+                }
+            }
+            Toast.makeText(this, getString(R.string.stats_saved, file.getAbsolutePath()), Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Logger.e(TAG, "Could not save stats", e);
+            Toast.makeText(this, R.string.stats_not_saved, Toast.LENGTH_LONG).show();
+        }
     }
 
+    private void startRecording() {
+        if (eyeTrackingProcessor == null) {
+            recordCheckBox.setChecked(false);
+            return;
+        }
+        sessionFile = new File(getExternalFilesDir(null), "session-" + System.currentTimeMillis() + ".gaze");
+        try {
+            sessionRecorder = new SessionRecorder(sessionFile);
+        } catch (IOException e) {
+            Logger.e(TAG, "Could not record session", e);
+            Toast.makeText(this, R.string.session_not_saved, Toast.LENGTH_LONG).show();
+            recordCheckBox.setChecked(false);
+            return;
+        }
+        sessionSubscription = eyeTrackingProcessor.getGazeStream().subscribe(sessionRecorder, RECORD_BATCH,
+                RECORD_BATCH_DELAY_MS, RECORD_CAPACITY, GazeStream.OverflowPolicy.DROP_OLDEST);
+    }
+
+    private void stopRecording() {
+        if (sessionRecorder == null) {
+            return;
+        }
+        sessionSubscription.close();
+        try {
+            sessionRecorder.close();
+            Toast.makeText(this, getString(R.string.session_saved, sessionRecorder.getRecordedFrames(),
+                    sessionFile.getAbsolutePath()), Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Logger.e(TAG, "Could not save session", e);
+            Toast.makeText(this, R.string.session_not_saved, Toast.LENGTH_LONG).show();
+        }
+        sessionRecorder = null;
+        sessionSubscription = null;
+        sessionFile = null;
+    }
+
+    private void startCamera2() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        if (!camera2PreviewReady || camera2Loop != null) {
+            return;
+        }
+        try {
+            startCamera2Loop();
+        } catch (IOException e) {
+            Logger.e(TAG, "Could not start Camera2, falling back to JavaCameraView", e);
+            camera2Input = false;
+            camera2Preview.setVisibility(View.GONE);
+            cameraBridgeViewBase.setVisibility(View.VISIBLE);
+            applyPreviewSettings();
+            enableCameraView();
+        }
+    }
+
+    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+    private void startCamera2Loop() throws IOException {
+        camera2Source = new Camera2FrameSource(this, CAMERA2_FRAME_SIZE);
+        Size frameSize = camera2Source.getFrameSize();
+        camera2Preview.getHolder().setFixedSize(frameSize.width, frameSize.height);
+        ConstraintLayout.LayoutParams layoutParams = (ConstraintLayout.LayoutParams) camera2Preview.getLayoutParams();
+        layoutParams.dimensionRatio = frameSize.width + ":" + frameSize.height;
+        camera2Preview.setLayoutParams(layoutParams);
+
+        camera2Source.setPreviewSurface(camera2Preview.getHolder().getSurface());
+        try {
+            camera2Source.start();
+        } catch (IOException e) {
+            camera2Source = null;
+            throw e;
+        }
+        camera2Loop = new FrameSourceLoop(camera2Source, eyeTrackingProcessor);
+        camera2Loop.start();
+    }
+
+    private void stopCamera2() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        if (camera2Loop != null) {
+            camera2Loop.stop();
+            camera2Loop = null;
+        }
+        if (camera2Source != null) {
+            camera2Source.close();
+            camera2Source = null;
+        }
+    }
 
     private void enableCameraView() {
         if (cameraBridgeViewBase == null) {
@@ -0,0 +1,82 @@
+package pl.edu.agh.sm.eyetracking;
+
+import org.opencv.core.Mat;
+
+/**
+ * Tells whether a frame barely differs from the last frame in which something moved,
+ * by comparing pixels of a small scaled down frame. Comparing with that frame rather than
+ * with the previous one also catches slow drift.
+ */
+public class MotionGate {
+
+    // difference of a pixel above camera noise, in gray levels
+    private static final int PIXEL_THRESHOLD = 10;
+
+    private double changedFraction = 0.01;
+    private int maxStillFrames = 60;
+
+    private byte[] reference = new byte[0];
+    private byte[] current = new byte[0];
+    private boolean hasReference;
+    private int stillFrames;
+
+    /**
+     * @return whether {@code frameMat} is still. Otherwise it becomes the new reference frame.
+     */
+    public boolean update(Mat frameMat) {
+        int count = (int) frameMat.total();
+        if (current.length != count) {
+            current = new byte[count];
+            reference = new byte[count];
+            hasReference = false;
+        }
+        frameMat.get(0, 0, current);
+
+        if (hasReference && stillFrames < maxStillFrames && !changed(count)) {
+            stillFrames++;
+            return true;
+        }
+
+        byte[] previous = reference;
+        reference = current;
+        current = previous;
+        hasReference = true;
+        stillFrames = 0;
+        return false;
+    }
+
+    private boolean changed(int count) {
+        int maxChangedPixels = (int) (count * changedFraction);
+        int changedPixels = 0;
+        for (int i = 0; i < count; i++) {
+            int difference = (current[i] & 0xFF) - (reference[i] & 0xFF);
+            if (difference > PIXEL_THRESHOLD || difference < -PIXEL_THRESHOLD) {
+                changedPixels++;
+                if (changedPixels > maxChangedPixels) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public void reset() {
+        hasReference = false;
+        stillFrames = 0;
+    }
+
+    /**
+     * @param changedFraction part of pixels that may change in a still frame
+     */
+    public void setChangedFraction(double changedFraction) {
+        this.changedFraction = changedFraction;
+    }
+
+    /**
+     * After this many still frames in a row the next frame is reported as moving anyway,
+     * so the detectors recheck the scene from time to time.
+     */
+    public void setMaxStillFrames(int maxStillFrames) {
+        this.maxStillFrames = maxStillFrames;
+    }
+}
@@ -0,0 +1,191 @@
+package pl.edu.agh.sm.eyetracking;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.View;
+
+import org.opencv.core.Rect;
+
+import pl.edu.agh.sm.eyetracking.profiling.StageProfiler;
+import pl.edu.agh.sm.eyetracking.util.Circle;
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+/**
+ * Draws the detected face, eyes, pupils and gaze arrows over the camera preview,
+ * instead of drawing them into every camera frame. The frame is assumed to be shown
+ * mirrored and fitted to the center of this view, like the preview views do.
+ */
+public class OverlayView extends View implements TrackingListener {
+
+    private static final float ARROW_TIP_FACTOR = 0.1f;
+    private static final double ARROW_TIP_ANGLE = Math.PI / 6;
+    private static final int GAZE_ARROW_SCALE = 3;
+
+    private final Paint facePaint = strokePaint(Color.rgb(255, 0, 0), 3);
+    private final Paint leftEyePaint = strokePaint(Color.rgb(0, 255, 0), 2);
+    private final Paint rightEyePaint = strokePaint(Color.rgb(0, 255, 128), 2);
+    private final Paint pupilPaint = strokePaint(Color.rgb(0, 255, 255), 1);
+    private final Paint pupilArrowPaint = strokePaint(Color.rgb(255, 255, 0), 2);
+    private final Paint gazeArrowPaint = strokePaint(Color.rgb(24, 24, 24), 4);
+
+    // written by the tracking threads, read on the UI thread
+    private final TrackingResult pending = new TrackingResult();
+    private boolean hasPending;
+    private Size frameSize;
+
+    private final TrackingResult drawn = new TrackingResult();
+    private final RectF rect = new RectF();
+    private StageProfiler profiler = StageProfiler.NONE;
+    private float scale;
+    private float offsetX;
+    private float offsetY;
+    private int frameWidth;
+
+    public OverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    private static Paint strokePaint(int color, float width) {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(color);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(width);
+        return paint;
+    }
+
+    @Override
+    public void onTrackingStarted(Size frameSize) {
+        synchronized (pending) {
+            this.frameSize = frameSize;
+            hasPending = false;
+        }
+        postInvalidate();
+    }
+
+    @Override
+    public void onTrackingResult(TrackingResult result) {
+        synchronized (pending) {
+            pending.set(result);
+            hasPending = true;
+        }
+        postInvalidate();
+    }
+
+    @Override
+    public void onTrackingStopped() {
+        synchronized (pending) {
+            hasPending = false;
+        }
+        postInvalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        synchronized (pending) {
+            if (!hasPending || frameSize == null) {
+                return;
+            }
+            drawn.set(pending);
+            fitFrame(frameSize);
+        }
+
+        long start = profiler.start();
+        draw(canvas, drawn);
+        profiler.stop(StageProfiler.Stage.DRAW, start);
+    }
+
+    private void fitFrame(Size frameSize) {
+        scale = Math.min((float) getWidth() / frameSize.width, (float) getHeight() / frameSize.height);
+        offsetX = (getWidth() - frameSize.width * scale) / 2;
+        offsetY = (getHeight() - frameSize.height * scale) / 2;
+        frameWidth = frameSize.width;
+    }
+
+    private void draw(Canvas canvas, TrackingResult result) {
+        if (!result.hasFace) {
+            return;
+        }
+        drawRectangle(canvas, result.face, facePaint);
+
+        if (result.hasLeftEye) {
+            drawRectangle(canvas, result.leftEye, leftEyePaint);
+        }
+        if (result.hasRightEye) {
+            drawRectangle(canvas, result.rightEye, rightEyePaint);
+        }
+
+        if (result.hasLeftPupil) {
+            drawCircle(canvas, result.leftPupil);
+        }
+        if (result.hasRightPupil) {
+            drawCircle(canvas, result.rightPupil);
+        }
+
+        if (result.hasLeftEye && result.hasLeftPupil) {
+            visualiseTracking(canvas, result.leftEye, result.leftPupil);
+        }
+        if (result.hasRightEye && result.hasRightPupil) {
+            visualiseTracking(canvas, result.rightEye, result.rightPupil);
+        }
+    }
+
+    private void visualiseTracking(Canvas canvas, Rect eyeROI, Circle pupilROI) {
+        int eyeCenterX = eyeROI.x + eyeROI.width / 2;
+        int eyeCenterY = eyeROI.y + eyeROI.height / 2;
+        drawArrow(canvas, eyeCenterX, eyeCenterY, pupilROI.center.x, pupilROI.center.y, pupilArrowPaint);
+
+        int arrowStartX = eyeCenterX;
+        int arrowStartY = eyeCenterY + eyeROI.height;
+
+        int deltaX = (pupilROI.center.x - eyeCenterX) * GAZE_ARROW_SCALE;
+        int deltaY = (pupilROI.center.y - eyeCenterY) * GAZE_ARROW_SCALE;
+
+        drawArrow(canvas, arrowStartX, arrowStartY, arrowStartX + deltaX, arrowStartY + deltaY, gazeArrowPaint);
+    }
+
+    private void drawRectangle(Canvas canvas, Rect frameRect, Paint paint) {
+        // mirroring swaps the left and the right edge
+        rect.left = viewX(frameRect.x + frameRect.width);
+        rect.right = viewX(frameRect.x);
+        rect.top = viewY(frameRect.y);
+        rect.bottom = viewY(frameRect.y + frameRect.height);
+        canvas.drawRect(rect, paint);
+    }
+
+    private void drawCircle(Canvas canvas, Circle circle) {
+        canvas.drawCircle(viewX(circle.center.x), viewY(circle.center.y), circle.radius * scale, pupilPaint);
+    }
+
+    private void drawArrow(Canvas canvas, int startX, int startY, int endX, int endY, Paint paint) {
+        float x0 = viewX(startX);
+        float y0 = viewY(startY);
+        float x1 = viewX(endX);
+        float y1 = viewY(endY);
+        canvas.drawLine(x0, y0, x1, y1, paint);
+
+        double angle = Math.atan2(y0 - y1, x0 - x1);
+        float tip = (float) Math.hypot(x1 - x0, y1 - y0) * ARROW_TIP_FACTOR;
+        canvas.drawLine(x1, y1,
+                x1 + tip * (float) Math.cos(angle + ARROW_TIP_ANGLE),
+                y1 + tip * (float) Math.sin(angle + ARROW_TIP_ANGLE), paint);
+        canvas.drawLine(x1, y1,
+                x1 + tip * (float) Math.cos(angle - ARROW_TIP_ANGLE),
+                y1 + tip * (float) Math.sin(angle - ARROW_TIP_ANGLE), paint);
+    }
+
+    private float viewX(int frameX) {
+        return offsetX + (frameWidth - frameX) * scale;
+    }
+
+    private float viewY(int frameY) {
+        return offsetY + frameY * scale;
+    }
+
+    public void setProfiler(StageProfiler profiler) {
+        this.profiler = profiler;
+    }
+}
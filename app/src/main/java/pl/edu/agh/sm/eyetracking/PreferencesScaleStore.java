@@ -0,0 +1,52 @@
+package pl.edu.agh.sm.eyetracking;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+/**
+ * Keeps calibrated scales in shared preferences, one set per frame size. A set is ignored on another
+ * build of the system, such as after restoring the preferences on a new device.
+ */
+public class PreferencesScaleStore implements ScaleStore {
+
+    private static final String PREFERENCES = "detector_scales";
+
+    private final SharedPreferences preferences;
+
+    public PreferencesScaleStore(Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public DetectorScales load(Size frameSize) {
+        String prefix = frameSize + ".";
+        if (!Build.FINGERPRINT.equals(preferences.getString(prefix + "device", null))) {
+            return null;
+        }
+        DetectorScales scales = new DetectorScales();
+        scales.faceScale = preferences.getInt(prefix + "face_scale", scales.faceScale);
+        // a double does not survive a round trip through a float
+        scales.faceScaleFactor = Double.parseDouble(preferences.getString(prefix + "face_scale_factor",
+                Double.toString(scales.faceScaleFactor)));
+        scales.eyeScale = preferences.getInt(prefix + "eye_scale", scales.eyeScale);
+        scales.eyeScaleSteps = preferences.getInt(prefix + "eye_scale_steps", scales.eyeScaleSteps);
+        scales.pupilScale = preferences.getInt(prefix + "pupil_scale", scales.pupilScale);
+        return scales;
+    }
+
+    @Override
+    public void save(Size frameSize, DetectorScales scales) {
+        String prefix = frameSize + ".";
+        preferences.edit()
+                .putString(prefix + "device", Build.FINGERPRINT)
+                .putInt(prefix + "face_scale", scales.faceScale)
+                .putString(prefix + "face_scale_factor", Double.toString(scales.faceScaleFactor))
+                .putInt(prefix + "eye_scale", scales.eyeScale)
+                .putInt(prefix + "eye_scale_steps", scales.eyeScaleSteps)
+                .putInt(prefix + "pupil_scale", scales.pupilScale)
+                .apply();
+    }
+}
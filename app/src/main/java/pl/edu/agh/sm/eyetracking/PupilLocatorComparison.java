@@ -0,0 +1,120 @@
+package pl.edu.agh.sm.eyetracking;
+
+import java.util.Locale;
+
+import pl.edu.agh.sm.eyetracking.detectors.BlobPupilLocator;
+import pl.edu.agh.sm.eyetracking.detectors.DarkRegionPupilLocator;
+import pl.edu.agh.sm.eyetracking.detectors.PupilDetector;
+import pl.edu.agh.sm.eyetracking.util.Circle;
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+/**
+ * Runs the blob and the dark region pupil locators side by side on the same eye regions
+ * and reports time per eye, how often each finds a pupil and how close their pupils are.
+ * Without labelled frames the blob locator serves as the reference.
+ */
+public class PupilLocatorComparison {
+
+    // pupil centers closer than this part of the eye width are counted as agreeing
+    private static final double AGREEMENT_DISTANCE_FACTOR = 0.1;
+
+    private final PupilDetector blobDetector;
+    private final PupilDetector darkRegionDetector;
+    private final TrackingResult blob = new TrackingResult();
+    private final TrackingResult darkRegion = new TrackingResult();
+
+    private int eyes;
+    private long blobNanos;
+    private long darkRegionNanos;
+    private int blobFound;
+    private int darkRegionFound;
+    private int bothFound;
+    private int agreements;
+    private double distanceSum;
+
+    public PupilLocatorComparison(Size frameSize) {
+        blobDetector = new PupilDetector();
+        blobDetector.initialize(frameSize);
+
+        darkRegionDetector = new PupilDetector();
+        darkRegionDetector.setLocator(new DarkRegionPupilLocator());
+        darkRegionDetector.initialize(frameSize);
+    }
+
+    public void setThreshold(int threshold) {
+        blobDetector.setThreshold(threshold);
+    }
+
+    public void setThresholdMode(BlobPupilLocator.ThresholdMode thresholdMode) {
+        blobDetector.getBlobLocator().setThresholdMode(thresholdMode);
+    }
+
+    public void compare(FramePyramid pyramid, TrackingResult result) {
+        if (!result.hasLeftEye && !result.hasRightEye) {
+            return;
+        }
+        blob.set(result);
+        darkRegion.set(result);
+
+        long start = System.nanoTime();
+        blobDetector.detect(pyramid, blob);
+        long middle = System.nanoTime();
+        darkRegionDetector.detect(pyramid, darkRegion);
+        long end = System.nanoTime();
+
+        blobNanos += middle - start;
+        darkRegionNanos += end - middle;
+        if (result.hasLeftEye) {
+            count(blob.hasLeftPupil, blob.leftPupil, darkRegion.hasLeftPupil, darkRegion.leftPupil,
+                    result.leftEye.width);
+        }
+        if (result.hasRightEye) {
+            count(blob.hasRightPupil, blob.rightPupil, darkRegion.hasRightPupil, darkRegion.rightPupil,
+                    result.rightEye.width);
+        }
+    }
+
+    private void count(boolean hasBlobPupil, Circle blobPupil,
+                       boolean hasDarkRegionPupil, Circle darkRegionPupil, int eyeWidth) {
+        eyes++;
+        if (hasBlobPupil) {
+            blobFound++;
+        }
+        if (hasDarkRegionPupil) {
+            darkRegionFound++;
+        }
+        if (!hasBlobPupil || !hasDarkRegionPupil) {
+            return;
+        }
+        bothFound++;
+        double distance = Math.hypot(
+                blobPupil.center.x - darkRegionPupil.center.x,
+                blobPupil.center.y - darkRegionPupil.center.y);
+        distanceSum += distance;
+        if (distance <= eyeWidth * AGREEMENT_DISTANCE_FACTOR) {
+            agreements++;
+        }
+    }
+
+    public void release() {
+        darkRegionDetector.deinitialize();
+        blobDetector.deinitialize();
+    }
+
+    public String report() {
+        if (eyes == 0) {
+            return "No eyes";
+        }
+        return String.format(Locale.US,
+                "eyes: %d, blob: %.3f ms/eye, found %.1f%%, dark region: %.3f ms/eye, found %.1f%%, "
+                        + "both found: %.1f%%, mean center distance: %.1f px, agreement: %.1f%%",
+                eyes,
+                blobNanos / 1e6 / eyes,
+                100.0 * blobFound / eyes,
+                darkRegionNanos / 1e6 / eyes,
+                100.0 * darkRegionFound / eyes,
+                100.0 * bothFound / eyes,
+                bothFound == 0 ? 0 : distanceSum / bothFound,
+                bothFound == 0 ? 0 : 100.0 * agreements / bothFound);
+    }
+}
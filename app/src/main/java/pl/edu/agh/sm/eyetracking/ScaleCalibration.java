@@ -0,0 +1,417 @@
+package pl.edu.agh.sm.eyetracking;
+
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import pl.edu.agh.sm.eyetracking.detectors.BlobPupilLocator;
+import pl.edu.agh.sm.eyetracking.detectors.DetectorBackend;
+import pl.edu.agh.sm.eyetracking.detectors.EyeDetector;
+import pl.edu.agh.sm.eyetracking.detectors.FaceDetector;
+import pl.edu.agh.sm.eyetracking.detectors.PupilDetector;
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+/**
+ * Measures every stage at candidate scales on live frames and chooses the most precise scales
+ * whose detection still fits in 70% of a frame at the target frame rate. The rest of the frame
+ * is left to the camera callback, the preview conversion and garbage collection, and gives
+ * {@link DetectionScheduler} room to adapt.
+ * <p>
+ * Each frame runs one candidate of each stage in turn, so a frame costs about one detection.
+ * Face candidates scan the whole frame. Eye and pupil candidates search the face and eyes found
+ * by detectors at the most precise scales, which track them cheaply, so all eye candidates are
+ * scored on the same faces whichever face candidate ran in their frames. Ends after a number of
+ * frames or a time limit, whichever comes first. A candidate is stable when it finds its object
+ * about as often as the best one of its stage, without jittering much more than the steadiest
+ * one. Each stage starts from its slowest stable candidate, then the stage whose next candidate
+ * saves the most time steps down until the stages fit in the budget. Runs with a face in front
+ * of the camera, mostly still.
+ */
+public class ScaleCalibration {
+
+    public interface Listener {
+        /**
+         * Called on the detection thread.
+         *
+         * @param scales the chosen scales, already applied, or null if no face was seen often enough
+         */
+        void onCalibrated(DetectorScales scales, String report);
+    }
+
+    // ten frames for every face candidate
+    public static final int DEFAULT_FRAMES = 90;
+    // slow devices stop earlier, with fewer frames per candidate
+    public static final long DEFAULT_DURATION_MS = 4000;
+
+    // the first scales are the most precise ones
+    private static final int[] FACE_SCALES = {2, 4, 8};
+    private static final double[] FACE_SCALE_FACTORS = {1.1, 1.2, 1.3};
+    private static final int[] EYE_SCALES = {2, 4};
+    private static final int[] EYE_SCALE_STEPS = {8, 6, 4};
+    private static final int[] PUPIL_SCALES = {1, 2};
+
+    // a face found less often by every candidate says nothing about stability
+    private static final double MIN_FACE_FRACTION = 0.5;
+    private static final double FOUND_RATE_TOLERANCE = 0.1;
+    private static final double JITTER_TOLERANCE = 2;
+    // steadier than this is as good as still
+    private static final double MIN_JITTER = 0.01;
+    // share of the frame time detection may take
+    private static final double FRAME_BUDGET_FRACTION = 0.7;
+
+    private final DetectorBackend faceBackend;
+    private final DetectorBackend eyeBackend;
+    private final int frameCount;
+    private final long durationNanos;
+    private final int targetFps;
+    private final Listener listener;
+
+    private final List<Candidate> faceCandidates = new ArrayList<>();
+    private final List<Candidate> eyeCandidates = new ArrayList<>();
+    private final List<Candidate> pupilCandidates = new ArrayList<>();
+    // find the regions searched by the eye and pupil candidates
+    private FaceDetector referenceFace;
+    private EyeDetector referenceEyes;
+    private DetectorScales current;
+    private boolean initialized;
+
+    private final TrackingResult reference = new TrackingResult();
+    private final TrackingResult result = new TrackingResult();
+    private int frames;
+    private int faceFrames;
+    private int eyeFrames;
+    private long startNanos;
+    private String report;
+
+    /**
+     * @param faceBackend used by every face candidate, one after another
+     * @param eyeBackend used by every eye candidate, one after another
+     * @param frameCount frames after which the calibration ends
+     * @param durationMs time after which the calibration ends, counted from its first frame
+     */
+    public ScaleCalibration(DetectorBackend faceBackend, DetectorBackend eyeBackend,
+                            int frameCount, long durationMs, int targetFps, Listener listener) {
+        this.faceBackend = faceBackend;
+        this.eyeBackend = eyeBackend;
+        this.frameCount = frameCount;
+        durationNanos = TimeUnit.MILLISECONDS.toNanos(durationMs);
+        this.targetFps = targetFps;
+        this.listener = listener;
+    }
+
+    public void initialize(Size frameSize, DetectorScales current) {
+        this.current = new DetectorScales(current);
+        referenceFace = new FaceDetector(faceBackend);
+        referenceFace.setScale(FACE_SCALES[0], FACE_SCALE_FACTORS[0]);
+        referenceFace.initialize(frameSize);
+        referenceEyes = new EyeDetector(eyeBackend);
+        referenceEyes.setScale(EYE_SCALES[0], EYE_SCALE_STEPS[0]);
+        referenceEyes.initialize(frameSize);
+
+        for (int scale : FACE_SCALES) {
+            for (double scaleFactor : FACE_SCALE_FACTORS) {
+                Candidate candidate = new Candidate(current);
+                candidate.scales.faceScale = scale;
+                candidate.scales.faceScaleFactor = scaleFactor;
+                candidate.face = new FaceDetector(faceBackend);
+                candidate.face.setTracking(false);
+                candidate.face.setScale(scale, scaleFactor);
+                candidate.face.initialize(frameSize);
+                faceCandidates.add(candidate);
+            }
+        }
+        for (int scale : EYE_SCALES) {
+            for (int scaleSteps : EYE_SCALE_STEPS) {
+                Candidate candidate = new Candidate(current);
+                candidate.scales.eyeScale = scale;
+                candidate.scales.eyeScaleSteps = scaleSteps;
+                candidate.eyes = new EyeDetector(eyeBackend);
+                candidate.eyes.setScale(scale, scaleSteps);
+                candidate.eyes.initialize(frameSize);
+                eyeCandidates.add(candidate);
+            }
+        }
+        for (int scale : PUPIL_SCALES) {
+            Candidate candidate = new Candidate(current);
+            candidate.scales.pupilScale = scale;
+            candidate.pupils = new PupilDetector();
+            // independent of the threshold set by hand
+            candidate.pupils.getBlobLocator().setThresholdMode(BlobPupilLocator.ThresholdMode.DARK_PERCENTILE);
+            candidate.pupils.setScale(scale);
+            candidate.pupils.initialize(frameSize);
+            pupilCandidates.add(candidate);
+        }
+        initialized = true;
+    }
+
+    /**
+     * Runs the next candidate of each stage on the frame.
+     *
+     * @return whether the calibration is done, its result is then reported to the listener
+     */
+    public boolean process(FramePyramid pyramid) {
+        if (frames == 0) {
+            startNanos = System.nanoTime();
+        }
+        result.clear(frames);
+        Candidate face = faceCandidates.get(frames % faceCandidates.size());
+        long start = System.nanoTime();
+        face.face.detect(pyramid, result);
+        face.add(System.nanoTime() - start, face.face.isConfident(), result.face);
+
+        reference.clear(frames);
+        referenceFace.detect(pyramid, reference);
+        if (referenceFace.isConfident()) {
+            Candidate eyes = eyeCandidates.get(faceFrames++ % eyeCandidates.size());
+            result.set(reference);
+            start = System.nanoTime();
+            eyes.eyes.detect(pyramid, result);
+            eyes.add(System.nanoTime() - start, eyes.eyes.isConfident(), result.leftEye, result.rightEye);
+
+            referenceEyes.detect(pyramid, reference);
+            if (referenceEyes.isConfident()) {
+                Candidate pupils = pupilCandidates.get(eyeFrames++ % pupilCandidates.size());
+                result.set(reference);
+                start = System.nanoTime();
+                pupils.pupils.detect(pyramid, result);
+                boolean found = result.hasLeftPupil && result.hasRightPupil;
+                pupils.add(System.nanoTime() - start, found,
+                        (result.leftPupil.center.x + result.rightPupil.center.x) / 2.0,
+                        (result.leftPupil.center.y + result.rightPupil.center.y) / 2.0,
+                        (result.leftEye.width + result.rightEye.width) / 2.0);
+            }
+        }
+
+        frames++;
+        if (frames < frameCount && System.nanoTime() - startNanos < durationNanos) {
+            return false;
+        }
+        DetectorScales chosen = choose();
+        release();
+        listener.onCalibrated(chosen, report);
+        return true;
+    }
+
+    private DetectorScales choose() {
+        double faceRate = 0;
+        for (Candidate candidate : faceCandidates) {
+            faceRate = Math.max(faceRate, candidate.foundRate());
+        }
+        if (faceRate < MIN_FACE_FRACTION) {
+            report = String.format(Locale.US, "Face found in at most %.0f%% of %d frames, scales unchanged",
+                    100 * faceRate, frames);
+            return null;
+        }
+
+        List<Candidate> face = stable(faceCandidates);
+        List<Candidate> eyes = stable(eyeCandidates);
+        List<Candidate> pupils = stable(pupilCandidates);
+        int faceIndex = 0;
+        int eyeIndex = 0;
+        int pupilIndex = 0;
+        double budget = FRAME_BUDGET_FRACTION * 1e9 / targetFps;
+        while (cost(face, faceIndex) + cost(eyes, eyeIndex) + cost(pupils, pupilIndex) > budget) {
+            double faceSaving = saving(face, faceIndex);
+            double eyeSaving = saving(eyes, eyeIndex);
+            double pupilSaving = saving(pupils, pupilIndex);
+            if (faceSaving <= 0 && eyeSaving <= 0 && pupilSaving <= 0) {
+                break;
+            }
+            if (faceSaving >= eyeSaving && faceSaving >= pupilSaving) {
+                faceIndex++;
+            }
+            else if (eyeSaving >= pupilSaving) {
+                eyeIndex++;
+            }
+            else {
+                pupilIndex++;
+            }
+        }
+
+        DetectorScales chosen = new DetectorScales(current);
+        StringBuilder builder = new StringBuilder();
+        if (!face.isEmpty()) {
+            Candidate candidate = face.get(faceIndex);
+            chosen.faceScale = candidate.scales.faceScale;
+            chosen.faceScaleFactor = candidate.scales.faceScaleFactor;
+            builder.append(String.format(Locale.US, "face 1/%d x%.2f ",
+                    chosen.faceScale, chosen.faceScaleFactor)).append(candidate.summary());
+        }
+        if (!eyes.isEmpty()) {
+            Candidate candidate = eyes.get(eyeIndex);
+            chosen.eyeScale = candidate.scales.eyeScale;
+            chosen.eyeScaleSteps = candidate.scales.eyeScaleSteps;
+            builder.append(String.format(Locale.US, ", eyes 1/%d in %d steps ",
+                    chosen.eyeScale, chosen.eyeScaleSteps)).append(candidate.summary());
+        }
+        else {
+            builder.append(", eyes not found, unchanged");
+        }
+        if (!pupils.isEmpty()) {
+            Candidate candidate = pupils.get(pupilIndex);
+            chosen.pupilScale = candidate.scales.pupilScale;
+            builder.append(String.format(Locale.US, ", pupils 1/%d ",
+                    chosen.pupilScale)).append(candidate.summary());
+        }
+        else {
+            builder.append(", pupils not found, unchanged");
+        }
+        builder.append(String.format(Locale.US, "; %.2f of %.2f ms per frame, %d frames",
+                (cost(face, faceIndex) + cost(eyes, eyeIndex) + cost(pupils, pupilIndex)) / 1e6,
+                budget / 1e6, frames));
+        report = builder.toString();
+        return chosen;
+    }
+
+    /**
+     * @return the stable candidates, slowest first
+     */
+    private static List<Candidate> stable(List<Candidate> candidates) {
+        double bestRate = 0;
+        double minJitter = Double.MAX_VALUE;
+        for (Candidate candidate : candidates) {
+            if (candidate.frames > 0) {
+                bestRate = Math.max(bestRate, candidate.foundRate());
+            }
+        }
+        for (Candidate candidate : candidates) {
+            if (candidate.frames > 0 && candidate.foundRate() >= bestRate - FOUND_RATE_TOLERANCE) {
+                minJitter = Math.min(minJitter, candidate.jitter());
+            }
+        }
+
+        List<Candidate> stable = new ArrayList<>();
+        if (bestRate == 0) {
+            return stable;
+        }
+        double maxJitter = Math.max(minJitter, MIN_JITTER) * JITTER_TOLERANCE;
+        for (Candidate candidate : candidates) {
+            if (candidate.frames > 0
+                    && candidate.foundRate() >= bestRate - FOUND_RATE_TOLERANCE
+                    && candidate.jitter() <= maxJitter) {
+                stable.add(candidate);
+            }
+        }
+        Collections.sort(stable, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate a, Candidate b) {
+                return Double.compare(b.meanNanos(), a.meanNanos());
+            }
+        });
+        return stable;
+    }
+
+    private static double cost(List<Candidate> candidates, int index) {
+        return candidates.isEmpty() ? 0 : candidates.get(index).meanNanos();
+    }
+
+    private static double saving(List<Candidate> candidates, int index) {
+        if (index + 1 >= candidates.size()) {
+            return 0;
+        }
+        return candidates.get(index).meanNanos() - candidates.get(index + 1).meanNanos();
+    }
+
+    /**
+     * Releases the detectors, if the calibration is abandoned before it is done.
+     */
+    public void release() {
+        if (!initialized) {
+            return;
+        }
+        for (Candidate candidate : faceCandidates) {
+            candidate.face.deinitialize();
+        }
+        for (Candidate candidate : eyeCandidates) {
+            candidate.eyes.deinitialize();
+        }
+        for (Candidate candidate : pupilCandidates) {
+            candidate.pupils.deinitialize();
+        }
+        referenceFace.deinitialize();
+        referenceEyes.deinitialize();
+        referenceFace = null;
+        referenceEyes = null;
+        faceCandidates.clear();
+        eyeCandidates.clear();
+        pupilCandidates.clear();
+        initialized = false;
+    }
+
+    /**
+     * One stage at one set of scales, with its latency and stability so far.
+     */
+    private static class Candidate {
+        final DetectorScales scales;
+        FaceDetector face;
+        EyeDetector eyes;
+        PupilDetector pupils;
+
+        int frames;
+        int found;
+        long nanos;
+        // movement of the found object between frames, relative to its size
+        double jitter;
+        int jitterSamples;
+        boolean hasLast;
+        double lastX;
+        double lastY;
+
+        Candidate(DetectorScales current) {
+            scales = new DetectorScales(current);
+        }
+
+        void add(long elapsed, boolean found, Rect rect) {
+            add(elapsed, found, rect.x + rect.width / 2.0, rect.y + rect.height / 2.0, rect.width);
+        }
+
+        /**
+         * Adds a pair of eyes, the jitter is that of the point between them.
+         */
+        void add(long elapsed, boolean found, Rect left, Rect right) {
+            add(elapsed, found,
+                    (left.x + left.width / 2.0 + right.x + right.width / 2.0) / 2,
+                    (left.y + left.height / 2.0 + right.y + right.height / 2.0) / 2,
+                    (left.width + right.width) / 2.0);
+        }
+
+        void add(long elapsed, boolean found, double x, double y, double size) {
+            frames++;
+            nanos += elapsed;
+            if (!found) {
+                hasLast = false;
+                return;
+            }
+            this.found++;
+            if (hasLast && size > 0) {
+                jitter += Math.hypot(x - lastX, y - lastY) / size;
+                jitterSamples++;
+            }
+            hasLast = true;
+            lastX = x;
+            lastY = y;
+        }
+
+        double meanNanos() {
+            return frames == 0 ? 0 : (double) nanos / frames;
+        }
+
+        double foundRate() {
+            return frames == 0 ? 0 : (double) found / frames;
+        }
+
+        double jitter() {
+            return jitterSamples == 0 ? 0 : jitter / jitterSamples;
+        }
+
+        String summary() {
+            return String.format(Locale.US, "%.2f ms, found %.0f%%, jitter %.3f",
+                    meanNanos() / 1e6, 100 * foundRate(), jitter());
+        }
+    }
+}
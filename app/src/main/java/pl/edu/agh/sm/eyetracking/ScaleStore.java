@@ -0,0 +1,16 @@
+package pl.edu.agh.sm.eyetracking;
+
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+/**
+ * Keeps the calibrated {@link DetectorScales} of each frame size on this device.
+ */
+public interface ScaleStore {
+
+    /**
+     * @return the scales stored for the frame size, or null if it was never calibrated
+     */
+    DetectorScales load(Size frameSize);
+
+    void save(Size frameSize, DetectorScales scales);
+}
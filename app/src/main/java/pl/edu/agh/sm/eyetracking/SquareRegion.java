@@ -2,40 +2,91 @@ package pl.edu.agh.sm.eyetracking;
 
 import org.opencv.core.Rect;
 
+import pl.edu.agh.sm.eyetracking.util.AlphaBetaFilter;
 import pl.edu.agh.sm.eyetracking.util.Point;
 import pl.edu.agh.sm.eyetracking.util.Size;
 
+/**
+ * Square region following a detected object with a constant velocity model.
+ * Detections are smoothed instead of snapped to, and between detections
+ * the region keeps moving where the object is expected to be.
+ */
 public class SquareRegion {
 
-    private Point center;
-    private int sideLength;
-    private final int centerEpsilon;
-    private final int sideEpsilon;
+    private final AlphaBetaFilter centerX;
+    private final AlphaBetaFilter centerY;
+    private final AlphaBetaFilter side;
+    private boolean tracking;
 
     private final Size screenSize;
 
-    public SquareRegion(Size screenSize, Point center, int side, int centerEpsilon, int sideEpsilon) {
+    /**
+     * @param center initial guess, replaced by the first detection
+     * @param side initial guess, replaced by the first detection
+     */
+    public SquareRegion(Size screenSize, Point center, int side, double alpha, double beta) {
         this.screenSize = screenSize;
-        this.center = center;
-        this.sideLength = side;
-        this.centerEpsilon = centerEpsilon;
-        this.sideEpsilon = sideEpsilon;
+        centerX = new AlphaBetaFilter(alpha, beta);
+        centerY = new AlphaBetaFilter(alpha, beta);
+        this.side = new AlphaBetaFilter(alpha, beta);
+        centerX.reset(center.x);
+        centerY.reset(center.y);
+        this.side.reset(side);
     }
 
-    public void update(Rect region) {
-        Point potentialCenter = new Point(
-                region.x + (region.width / 2),
-                region.y + (region.height / 2)
-        );
-
-        if (Math.abs(potentialCenter.x - center.x) > centerEpsilon
-                || Math.abs(potentialCenter.y - center.y) > centerEpsilon) {
-            center = potentialCenter;
+    /**
+     * Moves the region to where it is expected in the next frame. Called once per frame, before {@link #update}.
+     */
+    public void predict() {
+        if (!tracking) {
+            return;
         }
+        centerX.predict();
+        centerY.predict();
+        side.predict();
+    }
+
+    public void update(Rect region) {
+        update(region.x, region.y, region.width, region.height);
+    }
 
-        if (Math.abs(region.width - sideLength) > sideEpsilon) {
-            sideLength = region.width;
+    public void update(int x, int y, int width, int height) {
+        double potentialCenterX = x + width / 2.0;
+        double potentialCenterY = y + height / 2.0;
+
+        // a detection further away than half of the region is another object, or the same one found again
+        double gate = side.position() / 2;
+        if (!tracking
+                || Math.abs(potentialCenterX - centerX.position()) > gate
+                || Math.abs(potentialCenterY - centerY.position()) > gate) {
+            centerX.reset(potentialCenterX);
+            centerY.reset(potentialCenterY);
+            side.reset(width);
+            tracking = true;
+            return;
         }
+
+        centerX.update(potentialCenterX);
+        centerY.update(potentialCenterY);
+        side.update(width);
+    }
+
+    /**
+     * Forgets the motion, the next detection is taken as it is.
+     */
+    public void reset() {
+        tracking = false;
+    }
+
+    /**
+     * @return speed of the region center in pixels per frame
+     */
+    public double getSpeed() {
+        return Math.hypot(centerX.velocity(), centerY.velocity());
+    }
+
+    public double getSide() {
+        return side.position();
     }
 
     public Rect get() {
@@ -43,8 +94,13 @@ public class SquareRegion {
     }
 
     public Rect get(Point offset) {
-        int x = getLeftCornerX() + offset.x;
-        int y = getLeftCornerY() + offset.y;
+        return get(offset.x, offset.y, new Rect());
+    }
+
+    public Rect get(int offsetX, int offsetY, Rect out) {
+        int sideLength = (int) Math.round(side.position());
+        int x = (int) Math.round(centerX.position()) - sideLength / 2 + offsetX;
+        int y = (int) Math.round(centerY.position()) - sideLength / 2 + offsetY;
         int width = sideLength;
         int height = sideLength;
 
@@ -63,14 +119,10 @@ public class SquareRegion {
             height = screenSize.height - y;
         }
 
-        return new Rect(x, y, width, height);
-    }
-
-    private int getLeftCornerX() {
-        return center.x - sideLength / 2;
-    }
-
-    private int getLeftCornerY() {
-        return center.y - sideLength / 2;
+        out.x = x;
+        out.y = y;
+        out.width = width;
+        out.height = height;
+        return out;
     }
 }
@@ -0,0 +1,19 @@
+package pl.edu.agh.sm.eyetracking;
+
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+/**
+ * Receives detection results from {@link EyeTrackingProcessor}, see
+ * {@link EyeTrackingProcessor#setTrackingListener(TrackingListener)}.
+ */
+public interface TrackingListener {
+
+    /**
+     * @param frameSize size of the camera frames, results are in their coordinates
+     */
+    void onTrackingStarted(Size frameSize);
+
+    void onTrackingResult(TrackingResult result);
+
+    void onTrackingStopped();
+}
@@ -0,0 +1,101 @@
+package pl.edu.agh.sm.eyetracking;
+
+import org.opencv.core.Rect;
+
+import pl.edu.agh.sm.eyetracking.util.Circle;
+
+/**
+ * Detection results of a single frame. Instances are reused from frame to frame,
+ * so the rectangles and circles are only meaningful when the matching flag is set.
+ */
+public class TrackingResult {
+
+    public long sequence;
+    // System.nanoTime() when the camera frame was received
+    public long timestampNanos;
+
+    public final Rect face = new Rect();
+    public final Rect leftEye = new Rect();
+    public final Rect rightEye = new Rect();
+    public final Circle leftPupil = new Circle();
+    public final Circle rightPupil = new Circle();
+
+    public boolean hasFace;
+    public boolean hasLeftEye;
+    public boolean hasRightEye;
+    public boolean hasLeftPupil;
+    public boolean hasRightPupil;
+
+    // whether the cascades ran on this frame, otherwise the regions were predicted
+    public boolean faceSearched;
+    public boolean eyesSearched;
+    // whether nothing moved since the last frame with motion, so the face and eye regions were reused
+    public boolean still;
+
+    public long faceNanos;
+    public long eyesNanos;
+    public long pupilsNanos;
+
+    public TrackingResult() {
+    }
+
+    public TrackingResult(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public void clear(long sequence) {
+        this.sequence = sequence;
+        timestampNanos = 0;
+        hasFace = false;
+        hasLeftEye = false;
+        hasRightEye = false;
+        hasLeftPupil = false;
+        hasRightPupil = false;
+        faceSearched = false;
+        eyesSearched = false;
+        still = false;
+        faceNanos = 0;
+        eyesNanos = 0;
+        pupilsNanos = 0;
+    }
+
+    public void set(TrackingResult other) {
+        sequence = other.sequence;
+        timestampNanos = other.timestampNanos;
+        set(face, other.face);
+        set(leftEye, other.leftEye);
+        set(rightEye, other.rightEye);
+        leftPupil.set(other.leftPupil);
+        rightPupil.set(other.rightPupil);
+        hasFace = other.hasFace;
+        hasLeftEye = other.hasLeftEye;
+        hasRightEye = other.hasRightEye;
+        hasLeftPupil = other.hasLeftPupil;
+        hasRightPupil = other.hasRightPupil;
+        faceSearched = other.faceSearched;
+        eyesSearched = other.eyesSearched;
+        still = other.still;
+        faceNanos = other.faceNanos;
+        eyesNanos = other.eyesNanos;
+        pupilsNanos = other.pupilsNanos;
+    }
+
+    private static void set(Rect rect, Rect other) {
+        rect.x = other.x;
+        rect.y = other.y;
+        rect.width = other.width;
+        rect.height = other.height;
+    }
+
+    @Override
+    public String toString() {
+        return "TrackingResult{" +
+                "sequence=" + sequence +
+                ", face=" + (hasFace ? face : null) +
+                ", leftEye=" + (hasLeftEye ? leftEye : null) +
+                ", rightEye=" + (hasRightEye ? rightEye : null) +
+                ", leftPupil=" + (hasLeftPupil ? leftPupil : null) +
+                ", rightPupil=" + (hasRightPupil ? rightPupil : null) +
+                '}';
+    }
+}
@@ -0,0 +1,107 @@
+package pl.edu.agh.sm.eyetracking.detectors;
+
+import org.opencv.core.Mat;
+
+/**
+ * Pupil threshold of one eye, computed from a histogram of the eye crop that is smoothed over frames,
+ * so a single odd frame (a blink, a reflection) barely moves it.
+ */
+public class AdaptiveThreshold {
+
+    public enum Method {
+        /** Otsu's method, splits the crop into the dark and the bright part of the eye */
+        OTSU,
+        /** the level below which the darkest {@link #DARK_PERCENTILE} of pixels lie */
+        DARK_PERCENTILE
+    }
+
+    private static final int LEVELS = 256;
+    // weight of the newest frame in the smoothed histogram
+    private static final double SMOOTHING = 0.25;
+    // roughly the part of the crop covered by the pupil
+    private static final double DARK_PERCENTILE = 0.06;
+
+    private final double[] histogram = new double[LEVELS];
+    private final int[] frameHistogram = new int[LEVELS];
+    private byte[] pixels = new byte[0];
+    private boolean empty = true;
+    private int threshold;
+
+    /**
+     * Adds the histogram of {@code eyeMat} and computes the threshold from the smoothed histogram.
+     */
+    public int update(Mat eyeMat, Method method) {
+        int count = (int) eyeMat.total();
+        if (count == 0) {
+            return threshold;
+        }
+        if (pixels.length < count) {
+            pixels = new byte[count];
+        }
+        eyeMat.get(0, 0, pixels);
+
+        for (int i = 0; i < LEVELS; i++) {
+            frameHistogram[i] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            frameHistogram[pixels[i] & 0xFF]++;
+        }
+
+        for (int i = 0; i < LEVELS; i++) {
+            double frequency = (double) frameHistogram[i] / count;
+            histogram[i] = empty ? frequency : histogram[i] + SMOOTHING * (frequency - histogram[i]);
+        }
+        empty = false;
+
+        threshold = method == Method.OTSU ? otsu() : darkPercentile();
+        return threshold;
+    }
+
+    private int otsu() {
+        double totalMean = 0;
+        for (int i = 0; i < LEVELS; i++) {
+            totalMean += i * histogram[i];
+        }
+
+        double bestVariance = -1;
+        int bestThreshold = 0;
+        double darkWeight = 0;
+        double darkSum = 0;
+        for (int i = 0; i < LEVELS; i++) {
+            darkWeight += histogram[i];
+            darkSum += i * histogram[i];
+            double brightWeight = 1 - darkWeight;
+            if (darkWeight <= 0 || brightWeight <= 0) {
+                continue;
+            }
+            double darkMean = darkSum / darkWeight;
+            double brightMean = (totalMean - darkSum) / brightWeight;
+            double variance = darkWeight * brightWeight * (darkMean - brightMean) * (darkMean - brightMean);
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                bestThreshold = i;
+            }
+        }
+        return bestThreshold;
+    }
+
+    private int darkPercentile() {
+        double cumulative = 0;
+        for (int i = 0; i < LEVELS; i++) {
+            cumulative += histogram[i];
+            if (cumulative >= DARK_PERCENTILE) {
+                return i;
+            }
+        }
+        return LEVELS - 1;
+    }
+
+    public void reset() {
+        empty = true;
+        threshold = 0;
+    }
+
+    public int get() {
+        return threshold;
+    }
+}
@@ -0,0 +1,91 @@
+package pl.edu.agh.sm.eyetracking.detectors;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Face detector backend for each class of device, so that weak devices can trade a little accuracy
+ * for a faster face search. Only the face backend is chosen, OpenCV has no LBP eye cascade.
+ * Stored as one {@code class: backend} line per device class:
+ * <pre>
+ * low: lbp
+ * mid: haar
+ * high: haar
+ * </pre>
+ * Every class uses Haar by default. The bundled LBP cascade is trained on 45x45 faces, so it has
+ * to search a finer pyramid level than Haar to find the same faces, and there it is slower.
+ * A class is switched to LBP only where {@code SessionComparison} shows it winning on that device.
+ */
+public class BackendConfig {
+
+    public enum DeviceClass {
+        LOW,
+        MID,
+        HIGH
+    }
+
+    private static final int LOW_MAX_CORES = 4;
+    private static final int LOW_MAX_MEMORY_CLASS_MB = 128;
+    private static final int HIGH_MIN_CORES = 8;
+    private static final int HIGH_MIN_MEMORY_CLASS_MB = 256;
+
+    private final Map<DeviceClass, DetectorBackend.Type> faceBackends = new EnumMap<>(DeviceClass.class);
+
+    public BackendConfig() {
+        faceBackends.put(DeviceClass.LOW, DetectorBackend.Type.HAAR);
+        faceBackends.put(DeviceClass.MID, DetectorBackend.Type.HAAR);
+        faceBackends.put(DeviceClass.HIGH, DetectorBackend.Type.HAAR);
+    }
+
+    /**
+     * @param cores available processors
+     * @param memoryClassMb heap limit of the app
+     * @param lowRamDevice whether the system reports the device as low on RAM
+     */
+    public static DeviceClass classify(int cores, int memoryClassMb, boolean lowRamDevice) {
+        if (lowRamDevice || cores <= LOW_MAX_CORES && memoryClassMb <= LOW_MAX_MEMORY_CLASS_MB) {
+            return DeviceClass.LOW;
+        }
+        if (cores >= HIGH_MIN_CORES && memoryClassMb >= HIGH_MIN_MEMORY_CLASS_MB) {
+            return DeviceClass.HIGH;
+        }
+        return DeviceClass.MID;
+    }
+
+    public DetectorBackend.Type getFaceBackend(DeviceClass deviceClass) {
+        return faceBackends.get(deviceClass);
+    }
+
+    public void setFaceBackend(DeviceClass deviceClass, DetectorBackend.Type type) {
+        faceBackends.put(deviceClass, type);
+    }
+
+    /**
+     * Reads a configuration, device classes missing from the file keep their default backends.
+     */
+    public static BackendConfig read(File file) throws IOException {
+        BackendConfig config = new BackendConfig();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(':');
+                if (separator < 0 || line.startsWith("%") || line.startsWith("#")) {
+                    continue;
+                }
+                String key = line.substring(0, separator).trim().toUpperCase(Locale.US);
+                String value = line.substring(separator + 1).trim().toUpperCase(Locale.US);
+                try {
+                    config.setFaceBackend(DeviceClass.valueOf(key), DetectorBackend.Type.valueOf(value));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid backend line: " + line, e);
+                }
+            }
+        }
+        return config;
+    }
+}
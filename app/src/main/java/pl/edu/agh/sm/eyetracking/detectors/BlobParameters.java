@@ -0,0 +1,153 @@
+package pl.edu.agh.sm.eyetracking.detectors;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Parameters of the SimpleBlobDetector used to find pupils, stored in the OpenCV YAML format
+ * understood by {@code FeatureDetector.read}. Defaults match a dark, roughly round pupil
+ * in the thresholded eye region at half resolution.
+ */
+public class BlobParameters {
+
+    // the eye region is already binary, so two threshold passes give the same contours
+    // as the default 17 and still satisfy the repeatability check
+    public double thresholdStep = 50;
+    public double minThreshold = 100;
+    public double maxThreshold = 200;
+    public int minRepeatability = 2;
+    public double minDistBetweenBlobs = 10;
+
+    public boolean filterByColor = true;
+    public int blobColor = 0;
+
+    public boolean filterByArea = true;
+    public double minArea = 10;
+    public double maxArea = 2500;
+
+    // the eyelids often cut off a part of the pupil
+    public boolean filterByCircularity = true;
+    public double minCircularity = 0.5;
+    public double maxCircularity = Float.MAX_VALUE;
+
+    public boolean filterByInertia = true;
+    public double minInertiaRatio = 0.3;
+    public double maxInertiaRatio = Float.MAX_VALUE;
+
+    public boolean filterByConvexity = true;
+    public double minConvexity = 0.8;
+    public double maxConvexity = Float.MAX_VALUE;
+
+    public BlobParameters() {
+    }
+
+    public BlobParameters(BlobParameters other) {
+        thresholdStep = other.thresholdStep;
+        minThreshold = other.minThreshold;
+        maxThreshold = other.maxThreshold;
+        minRepeatability = other.minRepeatability;
+        minDistBetweenBlobs = other.minDistBetweenBlobs;
+        filterByColor = other.filterByColor;
+        blobColor = other.blobColor;
+        filterByArea = other.filterByArea;
+        minArea = other.minArea;
+        maxArea = other.maxArea;
+        filterByCircularity = other.filterByCircularity;
+        minCircularity = other.minCircularity;
+        maxCircularity = other.maxCircularity;
+        filterByInertia = other.filterByInertia;
+        minInertiaRatio = other.minInertiaRatio;
+        maxInertiaRatio = other.maxInertiaRatio;
+        filterByConvexity = other.filterByConvexity;
+        minConvexity = other.minConvexity;
+        maxConvexity = other.maxConvexity;
+    }
+
+    /**
+     * Reads parameters from a YAML file written by {@link #write(File)} or by {@code FeatureDetector.write}.
+     * Missing keys keep their default values.
+     */
+    public static BlobParameters read(File file) throws IOException {
+        BlobParameters parameters = new BlobParameters();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(':');
+                if (separator < 0 || line.startsWith("%")) {
+                    continue;
+                }
+                String key = line.substring(0, separator).trim();
+                String value = line.substring(separator + 1).trim();
+                try {
+                    parameters.set(key, Double.parseDouble(value));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid value of " + key + ": " + value, e);
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private void set(String key, double value) {
+        switch (key) {
+            case "thresholdStep": thresholdStep = value; break;
+            case "minThreshold": minThreshold = value; break;
+            case "maxThreshold": maxThreshold = value; break;
+            case "minRepeatability": minRepeatability = (int) value; break;
+            case "minDistBetweenBlobs": minDistBetweenBlobs = value; break;
+            case "filterByColor": filterByColor = value != 0; break;
+            case "blobColor": blobColor = (int) value; break;
+            case "filterByArea": filterByArea = value != 0; break;
+            case "minArea": minArea = value; break;
+            case "maxArea": maxArea = value; break;
+            case "filterByCircularity": filterByCircularity = value != 0; break;
+            case "minCircularity": minCircularity = value; break;
+            case "maxCircularity": maxCircularity = value; break;
+            case "filterByInertia": filterByInertia = value != 0; break;
+            case "minInertiaRatio": minInertiaRatio = value; break;
+            case "maxInertiaRatio": maxInertiaRatio = value; break;
+            case "filterByConvexity": filterByConvexity = value != 0; break;
+            case "minConvexity": minConvexity = value; break;
+            case "maxConvexity": maxConvexity = value; break;
+            default: break;
+        }
+    }
+
+    public void write(File file) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            writer.write("%YAML:1.0\n---\n");
+            write(writer, "thresholdStep", thresholdStep);
+            write(writer, "minThreshold", minThreshold);
+            write(writer, "maxThreshold", maxThreshold);
+            write(writer, "minRepeatability", minRepeatability);
+            write(writer, "minDistBetweenBlobs", minDistBetweenBlobs);
+            write(writer, "filterByColor", filterByColor ? 1 : 0);
+            write(writer, "blobColor", blobColor);
+            write(writer, "filterByArea", filterByArea ? 1 : 0);
+            write(writer, "minArea", minArea);
+            write(writer, "maxArea", maxArea);
+            write(writer, "filterByCircularity", filterByCircularity ? 1 : 0);
+            write(writer, "minCircularity", minCircularity);
+            write(writer, "maxCircularity", maxCircularity);
+            write(writer, "filterByInertia", filterByInertia ? 1 : 0);
+            write(writer, "minInertiaRatio", minInertiaRatio);
+            write(writer, "maxInertiaRatio", maxInertiaRatio);
+            write(writer, "filterByConvexity", filterByConvexity ? 1 : 0);
+            write(writer, "minConvexity", minConvexity);
+            write(writer, "maxConvexity", maxConvexity);
+        }
+    }
+
+    private static void write(Writer writer, String key, int value) throws IOException {
+        writer.write(key + ": " + value + "\n");
+    }
+
+    private static void write(Writer writer, String key, double value) throws IOException {
+        writer.write(String.format(Locale.US, "%s: %.8e\n", key, value));
+    }
+}
@@ -0,0 +1,224 @@
+package pl.edu.agh.sm.eyetracking.detectors;
+
+import org.opencv.core.KeyPoint;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.features2d.FeatureDetector;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.IOException;
+
+import pl.edu.agh.sm.eyetracking.logging.Logger;
+import pl.edu.agh.sm.eyetracking.profiling.StageProfiler;
+import pl.edu.agh.sm.eyetracking.util.KeyPointBuffer;
+
+/**
+ * Global threshold, morphological cleanup and SimpleBlobDetector.
+ * The biggest blob narrower than half of the eye is taken as the pupil.
+ * Threshold and cleanup run in {@link PupilKernel} when its native library is available.
+ */
+public class BlobPupilLocator implements PupilLocator {
+
+    public enum ThresholdMode {
+        MANUAL,
+        OTSU,
+        DARK_PERCENTILE
+    }
+
+    private static final String TAG = BlobPupilLocator.class.getCanonicalName();
+
+    private StageProfiler profiler = StageProfiler.NONE;
+
+    // read only, shared by both eyes
+    private Mat kernel;
+    private final org.opencv.core.Point anchor = new org.opencv.core.Point(-1, -1);
+    private final EyeState[] eyes = {new EyeState(), new EyeState()};
+
+    private volatile BlobParameters blobParameters = new BlobParameters();
+    private volatile int threshold = 70;
+    private volatile ThresholdMode thresholdMode = ThresholdMode.MANUAL;
+    private volatile boolean nativeKernel = true;
+
+    private boolean initialized;
+
+    /**
+     * Everything written while locating the pupil of one eye.
+     */
+    private static class EyeState {
+        MatOfKeyPoint blobs;
+        FeatureDetector blobDetector;
+        BlobParameters appliedBlobParameters;
+        final KeyPointBuffer blobBuffer = new KeyPointBuffer();
+        final AdaptiveThreshold adaptiveThreshold = new AdaptiveThreshold();
+        ThresholdMode appliedThresholdMode;
+        final PupilKernel pupilKernel = new PupilKernel();
+    }
+
+    @Override
+    public void initialize() {
+        kernel = new Mat();
+        for (EyeState state : eyes) {
+            state.blobs = new MatOfKeyPoint();
+            state.blobDetector = FeatureDetector.create(FeatureDetector.SIMPLEBLOB);
+            state.appliedBlobParameters = null;
+            state.appliedThresholdMode = null;
+        }
+
+        initialized = true;
+    }
+
+    @Override
+    public boolean locate(Mat eyeMat, int eye, KeyPoint pupil) {
+        if (!initialized) {
+            return false;
+            // or: throw exception
+        }
+        EyeState state = eyes[eye];
+        applyBlobParameters(state);
+        int eyeThreshold = threshold(eyeMat, state);
+
+        long start = profiler.start();
+        if (nativeKernel && PupilKernel.isAvailable()) {
+            state.pupilKernel.apply(eyeMat, eyeMat, eyeThreshold);
+        }
+        else {
+            Imgproc.threshold(eyeMat, eyeMat, eyeThreshold, 255, Imgproc.THRESH_BINARY);
+            Imgproc.erode(eyeMat, eyeMat, kernel, anchor, 2);
+            Imgproc.dilate(eyeMat, eyeMat, kernel, anchor, 4);
+            Imgproc.medianBlur(eyeMat, eyeMat, 5);
+        }
+        profiler.stop(StageProfiler.Stage.PUPIL_MORPHOLOGY, start);
+
+        start = profiler.start();
+        state.blobDetector.detect(eyeMat, state.blobs);
+        profiler.stop(StageProfiler.Stage.BLOB, start);
+        KeyPointBuffer blobBuffer = state.blobBuffer;
+        blobBuffer.read(state.blobs);
+
+        int biggestPupil = -1;
+        for (int i = 0; i < blobBuffer.count(); i++) {
+            if (blobBuffer.size(i) * 2 > eyeMat.cols()) {
+                continue;
+            }
+            if (biggestPupil < 0 || blobBuffer.size(i) > blobBuffer.size(biggestPupil)) {
+                biggestPupil = i;
+            }
+        }
+        if (biggestPupil < 0) {
+            return false;
+        }
+
+        pupil.pt.x = blobBuffer.x(biggestPupil);
+        pupil.pt.y = blobBuffer.y(biggestPupil);
+        pupil.size = blobBuffer.size(biggestPupil);
+        return true;
+    }
+
+    private int threshold(Mat eyeMat, EyeState state) {
+        ThresholdMode mode = thresholdMode;
+        if (mode != state.appliedThresholdMode) {
+            // histograms collected before a switch may be stale
+            state.adaptiveThreshold.reset();
+            state.appliedThresholdMode = mode;
+        }
+        if (mode == ThresholdMode.MANUAL) {
+            return threshold;
+        }
+
+        long start = profiler.start();
+        int eyeThreshold = state.adaptiveThreshold.update(eyeMat, mode == ThresholdMode.OTSU
+                ? AdaptiveThreshold.Method.OTSU
+                : AdaptiveThreshold.Method.DARK_PERCENTILE);
+        profiler.stop(StageProfiler.Stage.PUPIL_HISTOGRAM, start);
+        return eyeThreshold;
+    }
+
+    /**
+     * Reconfigures the blob detector if the parameters changed since the last frame.
+     * The Java API can only pass detector parameters through a file.
+     */
+    private void applyBlobParameters(EyeState state) {
+        BlobParameters parameters = blobParameters;
+        if (parameters == state.appliedBlobParameters) {
+            return;
+        }
+        state.appliedBlobParameters = parameters;
+
+        File file = null;
+        try {
+            file = File.createTempFile("blob_parameters", ".yml");
+            parameters.write(file);
+            state.blobDetector.read(file.getAbsolutePath());
+            Logger.d(TAG, "Blob detector parameters applied");
+        } catch (IOException e) {
+            Logger.e(TAG, "Could not apply blob detector parameters", e);
+        } finally {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    @Override
+    public void deinitialize() {
+        if (!initialized) {
+            return;
+        }
+        for (EyeState state : eyes) {
+            state.blobs.release();
+            state.blobs = null;
+            // FeatureDetector has no release(), the native detector is freed when collected
+            state.blobDetector = null;
+            state.pupilKernel.release();
+        }
+        kernel.release();
+        kernel = null;
+        initialized = false;
+    }
+
+    /**
+     * The threshold used in {@link ThresholdMode#MANUAL} mode.
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Takes effect on the next frame. Adaptive modes compute the threshold per eye.
+     */
+    public void setThresholdMode(ThresholdMode thresholdMode) {
+        this.thresholdMode = thresholdMode;
+    }
+
+    /**
+     * @return the threshold last used for {@code eye}, computed or manual
+     */
+    public int getThreshold(int eye) {
+        return thresholdMode == ThresholdMode.MANUAL ? threshold : eyes[eye].adaptiveThreshold.get();
+    }
+
+    /**
+     * Whether the threshold and cleanup run in {@link PupilKernel} or as OpenCV calls.
+     * Takes effect on the next frame, OpenCV is used anyway without the native library.
+     */
+    public void setNativeKernel(boolean nativeKernel) {
+        this.nativeKernel = nativeKernel;
+    }
+
+    /**
+     * Takes effect on the next frame, without recreating the blob detector.
+     */
+    public void setBlobParameters(BlobParameters blobParameters) {
+        this.blobParameters = new BlobParameters(blobParameters);
+    }
+
+    public BlobParameters getBlobParameters() {
+        return new BlobParameters(blobParameters);
+    }
+
+    @Override
+    public void setProfiler(StageProfiler profiler) {
+        this.profiler = profiler;
+    }
+}
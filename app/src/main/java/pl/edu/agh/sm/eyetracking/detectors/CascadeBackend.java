@@ -0,0 +1,57 @@
+package pl.edu.agh.sm.eyetracking.detectors;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.objdetect.CascadeClassifier;
+
+/**
+ * Detects with an OpenCV cascade. Haar and LBP cascades are run by the same classifier,
+ * the type is read from the loaded cascade.
+ */
+public class CascadeBackend implements DetectorBackend {
+
+    // CascadeClassifier::getFeatureType
+    private static final int HAAR_FEATURES = 0;
+    private static final int LBP_FEATURES = 1;
+
+    private final CascadeClassifier classifier;
+    private final Type type;
+    private final int windowSize;
+
+    public CascadeBackend(CascadeClassifier classifier) {
+        this.classifier = classifier;
+        int featureType = classifier.getFeatureType();
+        if (featureType == HAAR_FEATURES) {
+            type = Type.HAAR;
+        }
+        else if (featureType == LBP_FEATURES) {
+            type = Type.LBP;
+        }
+        else {
+            throw new IllegalArgumentException("Unsupported cascade feature type " + featureType);
+        }
+        org.opencv.core.Size window = classifier.getOriginalWindowSize();
+        windowSize = (int) Math.max(window.width, window.height);
+    }
+
+    @Override
+    public Type getType() {
+        return type;
+    }
+
+    @Override
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    @Override
+    public void detect(Mat image, MatOfRect objects, double scaleFactor, int minNeighbors,
+                       org.opencv.core.Size minSize, org.opencv.core.Size maxSize) {
+        classifier.detectMultiScale(image, objects, scaleFactor, minNeighbors, 0, minSize, maxSize);
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + windowSize + "x" + windowSize;
+    }
+}
@@ -0,0 +1,195 @@
+package pl.edu.agh.sm.eyetracking.detectors;
+
+import org.opencv.core.KeyPoint;
+import org.opencv.core.Mat;
+
+import java.util.Arrays;
+
+import pl.edu.agh.sm.eyetracking.profiling.StageProfiler;
+
+/**
+ * Looks for the square window that is darkest relative to its surroundings, using an integral
+ * image of the eye crop, and refines its center with the centroid of the dark pixels.
+ * Works on the raw crop, so it needs no threshold and follows changes of lighting.
+ */
+public class DarkRegionPupilLocator implements PupilLocator {
+
+    // pupil radii tried, relative to the width of the eye crop
+    private static final double[] RADIUS_FACTORS = {0.08, 0.11, 0.15};
+    private static final int MIN_RADIUS = 2;
+    // mean brightness of the window relative to its surroundings
+    private static final double MAX_DARKNESS_RATIO = 0.85;
+
+    private StageProfiler profiler = StageProfiler.NONE;
+
+    private final EyeSearch[] eyes = {new EyeSearch(), new EyeSearch()};
+
+    private boolean initialized;
+
+    @Override
+    public void initialize() {
+        initialized = true;
+    }
+
+    @Override
+    public boolean locate(Mat eyeMat, int eye, KeyPoint pupil) {
+        if (!initialized) {
+            return false;
+            // or: throw exception
+        }
+        long start = profiler.start();
+        boolean found = eyes[eye].findDarkRegion(eyeMat, pupil);
+        profiler.stop(StageProfiler.Stage.DARK_REGION, start);
+        return found;
+    }
+
+    /**
+     * Buffers of one eye, so both eyes can be searched at the same time.
+     */
+    private static class EyeSearch {
+        byte[] pixels = new byte[0];
+        int[] integral = new int[0];
+        int cols;
+        int rows;
+
+        boolean findDarkRegion(Mat eyeMat, KeyPoint pupil) {
+            readIntegral(eyeMat);
+
+            double bestRatio = MAX_DARKNESS_RATIO;
+            int bestX = -1;
+            int bestY = -1;
+            int bestRadius = 0;
+            double bestSurroundMean = 0;
+
+            for (double radiusFactor : RADIUS_FACTORS) {
+                int radius = Math.max((int) (cols * radiusFactor), MIN_RADIUS);
+                int side = 2 * radius;
+                if (side >= cols || side >= rows) {
+                    continue;
+                }
+                int innerArea = side * side;
+                // the window position is only coarse, the centroid refines it
+                int step = Math.max(radius / 2, 1);
+
+                for (int y = 0; y + side <= rows; y += step) {
+                    int outerTop = Math.max(y - radius, 0);
+                    int outerBottom = Math.min(y + side + radius, rows);
+                    for (int x = 0; x + side <= cols; x += step) {
+                        int outerLeft = Math.max(x - radius, 0);
+                        int outerRight = Math.min(x + side + radius, cols);
+                        int surroundArea = (outerRight - outerLeft) * (outerBottom - outerTop) - innerArea;
+
+                        int inner = sum(x, y, x + side, y + side);
+                        int surround = sum(outerLeft, outerTop, outerRight, outerBottom) - inner;
+                        if (surround == 0) {
+                            continue;
+                        }
+                        double surroundMean = (double) surround / surroundArea;
+                        double ratio = inner / (innerArea * surroundMean);
+                        if (ratio < bestRatio) {
+                            bestRatio = ratio;
+                            bestX = x;
+                            bestY = y;
+                            bestRadius = radius;
+                            bestSurroundMean = surroundMean;
+                        }
+                    }
+                }
+            }
+
+            if (bestX < 0) {
+                return false;
+            }
+
+            // in pixel index coordinates, like the blob detector
+            pupil.pt.x = bestX + bestRadius - 0.5;
+            pupil.pt.y = bestY + bestRadius - 0.5;
+            pupil.size = 2 * bestRadius;
+            refineCenter(pupil, bestRadius, bestRatio * bestSurroundMean, bestSurroundMean);
+            return true;
+        }
+
+        /**
+         * Centroid of the pixels darker than the midpoint between the window and its surroundings,
+         * weighted by how much darker they are.
+         */
+        private void refineCenter(KeyPoint pupil, int radius, double innerMean, double surroundMean) {
+            double threshold = (innerMean + surroundMean) / 2;
+            int left = Math.max((int) pupil.pt.x - 2 * radius, 0);
+            int top = Math.max((int) pupil.pt.y - 2 * radius, 0);
+            int right = Math.min((int) pupil.pt.x + 2 * radius, cols);
+            int bottom = Math.min((int) pupil.pt.y + 2 * radius, rows);
+
+            double weights = 0;
+            double weightedX = 0;
+            double weightedY = 0;
+            for (int y = top; y < bottom; y++) {
+                int row = y * cols;
+                for (int x = left; x < right; x++) {
+                    double weight = threshold - (pixels[row + x] & 0xFF);
+                    if (weight > 0) {
+                        weights += weight;
+                        weightedX += weight * x;
+                        weightedY += weight * y;
+                    }
+                }
+            }
+            if (weights > 0) {
+                pupil.pt.x = weightedX / weights;
+                pupil.pt.y = weightedY / weights;
+            }
+        }
+
+        private void readIntegral(Mat eyeMat) {
+            cols = eyeMat.cols();
+            rows = eyeMat.rows();
+            if (pixels.length < cols * rows) {
+                pixels = new byte[cols * rows];
+            }
+            if (integral.length < (cols + 1) * (rows + 1)) {
+                integral = new int[(cols + 1) * (rows + 1)];
+            }
+            eyeMat.get(0, 0, pixels);
+
+            // integral[(y + 1) * (cols + 1) + x + 1] is the sum of pixels[0..y][0..x]
+            int stride = cols + 1;
+            // the buffer is shared by crops of different sizes, so the zero border is reset every time
+            Arrays.fill(integral, 0, stride, 0);
+            for (int y = 0; y < rows; y++) {
+                int rowSum = 0;
+                int row = y * cols;
+                int integralRow = (y + 1) * stride;
+                integral[integralRow] = 0;
+                for (int x = 0; x < cols; x++) {
+                    rowSum += pixels[row + x] & 0xFF;
+                    integral[integralRow + x + 1] = integral[integralRow - stride + x + 1] + rowSum;
+                }
+            }
+        }
+
+        private int sum(int left, int top, int right, int bottom) {
+            int stride = cols + 1;
+            return integral[bottom * stride + right]
+                    - integral[top * stride + right]
+                    - integral[bottom * stride + left]
+                    + integral[top * stride + left];
+        }
+    }
+
+    @Override
+    public void deinitialize() {
+        if (!initialized) {
+            return;
+        }
+        for (EyeSearch search : eyes) {
+            search.pixels = new byte[0];
+            search.integral = new int[0];
+        }
+        initialized = false;
+    }
+
+    @Override
+    public void setProfiler(StageProfiler profiler) {
+        this.profiler = profiler;
+    }
+}
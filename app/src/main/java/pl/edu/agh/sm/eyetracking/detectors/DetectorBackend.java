@@ -0,0 +1,33 @@
+package pl.edu.agh.sm.eyetracking.detectors;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+
+/**
+ * Finds faces or eyes in a grayscale image for {@link FaceDetector} and {@link EyeDetector}.
+ * Not thread safe, a backend searched on two threads at once needs two instances.
+ */
+public interface DetectorBackend {
+
+    enum Type {
+        /** Haar-like features, the most accurate */
+        HAAR,
+        /** local binary patterns, integer features that run a few times faster at a small loss of accuracy */
+        LBP
+    }
+
+    Type getType();
+
+    /**
+     * @return side of the window the detector was trained on, the smallest object it can find
+     */
+    int getWindowSize();
+
+    /**
+     * Same contract as {@code CascadeClassifier.detectMultiScale}.
+     *
+     * @param objects receives the detected objects in {@code image} coordinates
+     */
+    void detect(Mat image, MatOfRect objects, double scaleFactor, int minNeighbors,
+                org.opencv.core.Size minSize, org.opencv.core.Size maxSize);
+}
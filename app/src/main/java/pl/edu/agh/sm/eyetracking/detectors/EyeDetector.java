@@ -1,155 +1,447 @@
 package pl.edu.agh.sm.eyetracking.detectors;
 
-import android.util.Log;
-
-import androidx.core.util.Pair;
-
-import org.opencv.android.CameraBridgeViewBase;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfRect;
 import org.opencv.core.Rect;
-import org.opencv.objdetect.CascadeClassifier;
-
-import java.util.ArrayList;
-import java.util.List;
 
 import pl.edu.agh.sm.eyetracking.Frame;
+import pl.edu.agh.sm.eyetracking.FramePyramid;
 import pl.edu.agh.sm.eyetracking.SquareRegion;
+import pl.edu.agh.sm.eyetracking.TrackingResult;
+import pl.edu.agh.sm.eyetracking.logging.Logger;
+import pl.edu.agh.sm.eyetracking.logging.TraceBuffer;
+import pl.edu.agh.sm.eyetracking.profiling.StageProfiler;
+import pl.edu.agh.sm.eyetracking.util.ForkedTask;
 import pl.edu.agh.sm.eyetracking.util.Point;
-import pl.edu.agh.sm.eyetracking.util.Scale;
+import pl.edu.agh.sm.eyetracking.util.RectBuffer;
 import pl.edu.agh.sm.eyetracking.util.Size;
 
 public class EyeDetector {
 
     private static final String TAG = EyeDetector.class.getCanonicalName();
-    public static final int SCALE = 4;
+    public static final int DEFAULT_SCALE = 4;
+    public static final int DEFAULT_SCALE_STEPS = 6;
     private static final int MAX_SKIPPED_FRAMES = 5;
 
-    private final CascadeClassifier classifier;
-    private Frame frame;
+    private static final double MIN_SCALE_FACTOR = 1.05;
+    private static final double MAX_SCALE_FACTOR = 1.3;
+    private static final double EYE_BAND_HEIGHT_FACTOR = 0.6;
+    private static final double MIN_EYE_FACTOR = 0.15;
+    private static final double MAX_EYE_FACTOR = 0.4;
+    // the eye sizes searched span at least this ratio, so the cascade runs at several scales
+    private static final double MIN_EYE_SIZE_RANGE = 1.5;
+    // gains of the region motion model, the regions are relative to the face
+    private static final double REGION_ALPHA = 0.5;
+    private static final double REGION_BETA = 0.1;
+
+    private final DetectorBackend backend;
+    // a second instance for the left band, a backend cannot be run on two threads at once
+    private final DetectorBackend leftBandBackend;
+    private int scale = DEFAULT_SCALE;
+    // the scale of the current face, finer than scale for faces too small to find eyes in at scale
+    private int faceScale = DEFAULT_SCALE;
+    private int scaleSteps = DEFAULT_SCALE_STEPS;
+    private Frame faceFrame;
+    private StageProfiler profiler = StageProfiler.NONE;
+    private TraceBuffer trace = TraceBuffer.NONE;
 
     private SquareRegion leftEyeRegion;
     private SquareRegion rightEyeRegion;
 
+    private MatOfRect eyes;
+    private final RectBuffer eyeBuffer = new RectBuffer();
+    private final EyeCandidate leftEye = new EyeCandidate();
+    private final EyeCandidate rightEye = new EyeCandidate();
+    private final Rect upperFaceROI = new Rect();
+    private final Rect leftBand = new Rect();
+    private final Rect rightBand = new Rect();
+    private final org.opencv.core.Size minEyeSize = new org.opencv.core.Size();
+    private final org.opencv.core.Size maxEyeSize = new org.opencv.core.Size();
+    private final org.opencv.core.Size anySize = new org.opencv.core.Size();
+
+    private volatile boolean parallel;
+    // searches the left band while the calling thread searches the right one
+    private ForkedTask leftBandTask;
+    private MatOfRect leftBandEyes;
+    private final RectBuffer leftBandBuffer = new RectBuffer();
+    private Mat forkedUpperFaceMat;
+    private double forkedScaleFactor;
+
     private int skippedFrames = 0;
+    private boolean confident;
 
+    private boolean constrainedSearch = true;
     private boolean initialized;
 
-    public EyeDetector(CascadeClassifier classifier) {
-        this.classifier = classifier;
+    public EyeDetector(DetectorBackend backend) {
+        this(backend, null);
+    }
+
+    /**
+     * @param leftBandBackend another instance of the eye backend, needed for {@link #setParallel(boolean)}
+     */
+    public EyeDetector(DetectorBackend backend, DetectorBackend leftBandBackend) {
+        this.backend = backend;
+        this.leftBandBackend = leftBandBackend;
     }
 
     public void initialize(Size screenSize) {
-        frame = new Frame(screenSize, SCALE);
+        // sized for a face searched at full resolution
+        faceFrame = new Frame(screenSize, 1);
         leftEyeRegion = new SquareRegion(
                 screenSize,
                 new Point(screenSize.width / 16, screenSize.height / 8),
                 screenSize.width / 16,
-                2 * SCALE,
-                5 * SCALE
+                REGION_ALPHA,
+                REGION_BETA
         );
         rightEyeRegion = new SquareRegion(
                 screenSize,
                 new Point(3 * screenSize.width / 16, screenSize.height / 8),
                 screenSize.width / 16,
-                2 * SCALE,
-                5 * SCALE
+                REGION_ALPHA,
+                REGION_BETA
         );
+        eyes = new MatOfRect();
+        leftBandEyes = new MatOfRect();
         initialized = true;
     }
 
-    public Pair<Rect, Rect> detect(CameraBridgeViewBase.CvCameraViewFrame originalFrame, Rect faceROI) {
-        if (!initialized) {
-            return new Pair<>(null, null);
+    /**
+     * Searches for eyes inside {@code result.face} and writes their regions
+     * to {@code result.leftEye} and {@code result.rightEye}.
+     *
+     * @return whether eye regions are known for this frame
+     */
+    public boolean detect(FramePyramid pyramid, TrackingResult result) {
+        result.hasLeftEye = false;
+        result.hasRightEye = false;
+        confident = false;
+        if (!initialized || !result.hasFace) {
+            return false;
             // or: throw exception
         }
-        frame.update(originalFrame);
+        applyParallel();
+        Rect faceROI = result.face;
+        leftEyeRegion.predict();
+        rightEyeRegion.predict();
+        leftEye.clear();
+        rightEye.clear();
+        boolean searched = constrainedSearch
+                ? findEyesInBands(pyramid.gray(), faceROI)
+                : findEyesInFace(pyramid.gray(), faceROI);
+        if (!searched) {
+            return false;
+        }
+
+        if (!leftEye.found && !rightEye.found) {
+            if (skippedFrames == 0) {
+                if (Logger.DEBUG && Logger.isLoggable(Logger.Level.DEBUG)) {
+                    Logger.d(TAG, "No eyes detected for " + MAX_SKIPPED_FRAMES + " frames");
+                }
+                trace.event(TraceBuffer.Event.EYES_LOST);
+                leftEyeRegion.reset();
+                rightEyeRegion.reset();
+                return false;
+                // or: throw exception
+            }
+            skippedFrames--;
+        }
+
+        if (leftEye.found) {
+            updateRegion(leftEyeRegion, leftEye);
+        }
+        leftEyeRegion.get(faceROI.x, faceROI.y, result.leftEye);
+        trace.event(leftEye.found ? TraceBuffer.Event.LEFT_EYE_DETECTED : TraceBuffer.Event.LEFT_EYE_PREDICTED,
+                result.leftEye);
+
+        if (rightEye.found) {
+            updateRegion(rightEyeRegion, rightEye);
+        }
+        rightEyeRegion.get(faceROI.x, faceROI.y, result.rightEye);
+        trace.event(rightEye.found ? TraceBuffer.Event.RIGHT_EYE_DETECTED : TraceBuffer.Event.RIGHT_EYE_PREDICTED,
+                result.rightEye);
 
-        Scale.scaleDown(faceROI, SCALE);
-        Mat faceSubMat = frame.get().submat(faceROI);
-        MatOfRect eyes = new MatOfRect();
-        classifier.detectMultiScale(
-                faceSubMat,
+        if (leftEye.found && rightEye.found) {
+            skippedFrames = MAX_SKIPPED_FRAMES;
+            confident = true;
+        }
+
+        result.hasLeftEye = true;
+        result.hasRightEye = true;
+        return true;
+    }
+
+    /**
+     * Writes the predicted eye regions to {@code result.leftEye} and {@code result.rightEye}
+     * without running the cascade.
+     *
+     * @return whether eyes are tracked
+     */
+    public boolean track(TrackingResult result) {
+        return reuse(result, true);
+    }
+
+    /**
+     * Writes the eye regions of the previous frame to {@code result.leftEye} and {@code result.rightEye},
+     * for a frame in which nothing moved.
+     *
+     * @return whether eyes are tracked
+     */
+    public boolean hold(TrackingResult result) {
+        return reuse(result, false);
+    }
+
+    private boolean reuse(TrackingResult result, boolean predict) {
+        result.hasLeftEye = false;
+        result.hasRightEye = false;
+        if (!initialized || !result.hasFace || skippedFrames == 0) {
+            return false;
+        }
+        if (predict) {
+            leftEyeRegion.predict();
+            rightEyeRegion.predict();
+        }
+        leftEyeRegion.get(result.face.x, result.face.y, result.leftEye);
+        rightEyeRegion.get(result.face.x, result.face.y, result.rightEye);
+        result.hasLeftEye = true;
+        result.hasRightEye = true;
+        return true;
+    }
+
+    /**
+     * @return whether both eyes were found by the last cascade run
+     */
+    public boolean isConfident() {
+        return confident;
+    }
+
+    /**
+     * @return {@link #scale}, or a finer one if the smallest expected eye would be smaller than
+     * the cascade window and could not be found at all
+     */
+    private int faceScale(Rect faceROI) {
+        int fitting = (int) (faceROI.width * MIN_EYE_FACTOR / backend.getWindowSize());
+        return Math.max(1, Math.min(scale, fitting));
+    }
+
+    private boolean findEyesInFace(Mat gray, Rect faceROI) {
+        faceScale = faceScale(faceROI);
+        long start = profiler.start();
+        Mat faceMat = faceFrame.update(gray, faceROI, faceScale);
+        profiler.stop(StageProfiler.Stage.RESIZE, start);
+        if (faceMat.empty()) {
+            return false;
+        }
+
+        start = profiler.start();
+        backend.detect(
+                faceMat,
                 eyes,
-                1.1
+                1.1,
+                3,
+                anySize,
+                anySize
         );
-        faceSubMat.release();
+        profiler.stop(StageProfiler.Stage.EYE_CASCADE, start);
+        eyeBuffer.read(eyes);
 
-        List<Rect> potentialEyes = new ArrayList<>();
-        for (Rect rect : eyes.toArray()) {
-            if (rect.y >= faceROI.height / 2) {
+        for (int i = 0; i < eyeBuffer.count(); i++) {
+            if (eyeBuffer.y(i) >= faceMat.rows() / 2) {
                 continue;
             }
-            potentialEyes.add(rect);
-        }
-
-        List<Rect> potentialLeftEyes = new ArrayList<>();
-        List<Rect> potentialRightEyes = new ArrayList<>();
-        for (Rect rect : potentialEyes) {
-            if (rect.x < faceROI.width / 2) {
-                potentialLeftEyes.add(rect);
+            if (eyeBuffer.x(i) < faceMat.cols() / 2) {
+                leftEye.offer(eyeBuffer, i, 0);
             }
             else {
-                potentialRightEyes.add(rect);
+                rightEye.offer(eyeBuffer, i, 0);
             }
         }
+        return true;
+    }
 
-        if (potentialLeftEyes.isEmpty() && potentialRightEyes.isEmpty()) {
-            if (skippedFrames == 0) {
-                Log.d(TAG, "No eyes detected for " + MAX_SKIPPED_FRAMES + " frames");
-                return new Pair<>(null, null);
-                // or: throw exception
-            }
-            skippedFrames--;
+    private boolean findEyesInBands(Mat gray, Rect faceROI) {
+        upperFaceROI.x = faceROI.x;
+        upperFaceROI.y = faceROI.y;
+        upperFaceROI.width = faceROI.width;
+        upperFaceROI.height = (int) (faceROI.height * EYE_BAND_HEIGHT_FACTOR);
+        faceScale = faceScale(faceROI);
+        long start = profiler.start();
+        Mat upperFaceMat = faceFrame.update(gray, upperFaceROI, faceScale);
+        profiler.stop(StageProfiler.Stage.RESIZE, start);
+        if (upperFaceMat.empty()) {
+            return false;
         }
 
-        Scale.scaleUp(faceROI, SCALE);
-        Point faceOffset = new Point(faceROI.x, faceROI.y);
+        int faceWidth = upperFaceMat.cols();
+        int bandWidth = faceWidth / 2;
+        // from the face before scaling, the scaled width is rounded down
+        double minSide = Math.max(faceROI.width * MIN_EYE_FACTOR / faceScale, backend.getWindowSize());
+        double maxSide = Math.max(faceROI.width * MAX_EYE_FACTOR / faceScale, minSide * MIN_EYE_SIZE_RANGE);
+        double scaleFactor = Math.pow(maxSide / minSide, 1.0 / scaleSteps);
+        scaleFactor = Math.min(Math.max(scaleFactor, MIN_SCALE_FACTOR), MAX_SCALE_FACTOR);
 
-        if (!potentialLeftEyes.isEmpty()) {
-            updateRegion(leftEyeRegion, potentialLeftEyes);
-            Log.d(TAG, "Left eye region updated: " + leftEyeRegion.get(faceOffset).toString());
-        }
-        else {
-            Log.d(TAG, "Left eye region reused");
-        }
+        minEyeSize.width = minEyeSize.height = minSide;
+        maxEyeSize.width = maxEyeSize.height = maxSide;
+        leftBand.x = 0;
+        leftBand.y = 0;
+        leftBand.width = bandWidth;
+        leftBand.height = upperFaceMat.rows();
+        rightBand.x = bandWidth;
+        rightBand.y = 0;
+        rightBand.width = faceWidth - bandWidth;
+        rightBand.height = upperFaceMat.rows();
 
-        if (!potentialRightEyes.isEmpty()) {
-            updateRegion(rightEyeRegion, potentialRightEyes);
-            Log.d(TAG, "Right eye region updated: " + leftEyeRegion.get(faceOffset).toString());
+        if (leftBandTask != null) {
+            forkedUpperFaceMat = upperFaceMat;
+            forkedScaleFactor = scaleFactor;
+            leftBandTask.fork();
+            findEyesInBand(backend, eyes, eyeBuffer, upperFaceMat, rightBand, scaleFactor, rightEye);
+            leftBandTask.join();
+            forkedUpperFaceMat = null;
+            return true;
         }
-        else {
-            Log.d(TAG, "Right eye region reused");
+        findEyesInBand(backend, eyes, eyeBuffer, upperFaceMat, leftBand, scaleFactor, leftEye);
+        findEyesInBand(backend, eyes, eyeBuffer, upperFaceMat, rightBand, scaleFactor, rightEye);
+        return true;
+    }
+
+    private void findEyesInForkedLeftBand() {
+        findEyesInBand(leftBandBackend, leftBandEyes, leftBandBuffer,
+                forkedUpperFaceMat, leftBand, forkedScaleFactor, leftEye);
+    }
+
+    private void findEyesInBand(DetectorBackend backend, MatOfRect eyes, RectBuffer eyeBuffer,
+                                Mat upperFaceMat, Rect band, double scaleFactor, EyeCandidate candidate) {
+        if (band.width < minEyeSize.width || band.height < minEyeSize.height) {
+            return;
         }
 
-        if (!potentialLeftEyes.isEmpty() && !potentialRightEyes.isEmpty()) {
-            skippedFrames = MAX_SKIPPED_FRAMES;
+        Mat bandMat = upperFaceMat.submat(band);
+        long start = profiler.start();
+        backend.detect(
+                bandMat,
+                eyes,
+                scaleFactor,
+                3,
+                minEyeSize,
+                maxEyeSize
+        );
+        profiler.stop(StageProfiler.Stage.EYE_CASCADE, start);
+        bandMat.release();
+        eyeBuffer.read(eyes);
+
+        for (int i = 0; i < eyeBuffer.count(); i++) {
+            candidate.offer(eyeBuffer, i, band.x);
         }
+    }
 
-        return new Pair<>(leftEyeRegion.get(faceOffset), rightEyeRegion.get(faceOffset));
+    private void updateRegion(SquareRegion region, EyeCandidate biggestEye) {
+        region.update(
+                biggestEye.x * faceScale,
+                biggestEye.y * faceScale,
+                biggestEye.width * faceScale,
+                biggestEye.height * faceScale
+        );
     }
 
-    private void updateRegion(SquareRegion region, List<Rect> potentialEyes) {
-        Rect biggestEye = potentialEyes.get(0);
-        for (Rect rect : potentialEyes) {
-            if (rect.area() > biggestEye.area()) {
-                biggestEye = rect;
-            }
+    /**
+     * Starts or stops the worker of the left band as requested by {@link #setParallel(boolean)},
+     * on the detection thread.
+     */
+    private void applyParallel() {
+        boolean enabled = parallel && leftBandBackend != null;
+        if (enabled && leftBandTask == null) {
+            leftBandTask = new ForkedTask("LeftEyeBand", new Runnable() {
+                @Override
+                public void run() {
+                    findEyesInForkedLeftBand();
+                }
+            });
+        }
+        else if (!enabled && leftBandTask != null) {
+            leftBandTask.close();
+            leftBandTask = null;
         }
-        Scale.scaleUp(biggestEye, SCALE);
-
-        region.update(biggestEye);
     }
 
     public void deinitialize() {
         if (!initialized) {
             return;
         }
-        frame.release();
+        if (leftBandTask != null) {
+            leftBandTask.close();
+            leftBandTask = null;
+        }
+        faceFrame.release();
+        eyes.release();
+        leftBandEyes.release();
 
         leftEyeRegion = null;
         rightEyeRegion = null;
-        frame = null;
+        faceFrame = null;
+        eyes = null;
+        leftBandEyes = null;
         initialized = false;
     }
+
+    /**
+     * When enabled, eyes are searched for separately in the left and right part of the upper face,
+     * with eye sizes bounded by the face width. Otherwise the whole face is searched.
+     */
+    public void setConstrainedSearch(boolean constrainedSearch) {
+        this.constrainedSearch = constrainedSearch;
+    }
+
+    /**
+     * When enabled, the left and the right band of a constrained search are searched at the same time
+     * on two threads. Needs the second backend instance of the constructor. Takes effect on the next frame.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Sets how much the face is scaled down for the eye search and in how many cascade scales
+     * a constrained search covers the possible eye sizes. Faces too small for the eyes to cover
+     * the cascade window at that scale are scaled down less. Call before {@link #initialize}.
+     */
+    public void setScale(int scale, int scaleSteps) {
+        this.scale = scale;
+        this.scaleSteps = scaleSteps;
+    }
+
+    public void setProfiler(StageProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public void setTrace(TraceBuffer trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * The biggest eye found on one side of the face, in scaled face coordinates.
+     */
+    private static class EyeCandidate {
+        boolean found;
+        int x;
+        int y;
+        int width;
+        int height;
+
+        void clear() {
+            found = false;
+        }
+
+        void offer(RectBuffer rects, int i, int offsetX) {
+            if (found && rects.area(i) <= width * height) {
+                return;
+            }
+            found = true;
+            x = rects.x(i) + offsetX;
+            y = rects.y(i);
+            width = rects.width(i);
+            height = rects.height(i);
+        }
+    }
 }
@@ -1,108 +1,312 @@
 package pl.edu.agh.sm.eyetracking.detectors;
 
-import android.util.Log;
-
-import org.opencv.android.CameraBridgeViewBase;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfRect;
 import org.opencv.core.Rect;
-import org.opencv.objdetect.CascadeClassifier;
 
-import pl.edu.agh.sm.eyetracking.Frame;
+import pl.edu.agh.sm.eyetracking.FramePyramid;
 import pl.edu.agh.sm.eyetracking.SquareRegion;
+import pl.edu.agh.sm.eyetracking.TrackingResult;
+import pl.edu.agh.sm.eyetracking.logging.Logger;
+import pl.edu.agh.sm.eyetracking.logging.TraceBuffer;
+import pl.edu.agh.sm.eyetracking.profiling.StageProfiler;
 import pl.edu.agh.sm.eyetracking.util.Point;
+import pl.edu.agh.sm.eyetracking.util.RectBuffer;
 import pl.edu.agh.sm.eyetracking.util.Scale;
 import pl.edu.agh.sm.eyetracking.util.Size;
 
 public class FaceDetector {
 
     private static final String TAG = FaceDetector.class.getCanonicalName();
-    private static final int SCALE = 8;
+    public static final int DEFAULT_SCALE = 8;
+    public static final double DEFAULT_SCALE_FACTOR = 1.1;
+    // smallest face found at the default scale by a cascade trained on 20x20 faces, in frame pixels
+    private static final int MIN_FACE_PIXELS = DEFAULT_SCALE * 20;
     private static final int MAX_SKIPPED_FRAMES = 10;
+    private static final int SEARCH_WINDOW_FACTOR = 2;
+    private static final double MIN_FACE_FACTOR = 0.75;
+    private static final double MAX_FACE_FACTOR = 1.5;
+    // gains of the region motion model
+    private static final double REGION_ALPHA = 0.5;
+    private static final double REGION_BETA = 0.1;
 
-    private final CascadeClassifier classifier;
-    private Frame frame;
+    private final DetectorBackend backend;
+    private int scale = DEFAULT_SCALE;
+    private double scaleFactor = DEFAULT_SCALE_FACTOR;
     private SquareRegion region;
+    private StageProfiler profiler = StageProfiler.NONE;
+    private TraceBuffer trace = TraceBuffer.NONE;
+
+    private MatOfRect faces;
+    private final RectBuffer faceBuffer = new RectBuffer();
+    private final Rect lastFace = new Rect();
+    private final Rect window = new Rect();
+    private final org.opencv.core.Size minFaceSize = new org.opencv.core.Size();
+    private final org.opencv.core.Size maxFaceSize = new org.opencv.core.Size();
+    private final org.opencv.core.Size anySize = new org.opencv.core.Size();
+    private int offsetX;
+    private int offsetY;
 
     private int skippedFrames = 0;
 
+    private boolean tracking = true;
+    private int fullScanInterval = 15;
+    private int framesSinceFullScan = 0;
+
     private boolean initialized;
 
-    public FaceDetector(CascadeClassifier classifier) {
-        this.classifier = classifier;
+    public FaceDetector(DetectorBackend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * The coarsest scale at which {@code backend} still finds faces of {@link #MIN_FACE_PIXELS},
+     * finer than {@link #DEFAULT_SCALE} for cascades trained on larger windows.
+     */
+    public static int defaultScale(DetectorBackend backend) {
+        int scale = DEFAULT_SCALE;
+        while (scale > 2 && backend.getWindowSize() * scale > MIN_FACE_PIXELS) {
+            scale /= 2;
+        }
+        return scale;
     }
 
     public void initialize(Size screenSize) {
-        frame = new Frame(screenSize, SCALE);
         region = new SquareRegion(
                 screenSize,
                 new Point(screenSize.width / 2, screenSize.height / 2),
                 screenSize.width / 4,
-                2 * SCALE,
-                5 * SCALE
+                REGION_ALPHA,
+                REGION_BETA
         );
+        faces = new MatOfRect();
 
         initialized = true;
     }
 
-    public Rect detect(CameraBridgeViewBase.CvCameraViewFrame originalFrame) {
+    /**
+     * Writes the face region to {@code result.face}.
+     *
+     * @return whether a face is known, either detected in this frame or reused from a recent one
+     */
+    public boolean detect(FramePyramid pyramid, TrackingResult result) {
+        result.hasFace = false;
         if (!initialized) {
-            return null;
+            return false;
             // or: throw exception
         }
-        frame.update(originalFrame);
+        region.predict();
 
-        Mat frameMat = frame.get();
-        MatOfRect faces = new MatOfRect();
-        classifier.detectMultiScale(
-                frameMat,
-                faces,
-                1.1 //,
-//                2,
-//                2,
-//                new Size((int) faceStepImageSize.height >> 2, (int) faceStepImageSize.height >> 2),
-//                new Size(faceStepImageSize.height, faceStepImageSize.height)
-        );
+        long start = profiler.start();
+        Mat frameMat = pyramid.get(scale);
+        profiler.stop(StageProfiler.Stage.RESIZE, start);
+        offsetX = 0;
+        offsetY = 0;
+
+        // skippedFrames > 0 means the region still follows a recently detected face,
+        // so the search window is centered where the face is predicted to be
+        boolean searchWindow = tracking
+                && skippedFrames > 0
+                && framesSinceFullScan < fullScanInterval;
+        start = profiler.start();
+        boolean foundInWindow = false;
+        if (searchWindow) {
+            framesSinceFullScan++;
+            foundInWindow = detectInSearchWindow(frameMat, faces);
+        }
+        // a face missed in the window may have moved out of it, so the same frame is scanned whole
+        if (!foundInWindow) {
+            framesSinceFullScan = 0;
+            offsetX = 0;
+            offsetY = 0;
+            backend.detect(
+                    frameMat,
+                    faces,
+                    scaleFactor,
+                    3,
+                    anySize,
+                    anySize
+            );
+        }
+        profiler.stop(StageProfiler.Stage.FACE_CASCADE, start);
+        faceBuffer.read(faces);
 
-        if (faces.toArray().length == 0) {
+        if (faceBuffer.count() == 0) {
             if (skippedFrames == 0) {
-                Log.d(TAG, "No face detected for " + MAX_SKIPPED_FRAMES + " frames");
-                return null;
+                if (Logger.DEBUG && Logger.isLoggable(Logger.Level.DEBUG)) {
+                    Logger.d(TAG, "No face detected for " + MAX_SKIPPED_FRAMES + " frames");
+                }
+                trace.event(TraceBuffer.Event.FACE_LOST);
+                region.reset();
+                return false;
                 // or: throw exception
             }
             skippedFrames--;
 
-            Log.d(TAG, "Face region reused: " + region.get().toString());
-            return region.get();
+            region.get(0, 0, result.face);
+            result.hasFace = true;
+            trace.event(TraceBuffer.Event.FACE_PREDICTED, result.face);
+            return true;
         }
 
         skippedFrames = MAX_SKIPPED_FRAMES;
 
-        updateRegion(faces);
-        Log.d(TAG, "Face region updated: " + region.get().toString());
-        return region.get();
+        updateRegion();
+        region.get(0, 0, result.face);
+        result.hasFace = true;
+        trace.event(TraceBuffer.Event.FACE_DETECTED, result.face);
+        return true;
+    }
+
+    /**
+     * Writes the predicted face region to {@code result.face} without running the cascade.
+     *
+     * @return whether a face is tracked
+     */
+    public boolean track(TrackingResult result) {
+        return reuse(result, true);
+    }
+
+    /**
+     * Writes the face region of the previous frame to {@code result.face}, for a frame in which nothing moved.
+     *
+     * @return whether a face is tracked
+     */
+    public boolean hold(TrackingResult result) {
+        return reuse(result, false);
+    }
+
+    private boolean reuse(TrackingResult result, boolean predict) {
+        result.hasFace = false;
+        if (!initialized || skippedFrames == 0) {
+            return false;
+        }
+        if (predict) {
+            region.predict();
+        }
+        region.get(0, 0, result.face);
+        result.hasFace = true;
+        return true;
+    }
+
+    /**
+     * @return whether the face was found by the last cascade run
+     */
+    public boolean isConfident() {
+        return skippedFrames == MAX_SKIPPED_FRAMES;
+    }
+
+    /**
+     * @return speed of the face relative to its size, in faces per frame
+     */
+    public double getMotion() {
+        if (!initialized || skippedFrames == 0) {
+            return 0;
+        }
+        return region.getSpeed() / Math.max(region.getSide(), 1);
+    }
+
+    /**
+     * @return whether a face was found, {@code faces} is only written when the window was searched
+     */
+    private boolean detectInSearchWindow(Mat frameMat, MatOfRect faces) {
+        region.get(0, 0, lastFace);
+        Scale.scaleDown(lastFace, scale);
+
+        int side = Math.max(lastFace.width, lastFace.height);
+        int windowSide = side * SEARCH_WINDOW_FACTOR;
+        int x = Math.max(lastFace.x + lastFace.width / 2 - windowSide / 2, 0);
+        int y = Math.max(lastFace.y + lastFace.height / 2 - windowSide / 2, 0);
+        window.x = x;
+        window.y = y;
+        window.width = Math.min(windowSide, frameMat.cols() - x);
+        window.height = Math.min(windowSide, frameMat.rows() - y);
+        if (window.width <= 0 || window.height <= 0) {
+            return false;
+        }
+
+        minFaceSize.width = minFaceSize.height = side * MIN_FACE_FACTOR;
+        maxFaceSize.width = maxFaceSize.height = side * MAX_FACE_FACTOR;
+        Mat windowMat = frameMat.submat(window);
+        backend.detect(
+                windowMat,
+                faces,
+                scaleFactor,
+                3,
+                minFaceSize,
+                maxFaceSize
+        );
+        windowMat.release();
+
+        // detections are relative to the window
+        offsetX = window.x;
+        offsetY = window.y;
+        return !faces.empty();
     }
 
-    private void updateRegion(MatOfRect faces) {
-        Rect biggestFace = faces.toArray()[0];
-        for (Rect rect : faces.toArray()) {
-            if (rect.area() > biggestFace.area()) {
-                biggestFace = rect;
+    private void updateRegion() {
+        int biggestFace = 0;
+        for (int i = 1; i < faceBuffer.count(); i++) {
+            if (faceBuffer.area(i) > faceBuffer.area(biggestFace)) {
+                biggestFace = i;
             }
         }
-        Scale.scaleUp(biggestFace, SCALE);
 
-        region.update(biggestFace);
+        region.update(
+                (faceBuffer.x(biggestFace) + offsetX) * scale,
+                (faceBuffer.y(biggestFace) + offsetY) * scale,
+                faceBuffer.width(biggestFace) * scale,
+                faceBuffer.height(biggestFace) * scale
+        );
     }
 
     public void deinitialize() {
         if (!initialized) {
             return;
         }
-        frame.release();
+        faces.release();
 
-        frame = null;
         region = null;
+        faces = null;
         initialized = false;
     }
+
+    /**
+     * When enabled, faces are searched for only in a window around the last detected face,
+     * with a full frame scan every {@code fullScanInterval} frames
+     * and in any frame in which the window search misses.
+     */
+    public void setTracking(boolean tracking) {
+        this.tracking = tracking;
+    }
+
+    public void setFullScanInterval(int fullScanInterval) {
+        this.fullScanInterval = fullScanInterval;
+    }
+
+    /**
+     * Sets the pyramid level searched for faces and the step between the cascade scales.
+     * Call before {@link #initialize}.
+     *
+     * @param scale a power of two up to {@link FramePyramid#MAX_SCALE}
+     */
+    public void setScale(int scale, double scaleFactor) {
+        if (Integer.bitCount(scale) != 1 || scale > FramePyramid.MAX_SCALE) {
+            throw new IllegalArgumentException("Unsupported face scale: " + scale);
+        }
+        this.scale = scale;
+        this.scaleFactor = scaleFactor;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public void setProfiler(StageProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public void setTrace(TraceBuffer trace) {
+        this.trace = trace;
+    }
 }
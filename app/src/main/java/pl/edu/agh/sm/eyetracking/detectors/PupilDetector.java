@@ -1,152 +1,260 @@
 package pl.edu.agh.sm.eyetracking.detectors;
 
-import android.util.Log;
-
-import androidx.core.util.Pair;
-
-import org.opencv.android.CameraBridgeViewBase;
 import org.opencv.core.KeyPoint;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfKeyPoint;
 import org.opencv.core.Rect;
-import org.opencv.features2d.FeatureDetector;
-import org.opencv.imgproc.Imgproc;
-
-import java.util.ArrayList;
-import java.util.List;
 
 import pl.edu.agh.sm.eyetracking.Frame;
+import pl.edu.agh.sm.eyetracking.FramePyramid;
 import pl.edu.agh.sm.eyetracking.CircleRegion;
+import pl.edu.agh.sm.eyetracking.TrackingResult;
+import pl.edu.agh.sm.eyetracking.logging.Logger;
+import pl.edu.agh.sm.eyetracking.logging.TraceBuffer;
+import pl.edu.agh.sm.eyetracking.profiling.StageProfiler;
 import pl.edu.agh.sm.eyetracking.util.Circle;
+import pl.edu.agh.sm.eyetracking.util.ForkedTask;
 import pl.edu.agh.sm.eyetracking.util.Point;
-import pl.edu.agh.sm.eyetracking.util.Scale;
 import pl.edu.agh.sm.eyetracking.util.Size;
 
 public class PupilDetector {
 
     private static final String TAG = PupilDetector.class.getCanonicalName();
-    private static final int SCALE = 2;
+    public static final int DEFAULT_SCALE = 2;
+    // pupils move fast, so measurements are trusted more than for the face and eyes
+    private static final double REGION_ALPHA = 0.7;
+    private static final double REGION_BETA = 0.3;
+
+    private StageProfiler profiler = StageProfiler.NONE;
+    private TraceBuffer trace = TraceBuffer.NONE;
+    private final EyePupil leftEye = new EyePupil(PupilLocator.LEFT_EYE);
+    private final EyePupil rightEye = new EyePupil(PupilLocator.RIGHT_EYE);
+
+    private final BlobPupilLocator blobLocator = new BlobPupilLocator();
+    private volatile PupilLocator locator = blobLocator;
+    private PupilLocator activeLocator;
+
+    private volatile boolean parallel;
+    // locates the left pupil while the calling thread locates the right one
+    private ForkedTask leftEyeTask;
+    private Mat forkedFrameMat;
+    private TrackingResult forkedResult;
+
+    private int scale = DEFAULT_SCALE;
+    private boolean initialized;
 
-    private Frame frame;
-    private CircleRegion leftPupilRegion;
-    private CircleRegion rightPupilRegion;
+    /**
+     * Region and buffers of one eye, never touched by the thread working on the other eye.
+     */
+    private static class EyePupil {
+        final int eye;
+        Frame eyeFrame;
+        CircleRegion region;
+        final KeyPoint pupilPoint = new KeyPoint();
+        final Rect croppedEyeROI = new Rect();
+
+        EyePupil(int eye) {
+            this.eye = eye;
+        }
+    }
 
-    private int threshold = 70;
+    public void initialize(Size screenSize) {
+        initialize(leftEye, screenSize);
+        initialize(rightEye, screenSize);
 
-    private boolean initialized;
+        initialized = true;
+    }
 
-    public void initialize(Size screenSize) {
-        frame = new Frame(screenSize, SCALE);
-        leftPupilRegion = new CircleRegion(
-                screenSize,
-                new Point(0, 0),
-                screenSize.width / 64,
-                0,
-                1
-        );
-        rightPupilRegion = new CircleRegion(
+    private void initialize(EyePupil eyePupil, Size screenSize) {
+        eyePupil.eyeFrame = new Frame(screenSize, scale);
+        eyePupil.region = new CircleRegion(
                 screenSize,
                 new Point(0, 0),
                 screenSize.width / 64,
-                0,
-                1
+                REGION_ALPHA,
+                REGION_BETA
         );
-
-        initialized = true;
     }
 
-    public Pair<Circle, Circle> detect(CameraBridgeViewBase.CvCameraViewFrame originalFrame, Pair<Rect, Rect> eyeROIs) {
+    /**
+     * Searches for pupils inside the eye regions of {@code result}
+     * and writes them to {@code result.leftPupil} and {@code result.rightPupil}.
+     */
+    public void detect(FramePyramid pyramid, TrackingResult result) {
+        result.hasLeftPupil = false;
+        result.hasRightPupil = false;
         if (!initialized) {
-            return new Pair<>(null, null);
+            return;
             // or: throw exception
         }
-        frame.update(originalFrame);
+        activateLocator();
+        applyParallel();
+        Mat frameMat = pyramid.gray();
+        leftEye.region.predict();
+        rightEye.region.predict();
+        if (!result.hasLeftEye) {
+            leftEye.region.reset();
+        }
+        if (!result.hasRightEye) {
+            rightEye.region.reset();
+        }
 
-        Circle leftPupil = detect(leftPupilRegion, eyeROIs.first);
-        Circle rightPupil = detect(rightPupilRegion, eyeROIs.second);
+        if (leftEyeTask != null && result.hasLeftEye && result.hasRightEye) {
+            forkedFrameMat = frameMat;
+            forkedResult = result;
+            leftEyeTask.fork();
+            result.hasRightPupil = detect(frameMat, rightEye, result.rightEye, result.rightPupil);
+            leftEyeTask.join();
+            forkedFrameMat = null;
+            forkedResult = null;
+            return;
+        }
+        if (result.hasLeftEye) {
+            result.hasLeftPupil = detect(frameMat, leftEye, result.leftEye, result.leftPupil);
+        }
+        if (result.hasRightEye) {
+            result.hasRightPupil = detect(frameMat, rightEye, result.rightEye, result.rightPupil);
+        }
+    }
 
-        return new Pair<>(leftPupil, rightPupil);
+    private void detectForkedLeftPupil() {
+        TrackingResult result = forkedResult;
+        result.hasLeftPupil = detect(forkedFrameMat, leftEye, result.leftEye, result.leftPupil);
     }
 
-    private Circle detect(CircleRegion region, Rect eyeROI) {
-        if (eyeROI == null) {
-            return null;
+    private boolean detect(Mat frameMat, EyePupil eyePupil, Rect eyeROI, Circle pupil) {
+        Rect croppedEyeROI = eyePupil.croppedEyeROI;
+        KeyPoint pupilPoint = eyePupil.pupilPoint;
+        croppedEyeROI.x = eyeROI.x;
+        croppedEyeROI.y = eyeROI.y + eyeROI.height / 4;
+        croppedEyeROI.width = eyeROI.width;
+        croppedEyeROI.height = 3 * eyeROI.height / 4;
+
+        // eyeFrame is private to this eye, so the crop can be processed in place
+        long start = profiler.start();
+        Mat eyeMat = eyePupil.eyeFrame.update(frameMat, croppedEyeROI);
+        profiler.stop(StageProfiler.Stage.RESIZE, start);
+        if (eyeMat.empty()) {
+            return false;
         }
 
-        Rect scaledEyeROI = eyeROI.clone();
-        Scale.scaleDown(scaledEyeROI, SCALE);
-        scaledEyeROI.y = scaledEyeROI.y + scaledEyeROI.height / 4;
-        scaledEyeROI.height = 3 * scaledEyeROI.height / 4;
-
-        Mat eyeSubMat = frame.get().submat(scaledEyeROI);
-
-        Imgproc.threshold(eyeSubMat, eyeSubMat, threshold, 255, Imgproc.THRESH_BINARY);
-
-        Imgproc.erode(eyeSubMat, eyeSubMat, new Mat(), new Point(-1, -1).toOpenCV(), 2);
-        Imgproc.dilate(eyeSubMat, eyeSubMat, new Mat(), new Point(-1, -1).toOpenCV(), 4);
-        Imgproc.medianBlur(eyeSubMat, eyeSubMat, 5);
-
-        MatOfKeyPoint blob = new MatOfKeyPoint();
-        FeatureDetector detector = FeatureDetector.create(FeatureDetector.SIMPLEBLOB);
-        detector.detect(eyeSubMat, blob);
-
-        eyeSubMat.release();
-
-        List<KeyPoint> potentialPupils = new ArrayList<>();
-        for (KeyPoint point : blob.toArray()) {
-            if (point.size * 2 > scaledEyeROI.width) {
-                continue;
-            }
-
-            potentialPupils.add(point);
+        if (!activeLocator.locate(eyeMat, eyePupil.eye, pupilPoint)) {
+            trace.event(TraceBuffer.Event.PUPIL_MISSED, eyeROI);
+            return false;
         }
 
-        Scale.scaleUp(scaledEyeROI, SCALE);
-        Point eyeOffset = new Point(scaledEyeROI.x, scaledEyeROI.y);
+        eyePupil.region.update(
+                pupilPoint.pt.x * scale,
+                pupilPoint.pt.y * scale,
+                pupilPoint.size * scale
+        );
+        eyePupil.region.get(croppedEyeROI.x, croppedEyeROI.y, pupil);
+        trace.event(TraceBuffer.Event.PUPIL_FOUND, pupil);
+        return true;
+    }
 
-        if (potentialPupils.isEmpty()) {
-            Log.d(TAG, "No pupil detected");
-//            return region.get(eyeOffset);
-            return null;
+    /**
+     * Switches to the locator requested by {@link #setLocator(PupilLocator)} on the detection thread,
+     * so a locator is never used and released concurrently.
+     */
+    private void activateLocator() {
+        PupilLocator requested = locator;
+        if (requested == activeLocator) {
+            return;
+        }
+        if (activeLocator != null) {
+            activeLocator.deinitialize();
+        }
+        requested.setProfiler(profiler);
+        requested.initialize();
+        activeLocator = requested;
+        if (Logger.DEBUG && Logger.isLoggable(Logger.Level.DEBUG)) {
+            Logger.d(TAG, "Pupil locator: " + requested.getClass().getSimpleName());
         }
-
-        updateRegion(region, potentialPupils);
-        Log.d(TAG, "Pupil region updated: " + region.get(eyeOffset).toString());
-        return region.get(eyeOffset);
     }
 
-    private void updateRegion(CircleRegion region, List<KeyPoint> potentialPupils) {
-        KeyPoint biggestPupil = potentialPupils.get(0);
-        for (KeyPoint keyPoint : potentialPupils) {
-            if (keyPoint.size > biggestPupil.size) {
-                biggestPupil = keyPoint;
-            }
+    /**
+     * Starts or stops the worker of the left eye as requested by {@link #setParallel(boolean)},
+     * on the detection thread.
+     */
+    private void applyParallel() {
+        if (parallel && leftEyeTask == null) {
+            leftEyeTask = new ForkedTask("LeftPupil", new Runnable() {
+                @Override
+                public void run() {
+                    detectForkedLeftPupil();
+                }
+            });
+        }
+        else if (!parallel && leftEyeTask != null) {
+            leftEyeTask.close();
+            leftEyeTask = null;
         }
-
-//        Point center = new Point(
-//                (int) biggestPupil.pt.x * SCALE,
-//                (int) biggestPupil.pt.y * SCALE
-//        );
-        biggestPupil.pt.x *= SCALE;
-        biggestPupil.pt.y *= SCALE;
-        biggestPupil.size *= SCALE;
-
-        region.update(biggestPupil);
     }
 
     public void deinitialize() {
         if (!initialized) {
             return;
         }
-        frame.release();
+        if (leftEyeTask != null) {
+            leftEyeTask.close();
+            leftEyeTask = null;
+        }
+        leftEye.eyeFrame.release();
+        rightEye.eyeFrame.release();
+        if (activeLocator != null) {
+            activeLocator.deinitialize();
+            activeLocator = null;
+        }
 
-        rightPupilRegion = null;
-        leftPupilRegion = null;
-        frame = null;
+        leftEye.region = null;
+        rightEye.region = null;
+        leftEye.eyeFrame = null;
+        rightEye.eyeFrame = null;
         initialized = false;
     }
 
+    /**
+     * When enabled, the left and the right pupil are located at the same time on two threads.
+     * Takes effect on the next frame.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Takes effect on the next frame. The locator is initialized and deinitialized by this detector.
+     */
+    public void setLocator(PupilLocator locator) {
+        this.locator = locator;
+    }
+
+    /**
+     * The default locator, which also owns the manual threshold and the blob detector parameters.
+     */
+    public BlobPupilLocator getBlobLocator() {
+        return blobLocator;
+    }
+
     public void setThreshold(int threshold) {
-        this.threshold = threshold;
+        blobLocator.setThreshold(threshold);
+    }
+
+    public void setBlobParameters(BlobParameters blobParameters) {
+        blobLocator.setBlobParameters(blobParameters);
+    }
+
+    /**
+     * Sets how much the eyes are scaled down to locate pupils. Call before {@link #initialize}.
+     */
+    public void setScale(int scale) {
+        this.scale = scale;
+    }
+
+    public void setProfiler(StageProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public void setTrace(TraceBuffer trace) {
+        this.trace = trace;
     }
 }
@@ -0,0 +1,89 @@
+package pl.edu.agh.sm.eyetracking.detectors;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+
+import pl.edu.agh.sm.eyetracking.logging.Logger;
+
+/**
+ * The threshold and morphological cleanup of {@link BlobPupilLocator} in one native call:
+ * threshold, erosion by a 5x5 square, dilation by a 9x9 square and a 5x5 median, with the
+ * same result as the OpenCV chain. Uses NEON where the CPU has it, plain C elsewhere.
+ * <p>
+ * The native library is missing on the desktop unless built from {@code app/src/main/cpp},
+ * so users check {@link #isAvailable()} and fall back to OpenCV.
+ */
+public class PupilKernel {
+
+    private static final String TAG = PupilKernel.class.getCanonicalName();
+    private static final String LIBRARY = "pupilkernel";
+    private static final boolean AVAILABLE = loadLibrary();
+
+    // intermediate images, grown to the largest eye crop seen
+    private ByteBuffer scratch = ByteBuffer.allocateDirect(0);
+
+    private static boolean loadLibrary() {
+        try {
+            System.loadLibrary(LIBRARY);
+            if (Logger.DEBUG && Logger.isLoggable(Logger.Level.DEBUG)) {
+                Logger.d(TAG, "Native pupil kernel loaded, NEON " + (hasNeon() ? "on" : "off"));
+            }
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            Logger.w(TAG, "Native pupil kernel not available, using OpenCV: " + e.getMessage());
+            return false;
+        }
+    }
+
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Writes the cleaned up binary image of the 8-bit single channel {@code source} to
+     * {@code target}, which has the same size and type and may be the same Mat.
+     * The native code trusts the addresses and steps it gets, so anything else is rejected here.
+     *
+     * @throws IllegalArgumentException if either Mat is empty, not 8-bit single channel,
+     *                                  or the sizes differ
+     */
+    public void apply(Mat source, Mat target, int threshold) {
+        checkMat("Source", source);
+        checkMat("Target", target);
+        int width = source.cols();
+        int height = source.rows();
+        if (target.cols() != width || target.rows() != height) {
+            throw new IllegalArgumentException("Target of " + target.size() + " for source of " + source.size());
+        }
+        int size = 2 * width * height;
+        if (scratch.capacity() < size) {
+            scratch = ByteBuffer.allocateDirect(size);
+        }
+        process(source.dataAddr(), source.step1(), target.dataAddr(), target.step1(),
+                width, height, threshold, scratch);
+    }
+
+    private static void checkMat(String name, Mat mat) {
+        if (mat.empty()) {
+            throw new IllegalArgumentException(name + " is empty");
+        }
+        if (mat.type() != CvType.CV_8UC1) {
+            throw new IllegalArgumentException(name + " of type " + CvType.typeToString(mat.type())
+                    + ", expected " + CvType.typeToString(CvType.CV_8UC1));
+        }
+    }
+
+    /**
+     * Frees the scratch buffer, it is allocated again on the next use.
+     */
+    public void release() {
+        scratch = ByteBuffer.allocateDirect(0);
+    }
+
+    private static native void process(long source, long sourceStep, long target, long targetStep,
+                                       int width, int height, int threshold, ByteBuffer scratch);
+
+    private static native boolean hasNeon();
+}
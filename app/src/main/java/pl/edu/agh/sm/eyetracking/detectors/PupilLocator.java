@@ -0,0 +1,31 @@
+package pl.edu.agh.sm.eyetracking.detectors;
+
+import org.opencv.core.KeyPoint;
+import org.opencv.core.Mat;
+
+import pl.edu.agh.sm.eyetracking.profiling.StageProfiler;
+
+/**
+ * Finds the pupil in a grayscale crop of the eye. Called on the detection thread, except that
+ * the left and the right eye may be located at the same time, so anything written while locating
+ * is kept per eye.
+ */
+public interface PupilLocator {
+
+    int LEFT_EYE = 0;
+    int RIGHT_EYE = 1;
+
+    void initialize();
+
+    /**
+     * @param eyeMat eye crop, may be modified
+     * @param eye {@link #LEFT_EYE} or {@link #RIGHT_EYE}
+     * @param pupil receives the pupil center and diameter in {@code eyeMat} coordinates
+     * @return whether a pupil was found
+     */
+    boolean locate(Mat eyeMat, int eye, KeyPoint pupil);
+
+    void deinitialize();
+
+    void setProfiler(StageProfiler profiler);
+}
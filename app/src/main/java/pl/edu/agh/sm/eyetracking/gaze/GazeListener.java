@@ -0,0 +1,13 @@
+package pl.edu.agh.sm.eyetracking.gaze;
+
+/**
+ * Receives batches of gaze samples from a {@link GazeStream} subscription.
+ */
+public interface GazeListener {
+
+    /**
+     * Called on the delivery thread of the subscription, in the order of the samples.
+     * The first {@code count} samples are valid only during the call.
+     */
+    void onGazeSamples(GazeSample[] samples, int count);
+}
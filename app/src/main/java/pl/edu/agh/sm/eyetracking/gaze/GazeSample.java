@@ -0,0 +1,139 @@
+package pl.edu.agh.sm.eyetracking.gaze;
+
+import org.opencv.core.Rect;
+
+import java.util.Locale;
+
+import pl.edu.agh.sm.eyetracking.TrackingResult;
+import pl.edu.agh.sm.eyetracking.util.Circle;
+
+/**
+ * Tracking result of one frame as delivered to gaze stream subscribers. Instances are reused
+ * by the stream, so a sample must be copied with {@link #set(GazeSample)} to be kept after the callback.
+ * Coordinates are in pixels of the camera frame, not mirrored.
+ */
+public class GazeSample {
+
+    // eye regions that only followed the motion model are less certain than detected ones
+    private static final double PREDICTED_EYES_WEIGHT = 0.8;
+
+    public long sequence;
+    /** {@link System#nanoTime()} when the camera frame was received */
+    public long timestampNanos;
+
+    public final Rect face = new Rect();
+    public final Rect leftEye = new Rect();
+    public final Rect rightEye = new Rect();
+    public final Circle leftPupil = new Circle();
+    public final Circle rightPupil = new Circle();
+
+    public boolean hasFace;
+    public boolean hasLeftEye;
+    public boolean hasRightEye;
+    public boolean hasLeftPupil;
+    public boolean hasRightPupil;
+    /** whether the face and eye cascades ran, otherwise the regions were predicted or held */
+    public boolean faceSearched;
+    public boolean eyesSearched;
+    /** whether nothing moved, so the face and eye regions were held */
+    public boolean still;
+
+    public long faceNanos;
+    public long eyesNanos;
+    public long pupilsNanos;
+
+    /**
+     * Pupil offset from the eye center, averaged over both eyes, relative to half of the eye size,
+     * so roughly -1..1 in both axes. Zero when no pupil was found.
+     */
+    public double gazeX;
+    public double gazeY;
+    /** 0 without pupils, 0.5 with one, 1 with both pupils in detected eye regions */
+    public double confidence;
+
+    public void set(TrackingResult result) {
+        sequence = result.sequence;
+        timestampNanos = result.timestampNanos;
+        set(face, result.face);
+        set(leftEye, result.leftEye);
+        set(rightEye, result.rightEye);
+        leftPupil.set(result.leftPupil);
+        rightPupil.set(result.rightPupil);
+        hasFace = result.hasFace;
+        hasLeftEye = result.hasLeftEye;
+        hasRightEye = result.hasRightEye;
+        hasLeftPupil = result.hasLeftEye && result.hasLeftPupil;
+        hasRightPupil = result.hasRightEye && result.hasRightPupil;
+        faceSearched = result.faceSearched;
+        eyesSearched = result.eyesSearched;
+        still = result.still;
+        faceNanos = result.faceNanos;
+        eyesNanos = result.eyesNanos;
+        pupilsNanos = result.pupilsNanos;
+
+        gazeX = 0;
+        gazeY = 0;
+        int pupils = 0;
+        if (hasLeftPupil) {
+            addGaze(leftEye, leftPupil);
+            pupils++;
+        }
+        if (hasRightPupil) {
+            addGaze(rightEye, rightPupil);
+            pupils++;
+        }
+        if (pupils > 0) {
+            gazeX /= pupils;
+            gazeY /= pupils;
+        }
+
+        confidence = pupils / 2.0;
+        if (!eyesSearched && !still) {
+            confidence *= PREDICTED_EYES_WEIGHT;
+        }
+    }
+
+    private void addGaze(Rect eye, Circle pupil) {
+        double halfWidth = Math.max(eye.width / 2.0, 1);
+        double halfHeight = Math.max(eye.height / 2.0, 1);
+        gazeX += (pupil.center.x - (eye.x + eye.width / 2.0)) / halfWidth;
+        gazeY += (pupil.center.y - (eye.y + eye.height / 2.0)) / halfHeight;
+    }
+
+    public void set(GazeSample other) {
+        sequence = other.sequence;
+        timestampNanos = other.timestampNanos;
+        set(face, other.face);
+        set(leftEye, other.leftEye);
+        set(rightEye, other.rightEye);
+        leftPupil.set(other.leftPupil);
+        rightPupil.set(other.rightPupil);
+        hasFace = other.hasFace;
+        hasLeftEye = other.hasLeftEye;
+        hasRightEye = other.hasRightEye;
+        hasLeftPupil = other.hasLeftPupil;
+        hasRightPupil = other.hasRightPupil;
+        faceSearched = other.faceSearched;
+        eyesSearched = other.eyesSearched;
+        still = other.still;
+        faceNanos = other.faceNanos;
+        eyesNanos = other.eyesNanos;
+        pupilsNanos = other.pupilsNanos;
+        gazeX = other.gazeX;
+        gazeY = other.gazeY;
+        confidence = other.confidence;
+    }
+
+    private static void set(Rect rect, Rect other) {
+        rect.x = other.x;
+        rect.y = other.y;
+        rect.width = other.width;
+        rect.height = other.height;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "GazeSample{sequence=%d, timestampNanos=%d, gaze=(%.3f, %.3f), confidence=%.2f}",
+                sequence, timestampNanos, gazeX, gazeY, confidence);
+    }
+}
@@ -0,0 +1,214 @@
+package pl.edu.agh.sm.eyetracking.gaze;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import pl.edu.agh.sm.eyetracking.TrackingResult;
+import pl.edu.agh.sm.eyetracking.logging.Logger;
+
+/**
+ * Publishes a {@link GazeSample} for every tracked frame to any number of subscriptions.
+ * <p>
+ * Every subscription has a bounded ring of samples and its own delivery thread, which calls
+ * the listener with batches of samples. Publishing only copies the sample into the rings and
+ * never waits for a listener, so a slow subscriber loses samples instead of stalling detection.
+ * What is lost when its ring is full is decided by its {@link OverflowPolicy}.
+ */
+public class GazeStream {
+
+    private static final String TAG = GazeStream.class.getCanonicalName();
+
+    public enum OverflowPolicy {
+        /** the oldest waiting sample is dropped, the subscriber gets the most recent samples without gaps */
+        DROP_OLDEST,
+        /** all waiting samples are replaced by the newest one, the subscriber skips to the present */
+        COALESCE
+    }
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final GazeSample sample = new GazeSample();
+
+    /**
+     * Called by the processor for every completed frame, from one thread at a time.
+     */
+    public void publish(TrackingResult result) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        sample.set(result);
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(sample);
+        }
+    }
+
+    /**
+     * @param batchSize the most samples per callback; the listener is called once that many are waiting
+     * @param maxBatchDelayMs the longest a sample waits for its batch to fill up
+     * @param capacity the most samples waiting for delivery, at least {@code batchSize}
+     */
+    public Subscription subscribe(GazeListener listener, int batchSize, long maxBatchDelayMs,
+                                  int capacity, OverflowPolicy policy) {
+        if (batchSize < 1 || capacity < batchSize || maxBatchDelayMs < 0) {
+            throw new IllegalArgumentException("Invalid subscription: batch size " + batchSize
+                    + ", capacity " + capacity + ", max batch delay " + maxBatchDelayMs + " ms");
+        }
+        Subscription subscription = new Subscription(listener, batchSize, maxBatchDelayMs, capacity, policy);
+        subscriptions.add(subscription);
+        subscription.thread.start();
+        return subscription;
+    }
+
+    public void close() {
+        for (Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+    }
+
+    public class Subscription implements Closeable {
+
+        private final GazeListener listener;
+        private final int batchSize;
+        private final long maxBatchDelayNanos;
+        private final OverflowPolicy policy;
+
+        private final GazeSample[] ring;
+        private final GazeSample[] batch;
+        private int head;
+        private int count;
+        private long droppedSamples;
+        private long deliveredSamples;
+
+        private final Thread thread;
+        private volatile boolean closed;
+
+        private Subscription(GazeListener listener, int batchSize, long maxBatchDelayMs,
+                             int capacity, OverflowPolicy policy) {
+            this.listener = listener;
+            this.batchSize = batchSize;
+            this.maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchDelayMs);
+            this.policy = policy;
+            ring = newSamples(capacity);
+            batch = newSamples(batchSize);
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    deliver();
+                }
+            }, "GazeStream");
+            thread.setDaemon(true);
+        }
+
+        private GazeSample[] newSamples(int length) {
+            GazeSample[] samples = new GazeSample[length];
+            for (int i = 0; i < length; i++) {
+                samples[i] = new GazeSample();
+            }
+            return samples;
+        }
+
+        private void offer(GazeSample sample) {
+            synchronized (ring) {
+                if (count == ring.length) {
+                    if (policy == OverflowPolicy.DROP_OLDEST) {
+                        head = (head + 1) % ring.length;
+                        count--;
+                        droppedSamples++;
+                    }
+                    else {
+                        droppedSamples += count;
+                        count = 0;
+                    }
+                }
+                ring[(head + count) % ring.length].set(sample);
+                count++;
+                // the first sample starts the batch delay, a full batch is delivered at once
+                if (count == 1 || count == batchSize) {
+                    ring.notifyAll();
+                }
+            }
+        }
+
+        private void deliver() {
+            try {
+                int delivered;
+                while ((delivered = takeBatch()) > 0) {
+                    try {
+                        listener.onGazeSamples(batch, delivered);
+                    } catch (RuntimeException e) {
+                        Logger.e(TAG, "Gaze listener failed", e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * @return the number of samples moved to the batch, 0 once closed and drained
+         */
+        private int takeBatch() throws InterruptedException {
+            synchronized (ring) {
+                long deadline = 0;
+                while (!closed && count < batchSize) {
+                    if (count == 0) {
+                        deadline = 0;
+                        ring.wait();
+                        continue;
+                    }
+                    long now = System.nanoTime();
+                    if (deadline == 0) {
+                        deadline = now + maxBatchDelayNanos;
+                    }
+                    long remaining = deadline - now;
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(ring, remaining);
+                }
+                int taken = Math.min(count, batchSize);
+                for (int i = 0; i < taken; i++) {
+                    batch[i].set(ring[(head + i) % ring.length]);
+                }
+                head = (head + taken) % ring.length;
+                count -= taken;
+                deliveredSamples += taken;
+                return taken;
+            }
+        }
+
+        public long getDroppedSamples() {
+            synchronized (ring) {
+                return droppedSamples;
+            }
+        }
+
+        public long getDeliveredSamples() {
+            synchronized (ring) {
+                return deliveredSamples;
+            }
+        }
+
+        /**
+         * Stops delivery after the samples still waiting are delivered, without waiting for full batches.
+         * Waits for the delivery to finish, unless called from the callback.
+         */
+        @Override
+        public void close() {
+            subscriptions.remove(this);
+            synchronized (ring) {
+                closed = true;
+                ring.notifyAll();
+            }
+            if (Thread.currentThread() == thread) {
+                return;
+            }
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
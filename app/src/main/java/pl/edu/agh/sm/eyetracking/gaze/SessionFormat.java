@@ -0,0 +1,91 @@
+package pl.edu.agh.sm.eyetracking.gaze;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Layout of recorded gaze sessions, shared by {@link SessionRecorder} and {@link SessionReader}.
+ * <p>
+ * A session starts with a file header and is followed by chunks of up to {@link #CHUNK_FRAMES} frames.
+ * A chunk has its own header and then stores every {@link Column} for all of its frames, one column
+ * after another, so similar values are next to each other. All values are little endian.
+ * <pre>
+ * file header:  int magic, short version, short column count, long start wall clock millis
+ * chunk header: int magic, int frame count, long base sequence, long base timestamp nanos
+ * </pre>
+ */
+final class SessionFormat {
+
+    static final int MAGIC = 0x4E535A47; // "GZSN"
+    static final int CHUNK_MAGIC = 0x4B4E4843; // "CHNK"
+    static final short VERSION = 1;
+
+    static final int HEADER_BYTES = 16;
+    static final int CHUNK_HEADER_BYTES = 24;
+    static final int CHUNK_FRAMES = 1024;
+
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    // bits of the FLAGS column
+    static final int HAS_FACE = 1;
+    static final int HAS_LEFT_EYE = 1 << 1;
+    static final int HAS_RIGHT_EYE = 1 << 2;
+    static final int HAS_LEFT_PUPIL = 1 << 3;
+    static final int HAS_RIGHT_PUPIL = 1 << 4;
+    static final int FACE_SEARCHED = 1 << 5;
+    static final int EYES_SEARCHED = 1 << 6;
+    static final int STILL = 1 << 7;
+
+    enum Column {
+        /** microseconds since the base timestamp of the chunk */
+        TIMESTAMP(4),
+        /** sequence minus the base sequence of the chunk */
+        SEQUENCE(4),
+        FLAGS(1),
+        FACE_X(2), FACE_Y(2), FACE_WIDTH(2), FACE_HEIGHT(2),
+        LEFT_EYE_X(2), LEFT_EYE_Y(2), LEFT_EYE_WIDTH(2), LEFT_EYE_HEIGHT(2),
+        RIGHT_EYE_X(2), RIGHT_EYE_Y(2), RIGHT_EYE_WIDTH(2), RIGHT_EYE_HEIGHT(2),
+        LEFT_PUPIL_X(2), LEFT_PUPIL_Y(2), LEFT_PUPIL_RADIUS(2),
+        RIGHT_PUPIL_X(2), RIGHT_PUPIL_Y(2), RIGHT_PUPIL_RADIUS(2),
+        GAZE_X(4), GAZE_Y(4),
+        /** confidence scaled to 0..255 */
+        CONFIDENCE(1),
+        FACE_MICROS(4), EYES_MICROS(4), PUPILS_MICROS(4);
+
+        final int bytes;
+
+        Column(int bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    static final Column[] COLUMNS = Column.values();
+    static final int FRAME_BYTES = frameBytes();
+
+    private SessionFormat() {
+    }
+
+    private static int frameBytes() {
+        int bytes = 0;
+        for (Column column : COLUMNS) {
+            bytes += column.bytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Splits a chunk body of {@code frames} frames into one buffer per column, in {@link #COLUMNS} order.
+     */
+    static ByteBuffer[] columns(ByteBuffer body, int frames) {
+        ByteBuffer[] columns = new ByteBuffer[COLUMNS.length];
+        int offset = body.position();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            ByteBuffer column = body.duplicate();
+            column.limit(offset + frames * COLUMNS[i].bytes);
+            column.position(offset);
+            columns[i] = column.slice().order(ORDER);
+            offset += frames * COLUMNS[i].bytes;
+        }
+        return columns;
+    }
+}
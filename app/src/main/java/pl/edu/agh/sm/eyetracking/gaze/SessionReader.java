@@ -0,0 +1,165 @@
+package pl.edu.agh.sm.eyetracking.gaze;
+
+import org.opencv.core.Rect;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import pl.edu.agh.sm.eyetracking.gaze.SessionFormat.Column;
+import pl.edu.agh.sm.eyetracking.util.Circle;
+
+/**
+ * Reads a session written by {@link SessionRecorder} frame by frame, for offline analysis.
+ */
+public class SessionReader implements Closeable {
+
+    private final FileChannel channel;
+    private final long startTimeMillis;
+
+    private final ByteBuffer header = ByteBuffer.allocate(SessionFormat.CHUNK_HEADER_BYTES).order(SessionFormat.ORDER);
+    private final ByteBuffer body = ByteBuffer.allocate(SessionFormat.CHUNK_FRAMES * SessionFormat.FRAME_BYTES);
+    private ByteBuffer[] columns;
+    private int frames;
+    private int frame;
+    private long baseSequence;
+    private long baseTimestampNanos;
+
+    public SessionReader(File file) throws IOException {
+        channel = new FileInputStream(file).getChannel();
+        try {
+            ByteBuffer fileHeader = ByteBuffer.allocate(SessionFormat.HEADER_BYTES).order(SessionFormat.ORDER);
+            if (!read(fileHeader) || fileHeader.getInt() != SessionFormat.MAGIC) {
+                throw new IOException("Not a gaze session: " + file);
+            }
+            short version = fileHeader.getShort();
+            short columnCount = fileHeader.getShort();
+            if (version != SessionFormat.VERSION || columnCount != SessionFormat.COLUMNS.length) {
+                throw new IOException("Unsupported gaze session version " + version + ": " + file);
+            }
+            startTimeMillis = fileHeader.getLong();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return {@link System#currentTimeMillis()} when the recording started
+     */
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    /**
+     * Reads the next frame into the sample.
+     *
+     * @return false at the end of the session
+     */
+    public boolean next(GazeSample sample) throws IOException {
+        if (frame == frames && !readChunk()) {
+            return false;
+        }
+
+        int i = frame++;
+        sample.timestampNanos = baseTimestampNanos + TimeUnit.MICROSECONDS.toNanos(getInt(Column.TIMESTAMP, i));
+        sample.sequence = baseSequence + getInt(Column.SEQUENCE, i);
+        int flags = columns[Column.FLAGS.ordinal()].get(i) & 0xFF;
+        sample.hasFace = (flags & SessionFormat.HAS_FACE) != 0;
+        sample.hasLeftEye = (flags & SessionFormat.HAS_LEFT_EYE) != 0;
+        sample.hasRightEye = (flags & SessionFormat.HAS_RIGHT_EYE) != 0;
+        sample.hasLeftPupil = (flags & SessionFormat.HAS_LEFT_PUPIL) != 0;
+        sample.hasRightPupil = (flags & SessionFormat.HAS_RIGHT_PUPIL) != 0;
+        sample.faceSearched = (flags & SessionFormat.FACE_SEARCHED) != 0;
+        sample.eyesSearched = (flags & SessionFormat.EYES_SEARCHED) != 0;
+        sample.still = (flags & SessionFormat.STILL) != 0;
+        getRect(Column.FACE_X, i, sample.face);
+        getRect(Column.LEFT_EYE_X, i, sample.leftEye);
+        getRect(Column.RIGHT_EYE_X, i, sample.rightEye);
+        getCircle(Column.LEFT_PUPIL_X, i, sample.leftPupil);
+        getCircle(Column.RIGHT_PUPIL_X, i, sample.rightPupil);
+        sample.gazeX = columns[Column.GAZE_X.ordinal()].getFloat(i * 4);
+        sample.gazeY = columns[Column.GAZE_Y.ordinal()].getFloat(i * 4);
+        sample.confidence = (columns[Column.CONFIDENCE.ordinal()].get(i) & 0xFF) / 255.0;
+        sample.faceNanos = TimeUnit.MICROSECONDS.toNanos(getInt(Column.FACE_MICROS, i));
+        sample.eyesNanos = TimeUnit.MICROSECONDS.toNanos(getInt(Column.EYES_MICROS, i));
+        sample.pupilsNanos = TimeUnit.MICROSECONDS.toNanos(getInt(Column.PUPILS_MICROS, i));
+        return true;
+    }
+
+    private boolean readChunk() throws IOException {
+        header.clear();
+        if (!read(header)) {
+            return false;
+        }
+        if (header.getInt() != SessionFormat.CHUNK_MAGIC) {
+            throw new IOException("Corrupted gaze session chunk");
+        }
+        frames = header.getInt();
+        if (frames <= 0 || frames > SessionFormat.CHUNK_FRAMES) {
+            throw new IOException("Corrupted gaze session chunk of " + frames + " frames");
+        }
+        baseSequence = header.getLong();
+        baseTimestampNanos = header.getLong();
+
+        body.clear();
+        body.limit(frames * SessionFormat.FRAME_BYTES);
+        if (!read(body)) {
+            throw new EOFException("Truncated gaze session chunk");
+        }
+        body.position(0);
+        columns = SessionFormat.columns(body, frames);
+        frame = 0;
+        return true;
+    }
+
+    /**
+     * Fills the buffer and flips it.
+     *
+     * @return false when the file ended before the first byte
+     */
+    private boolean read(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (buffer.position() == start) {
+                    return false;
+                }
+                throw new EOFException("Truncated gaze session");
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private int getInt(Column column, int frame) {
+        return columns[column.ordinal()].getInt(frame * 4);
+    }
+
+    private int getShort(int column, int frame) {
+        return columns[column].getShort(frame * 2);
+    }
+
+    private void getRect(Column x, int frame, Rect rect) {
+        int column = x.ordinal();
+        rect.x = getShort(column, frame);
+        rect.y = getShort(column + 1, frame);
+        rect.width = getShort(column + 2, frame);
+        rect.height = getShort(column + 3, frame);
+    }
+
+    private void getCircle(Column x, int frame, Circle circle) {
+        int column = x.ordinal();
+        circle.set(getShort(column, frame), getShort(column + 1, frame), getShort(column + 2, frame));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
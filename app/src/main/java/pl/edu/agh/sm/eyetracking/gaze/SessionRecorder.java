@@ -0,0 +1,216 @@
+package pl.edu.agh.sm.eyetracking.gaze;
+
+import org.opencv.core.Rect;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import pl.edu.agh.sm.eyetracking.gaze.SessionFormat.Column;
+import pl.edu.agh.sm.eyetracking.logging.Logger;
+import pl.edu.agh.sm.eyetracking.util.Circle;
+
+/**
+ * Records gaze samples to a file in the columnar {@link SessionFormat}, to be read back by {@link SessionReader}.
+ * <p>
+ * Samples are written into a direct buffer allocated once for a whole chunk, and every full chunk
+ * goes to the file with a single gathering write, so recording costs a few stores per sample.
+ * Meant to be subscribed to a {@link GazeStream}, which keeps the file writes off the detection thread.
+ */
+public class SessionRecorder implements GazeListener, Closeable {
+
+    private static final String TAG = SessionRecorder.class.getCanonicalName();
+
+    // larger offsets start a new chunk
+    private static final long MAX_TIMESTAMP_OFFSET_NANOS = TimeUnit.MICROSECONDS.toNanos(Integer.MAX_VALUE);
+
+    private final FileChannel channel;
+    private final ByteBuffer header;
+    private final ByteBuffer[] columns;
+    private final ByteBuffer[] buffers;
+
+    private int frames;
+    private long baseSequence;
+    private long baseTimestampNanos;
+    private long recordedFrames;
+    private boolean failed;
+
+    public SessionRecorder(File file) throws IOException {
+        channel = new FileOutputStream(file).getChannel();
+
+        ByteBuffer chunk = ByteBuffer.allocateDirect(SessionFormat.CHUNK_HEADER_BYTES
+                + SessionFormat.CHUNK_FRAMES * SessionFormat.FRAME_BYTES).order(SessionFormat.ORDER);
+        chunk.limit(SessionFormat.CHUNK_HEADER_BYTES);
+        header = chunk.slice().order(SessionFormat.ORDER);
+        chunk.clear();
+        chunk.position(SessionFormat.CHUNK_HEADER_BYTES);
+        columns = SessionFormat.columns(chunk, SessionFormat.CHUNK_FRAMES);
+
+        buffers = new ByteBuffer[columns.length + 1];
+        buffers[0] = header;
+        System.arraycopy(columns, 0, buffers, 1, columns.length);
+
+        ByteBuffer fileHeader = ByteBuffer.allocate(SessionFormat.HEADER_BYTES).order(SessionFormat.ORDER);
+        fileHeader.putInt(SessionFormat.MAGIC);
+        fileHeader.putShort(SessionFormat.VERSION);
+        fileHeader.putShort((short) columns.length);
+        fileHeader.putLong(System.currentTimeMillis());
+        fileHeader.flip();
+        try {
+            while (fileHeader.hasRemaining()) {
+                channel.write(fileHeader);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void onGazeSamples(GazeSample[] samples, int count) {
+        for (int i = 0; i < count; i++) {
+            record(samples[i]);
+        }
+    }
+
+    public void record(GazeSample sample) {
+        if (failed) {
+            return;
+        }
+        if (frames > 0 && (sample.timestampNanos - baseTimestampNanos > MAX_TIMESTAMP_OFFSET_NANOS
+                || sample.sequence - baseSequence > Integer.MAX_VALUE)) {
+            flush();
+        }
+        if (frames == 0) {
+            baseSequence = sample.sequence;
+            baseTimestampNanos = sample.timestampNanos;
+        }
+
+        int i = frames;
+        putInt(Column.TIMESTAMP, i, (int) TimeUnit.NANOSECONDS.toMicros(sample.timestampNanos - baseTimestampNanos));
+        putInt(Column.SEQUENCE, i, (int) (sample.sequence - baseSequence));
+        columns[Column.FLAGS.ordinal()].put(i, (byte) flags(sample));
+        putRect(Column.FACE_X, i, sample.face);
+        putRect(Column.LEFT_EYE_X, i, sample.leftEye);
+        putRect(Column.RIGHT_EYE_X, i, sample.rightEye);
+        putCircle(Column.LEFT_PUPIL_X, i, sample.leftPupil);
+        putCircle(Column.RIGHT_PUPIL_X, i, sample.rightPupil);
+        columns[Column.GAZE_X.ordinal()].putFloat(i * 4, (float) sample.gazeX);
+        columns[Column.GAZE_Y.ordinal()].putFloat(i * 4, (float) sample.gazeY);
+        columns[Column.CONFIDENCE.ordinal()].put(i, (byte) Math.round(sample.confidence * 255));
+        putInt(Column.FACE_MICROS, i, (int) TimeUnit.NANOSECONDS.toMicros(sample.faceNanos));
+        putInt(Column.EYES_MICROS, i, (int) TimeUnit.NANOSECONDS.toMicros(sample.eyesNanos));
+        putInt(Column.PUPILS_MICROS, i, (int) TimeUnit.NANOSECONDS.toMicros(sample.pupilsNanos));
+
+        frames++;
+        recordedFrames++;
+        if (frames == SessionFormat.CHUNK_FRAMES) {
+            flush();
+        }
+    }
+
+    private static int flags(GazeSample sample) {
+        int flags = 0;
+        if (sample.hasFace) {
+            flags |= SessionFormat.HAS_FACE;
+        }
+        if (sample.hasLeftEye) {
+            flags |= SessionFormat.HAS_LEFT_EYE;
+        }
+        if (sample.hasRightEye) {
+            flags |= SessionFormat.HAS_RIGHT_EYE;
+        }
+        if (sample.hasLeftPupil) {
+            flags |= SessionFormat.HAS_LEFT_PUPIL;
+        }
+        if (sample.hasRightPupil) {
+            flags |= SessionFormat.HAS_RIGHT_PUPIL;
+        }
+        if (sample.faceSearched) {
+            flags |= SessionFormat.FACE_SEARCHED;
+        }
+        if (sample.eyesSearched) {
+            flags |= SessionFormat.EYES_SEARCHED;
+        }
+        if (sample.still) {
+            flags |= SessionFormat.STILL;
+        }
+        return flags;
+    }
+
+    private void putInt(Column column, int frame, int value) {
+        columns[column.ordinal()].putInt(frame * 4, value);
+    }
+
+    private void putShort(int column, int frame, int value) {
+        columns[column].putShort(frame * 2, (short) value);
+    }
+
+    // the rectangle columns follow each other in x, y, width, height order
+    private void putRect(Column x, int frame, Rect rect) {
+        int column = x.ordinal();
+        putShort(column, frame, rect.x);
+        putShort(column + 1, frame, rect.y);
+        putShort(column + 2, frame, rect.width);
+        putShort(column + 3, frame, rect.height);
+    }
+
+    private void putCircle(Column x, int frame, Circle circle) {
+        int column = x.ordinal();
+        putShort(column, frame, circle.center.x);
+        putShort(column + 1, frame, circle.center.y);
+        putShort(column + 2, frame, circle.radius);
+    }
+
+    /**
+     * Writes the frames recorded so far as a chunk.
+     */
+    public void flush() {
+        if (frames == 0 || failed) {
+            return;
+        }
+        header.clear();
+        header.putInt(SessionFormat.CHUNK_MAGIC);
+        header.putInt(frames);
+        header.putLong(baseSequence);
+        header.putLong(baseTimestampNanos);
+        header.flip();
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].limit(frames * SessionFormat.COLUMNS[i].bytes);
+            columns[i].position(0);
+        }
+
+        try {
+            long remaining = SessionFormat.CHUNK_HEADER_BYTES + (long) frames * SessionFormat.FRAME_BYTES;
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+        } catch (IOException e) {
+            Logger.e(TAG, "Recording failed, " + recordedFrames + " frames recorded", e);
+            failed = true;
+        }
+
+        for (ByteBuffer column : columns) {
+            column.clear();
+        }
+        frames = 0;
+    }
+
+    public long getRecordedFrames() {
+        return recordedFrames;
+    }
+
+    /**
+     * Flushes the last chunk and closes the file. Must not be called while samples are being recorded,
+     * so close the stream subscription first.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
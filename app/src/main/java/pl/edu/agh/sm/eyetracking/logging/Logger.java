@@ -0,0 +1,76 @@
+package pl.edu.agh.sm.eyetracking.logging;
+
+import android.util.Log;
+
+/**
+ * Logging facade of the tracking code, with a level set at runtime and debug messages
+ * removed from release builds. Debug messages are built only behind the guard:
+ * <pre>
+ * if (Logger.DEBUG &amp;&amp; Logger.isLoggable(Logger.Level.DEBUG)) {
+ *     Logger.d(TAG, "No face detected for " + frames + " frames");
+ * }
+ * </pre>
+ * {@link #DEBUG} is a compile-time constant, false in release builds, so the compiler drops
+ * the whole block together with its string building. Per-frame data should not be logged at all,
+ * it belongs in a {@link TraceBuffer}.
+ */
+public final class Logger {
+
+    public static final boolean DEBUG = LogConfig.DEBUG_LOGGING;
+
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR,
+        NONE
+    }
+
+    private static volatile Level level = DEBUG ? Level.DEBUG : Level.INFO;
+
+    private Logger() {
+    }
+
+    public static void setLevel(Level level) {
+        Logger.level = level;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static boolean isLoggable(Level messageLevel) {
+        return messageLevel.ordinal() >= level.ordinal()
+                && (DEBUG || messageLevel != Level.DEBUG);
+    }
+
+    public static void d(String tag, String message) {
+        if (DEBUG && isLoggable(Level.DEBUG)) {
+            Log.d(tag, message);
+        }
+    }
+
+    public static void i(String tag, String message) {
+        if (isLoggable(Level.INFO)) {
+            Log.i(tag, message);
+        }
+    }
+
+    public static void w(String tag, String message) {
+        if (isLoggable(Level.WARN)) {
+            Log.w(tag, message);
+        }
+    }
+
+    public static void e(String tag, String message) {
+        if (isLoggable(Level.ERROR)) {
+            Log.e(tag, message);
+        }
+    }
+
+    public static void e(String tag, String message, Throwable throwable) {
+        if (isLoggable(Level.ERROR)) {
+            Log.e(tag, message, throwable);
+        }
+    }
+}
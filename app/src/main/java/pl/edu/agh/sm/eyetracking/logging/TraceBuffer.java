@@ -0,0 +1,136 @@
+package pl.edu.agh.sm.eyetracking.logging;
+
+import org.opencv.core.Rect;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import pl.edu.agh.sm.eyetracking.util.Circle;
+
+/**
+ * Ring of the most recent trace events with up to four integer arguments, for the per-frame data
+ * that used to be logged as messages. Recording an event stores a few numbers without allocation,
+ * and only writing the trace out formats anything. Disabled by default, then an event costs
+ * a volatile read.
+ * <pre>
+ * trace.event(TraceBuffer.Event.FACE_DETECTED, result.face);
+ * </pre>
+ */
+public class TraceBuffer {
+
+    public enum Event {
+        /** x, y, width, height */
+        FACE_DETECTED,
+        FACE_PREDICTED,
+        FACE_LOST,
+        /** x, y, width, height */
+        LEFT_EYE_DETECTED,
+        LEFT_EYE_PREDICTED,
+        RIGHT_EYE_DETECTED,
+        RIGHT_EYE_PREDICTED,
+        EYES_LOST,
+        /** x, y, radius */
+        PUPIL_FOUND,
+        /** x, y, width, height of the eye */
+        PUPIL_MISSED
+    }
+
+    public static final TraceBuffer NONE = new TraceBuffer(0);
+
+    private static final int DEFAULT_CAPACITY = 4096;
+    private static final int ARGUMENTS = 4;
+    private static final Event[] EVENTS = Event.values();
+
+    private final long[] timestamps;
+    private final byte[] events;
+    private final int[] arguments;
+    private int next;
+    private long count;
+    private volatile boolean enabled;
+
+    public TraceBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TraceBuffer(int capacity) {
+        timestamps = new long[capacity];
+        events = new byte[capacity];
+        arguments = new int[capacity * ARGUMENTS];
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled && timestamps.length > 0;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void event(Event event) {
+        event(event, 0, 0, 0, 0);
+    }
+
+    public void event(Event event, Rect rect) {
+        if (enabled) {
+            event(event, rect.x, rect.y, rect.width, rect.height);
+        }
+    }
+
+    public void event(Event event, Circle circle) {
+        if (enabled) {
+            event(event, circle.center.x, circle.center.y, circle.radius, 0);
+        }
+    }
+
+    public void event(Event event, int a, int b, int c, int d) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        // stages of a pipelined processor trace from their own threads
+        synchronized (this) {
+            int i = next;
+            timestamps[i] = now;
+            events[i] = (byte) event.ordinal();
+            int offset = i * ARGUMENTS;
+            arguments[offset] = a;
+            arguments[offset + 1] = b;
+            arguments[offset + 2] = c;
+            arguments[offset + 3] = d;
+            next = (i + 1) % timestamps.length;
+            count++;
+        }
+    }
+
+    /**
+     * @return the number of events traced since the last {@link #clear()}, including overwritten ones
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized void clear() {
+        next = 0;
+        count = 0;
+    }
+
+    /**
+     * Writes the events still in the ring, oldest first, with times relative to the oldest one.
+     */
+    public synchronized void writeCsv(Appendable out) throws IOException {
+        out.append("time_ms,event,a,b,c,d\n");
+        int size = (int) Math.min(count, timestamps.length);
+        int first = (next - size + timestamps.length) % Math.max(timestamps.length, 1);
+        for (int n = 0; n < size; n++) {
+            int i = (first + n) % timestamps.length;
+            int offset = i * ARGUMENTS;
+            out.append(String.format(Locale.US, "%.3f,%s,%d,%d,%d,%d%n",
+                    (timestamps[i] - timestamps[first]) / 1e6,
+                    EVENTS[events[i]].name().toLowerCase(Locale.US),
+                    arguments[offset],
+                    arguments[offset + 1],
+                    arguments[offset + 2],
+                    arguments[offset + 3]));
+        }
+    }
+}
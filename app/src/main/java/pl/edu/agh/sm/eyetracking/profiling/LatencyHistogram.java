@@ -0,0 +1,66 @@
+package pl.edu.agh.sm.eyetracking.profiling;
+
+/**
+ * Fixed-bucket latency histogram, 0.1 ms wide buckets up to 200 ms.
+ * Recording does not allocate. Stages running in parallel record to the same histogram,
+ * so recording is synchronized; reads are approximate.
+ */
+public class LatencyHistogram {
+
+    private static final long BUCKET_NANOS = 100_000;
+    private static final int BUCKETS = 2000;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    public synchronized void record(long nanos) {
+        int bucket = (int) Math.min(nanos / BUCKET_NANOS, BUCKETS - 1);
+        counts[bucket]++;
+        count++;
+        totalNanos += nanos;
+        if (nanos > maxNanos) {
+            maxNanos = nanos;
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanMillis() {
+        return count == 0 ? 0 : totalNanos / 1e6 / count;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos / 1e6;
+    }
+
+    /**
+     * @return upper bound of the bucket holding the given percentile, in milliseconds
+     */
+    public double getPercentileMillis(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(percentile / 100 * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return (i + 1) * BUCKET_NANOS / 1e6;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = 0;
+        }
+        count = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+}
@@ -0,0 +1,158 @@
+package pl.edu.agh.sm.eyetracking.profiling;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Per-stage latency histograms and frame rates of the tracking loop.
+ * Timing a stage is two {@link System#nanoTime()} calls and a histogram update, without allocation.
+ * <pre>
+ * long start = profiler.start();
+ * ...
+ * profiler.stop(StageProfiler.Stage.FACE_CASCADE, start);
+ * </pre>
+ */
+public class StageProfiler {
+
+    public enum Stage {
+        GRAY,
+        RGBA,
+        RESIZE,
+        FACE_CASCADE,
+        EYE_CASCADE,
+        PUPIL_HISTOGRAM,
+        PUPIL_MORPHOLOGY,
+        BLOB,
+        DARK_REGION,
+        DRAW,
+        FRAME
+    }
+
+    // what NONE reports for every stage, never recorded to since NONE cannot be enabled
+    private static final LatencyHistogram EMPTY = new LatencyHistogram();
+
+    public static final StageProfiler NONE = new StageProfiler(false);
+
+    private static final double[] PERCENTILES = {50, 95, 99};
+    private static final double FPS_SMOOTHING = 0.1;
+
+    private final LatencyHistogram[] histograms;
+    private final RateMeter previewRate = new RateMeter();
+    private final RateMeter detectionRate = new RateMeter();
+    private volatile boolean enabled;
+
+    public StageProfiler() {
+        this(true);
+    }
+
+    private StageProfiler(boolean enabled) {
+        this.enabled = enabled;
+        histograms = new LatencyHistogram[enabled ? Stage.values().length : 0];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public void stop(Stage stage, long start) {
+        if (!enabled || start == 0) {
+            return;
+        }
+        histograms[stage.ordinal()].record(System.nanoTime() - start);
+    }
+
+    public void previewFrameCompleted() {
+        if (enabled) {
+            previewRate.tick(System.nanoTime());
+        }
+    }
+
+    public void detectionCompleted() {
+        if (enabled) {
+            detectionRate.tick(System.nanoTime());
+        }
+    }
+
+    public LatencyHistogram get(Stage stage) {
+        return histograms.length == 0 ? EMPTY : histograms[stage.ordinal()];
+    }
+
+    public double getPreviewFps() {
+        return previewRate.fps;
+    }
+
+    public double getDetectionFps() {
+        return detectionRate.fps;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled && this != NONE;
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        previewRate.reset();
+        detectionRate.reset();
+    }
+
+    public void appendSummary(StringBuilder out) {
+        out.append(String.format(Locale.US, "preview %.1f fps, detection %.1f fps%n",
+                getPreviewFps(), getDetectionFps()));
+        out.append("stage            p50    p95    p99 [ms]\n");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = get(stage);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            out.append(String.format(Locale.US, "%-15s %5.1f  %5.1f  %5.1f%n",
+                    stage.name().toLowerCase(Locale.US),
+                    histogram.getPercentileMillis(PERCENTILES[0]),
+                    histogram.getPercentileMillis(PERCENTILES[1]),
+                    histogram.getPercentileMillis(PERCENTILES[2])));
+        }
+    }
+
+    public void writeCsv(Appendable out) throws IOException {
+        out.append("stage,count,mean_ms,p50_ms,p95_ms,p99_ms,max_ms\n");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = get(stage);
+            out.append(String.format(Locale.US, "%s,%d,%.3f,%.1f,%.1f,%.1f,%.3f%n",
+                    stage.name().toLowerCase(Locale.US),
+                    histogram.getCount(),
+                    histogram.getMeanMillis(),
+                    histogram.getPercentileMillis(PERCENTILES[0]),
+                    histogram.getPercentileMillis(PERCENTILES[1]),
+                    histogram.getPercentileMillis(PERCENTILES[2]),
+                    histogram.getMaxMillis()));
+        }
+        out.append(String.format(Locale.US, "preview_fps,,%.2f,,,,%n", getPreviewFps()));
+        out.append(String.format(Locale.US, "detection_fps,,%.2f,,,,%n", getDetectionFps()));
+    }
+
+    private static class RateMeter {
+        long lastTick;
+        volatile double fps;
+
+        void tick(long now) {
+            if (lastTick != 0 && now > lastTick) {
+                double current = 1e9 / (now - lastTick);
+                fps = fps == 0 ? current : fps + FPS_SMOOTHING * (current - fps);
+            }
+            lastTick = now;
+        }
+
+        void reset() {
+            lastTick = 0;
+            fps = 0;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package pl.edu.agh.sm.eyetracking.source;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Surface;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import pl.edu.agh.sm.eyetracking.logging.Logger;
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+/**
+ * Front camera frames from Camera2 in the {@code YUV_420_888} format. The gray Mat of a frame
+ * is a view of the Y plane, without any copy or color conversion. The camera can also draw
+ * its own preview into a {@link Surface}, which costs no processing at all.
+ * <p>
+ * {@link #nextFrame()} blocks until a frame arrives and always returns the latest one,
+ * older frames are dropped. A frame stays valid until the next call. To stop a thread blocked
+ * in {@link #nextFrame()}, interrupt it and close the source afterwards.
+ */
+@RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+public class Camera2FrameSource implements FrameSource {
+
+    private static final String TAG = Camera2FrameSource.class.getCanonicalName();
+    // one image being processed, one being filled and one ready, as acquireLatestImage needs
+    private static final int MAX_IMAGES = 3;
+
+    private final CameraManager cameraManager;
+    private final String cameraId;
+    private final Size frameSize;
+    private Surface previewSurface;
+
+    private HandlerThread cameraThread;
+    private Handler cameraHandler;
+    private ImageReader reader;
+    private CameraDevice camera;
+    private CameraCaptureSession session;
+
+    private final Object lock = new Object();
+    private boolean imageAvailable;
+    private boolean opened;
+    private IOException failure;
+
+    private Image image;
+    private final YuvFrame frame = new YuvFrame();
+
+    /**
+     * Chooses the front camera and its output size closest to {@code preferredSize}.
+     */
+    public Camera2FrameSource(Context context, Size preferredSize) throws IOException {
+        cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        try {
+            cameraId = findFrontCamera();
+            frameSize = chooseSize(cameraId, preferredSize);
+        } catch (CameraAccessException e) {
+            throw new IOException("Camera not accessible", e);
+        }
+    }
+
+    private String findFrontCamera() throws CameraAccessException, IOException {
+        for (String id : cameraManager.getCameraIdList()) {
+            Integer facing = cameraManager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT) {
+                return id;
+            }
+        }
+        throw new IOException("No front camera");
+    }
+
+    private Size chooseSize(String id, Size preferredSize) throws CameraAccessException, IOException {
+        StreamConfigurationMap map = cameraManager.getCameraCharacteristics(id)
+                .get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map == null) {
+            throw new IOException("No stream configurations of camera " + id);
+        }
+        android.util.Size best = null;
+        long bestDifference = Long.MAX_VALUE;
+        for (android.util.Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+            long difference = Math.abs((long) size.getWidth() * size.getHeight()
+                    - (long) preferredSize.width * preferredSize.height);
+            if (difference < bestDifference) {
+                best = size;
+                bestDifference = difference;
+            }
+        }
+        if (best == null) {
+            throw new IOException("No YUV output of camera " + id);
+        }
+        return new Size(best.getWidth(), best.getHeight());
+    }
+
+    /**
+     * The camera also draws its preview into {@code surface}, which must have the frame size.
+     * Call before {@link #start()}.
+     */
+    public void setPreviewSurface(Surface surface) {
+        previewSurface = surface;
+    }
+
+    /**
+     * Opens the camera and starts the repeating capture. Blocks until the capture session is configured.
+     */
+    public void start() throws IOException {
+        cameraThread = new HandlerThread("Camera2FrameSource");
+        cameraThread.start();
+        cameraHandler = new Handler(cameraThread.getLooper());
+
+        reader = ImageReader.newInstance(frameSize.width, frameSize.height, ImageFormat.YUV_420_888, MAX_IMAGES);
+        reader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                synchronized (lock) {
+                    imageAvailable = true;
+                    lock.notifyAll();
+                }
+            }
+        }, cameraHandler);
+
+        try {
+            cameraManager.openCamera(cameraId, stateCallback, cameraHandler);
+        } catch (CameraAccessException | SecurityException e) {
+            close();
+            throw new IOException("Could not open camera " + cameraId, e);
+        }
+
+        synchronized (lock) {
+            try {
+                while (!opened && failure == null) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new InterruptedIOException("Interrupted while opening camera " + cameraId);
+            }
+            if (failure != null) {
+                IOException cause = failure;
+                close();
+                throw cause;
+            }
+        }
+        if (Logger.DEBUG && Logger.isLoggable(Logger.Level.DEBUG)) {
+            Logger.d(TAG, "Camera " + cameraId + " started at " + frameSize);
+        }
+    }
+
+    private final CameraDevice.StateCallback stateCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(CameraDevice cameraDevice) {
+            camera = cameraDevice;
+            List<Surface> targets = new ArrayList<>();
+            targets.add(reader.getSurface());
+            if (previewSurface != null) {
+                targets.add(previewSurface);
+            }
+            try {
+                camera.createCaptureSession(targets, sessionCallback, cameraHandler);
+            } catch (CameraAccessException e) {
+                fail(new IOException("Could not create capture session", e));
+            }
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice cameraDevice) {
+            cameraDevice.close();
+            camera = null;
+            fail(new IOException("Camera disconnected"));
+        }
+
+        @Override
+        public void onError(CameraDevice cameraDevice, int error) {
+            cameraDevice.close();
+            camera = null;
+            fail(new IOException("Camera error " + error));
+        }
+    };
+
+    private final CameraCaptureSession.StateCallback sessionCallback = new CameraCaptureSession.StateCallback() {
+        @Override
+        public void onConfigured(CameraCaptureSession captureSession) {
+            if (camera == null) {
+                return;
+            }
+            session = captureSession;
+            try {
+                CaptureRequest.Builder request = camera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+                request.addTarget(reader.getSurface());
+                if (previewSurface != null) {
+                    request.addTarget(previewSurface);
+                }
+                session.setRepeatingRequest(request.build(), null, cameraHandler);
+            } catch (CameraAccessException e) {
+                fail(new IOException("Could not start capture", e));
+                return;
+            }
+            synchronized (lock) {
+                opened = true;
+                lock.notifyAll();
+            }
+        }
+
+        @Override
+        public void onConfigureFailed(CameraCaptureSession captureSession) {
+            fail(new IOException("Capture session configuration failed"));
+        }
+    };
+
+    private void fail(IOException e) {
+        Logger.e(TAG, "Camera " + cameraId + " failed", e);
+        synchronized (lock) {
+            failure = e;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public Size getFrameSize() {
+        return frameSize;
+    }
+
+    @Override
+    public CameraFrame nextFrame() throws IOException {
+        while (true) {
+            synchronized (lock) {
+                try {
+                    while (!imageAvailable && failure == null) {
+                        lock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a frame");
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                imageAvailable = false;
+            }
+
+            // the processed image is released first, so the reader has one to spare
+            if (image != null) {
+                image.close();
+                image = null;
+            }
+            Image latest = reader.acquireLatestImage();
+            if (latest == null) {
+                continue;
+            }
+            image = latest;
+
+            Image.Plane[] planes = image.getPlanes();
+            frame.set(image.getWidth(), image.getHeight(),
+                    planes[0].getBuffer(), planes[0].getRowStride(),
+                    planes[1].getBuffer(), planes[2].getBuffer(),
+                    planes[1].getRowStride(), planes[1].getPixelStride());
+            return frame;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        if (camera != null) {
+            camera.close();
+            camera = null;
+        }
+        if (image != null) {
+            image.close();
+            image = null;
+        }
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+        if (cameraThread != null) {
+            cameraThread.quitSafely();
+            cameraThread = null;
+            cameraHandler = null;
+        }
+        frame.release();
+        synchronized (lock) {
+            opened = false;
+            imageAvailable = false;
+            failure = null;
+        }
+    }
+}
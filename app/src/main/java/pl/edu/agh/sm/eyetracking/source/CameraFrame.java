@@ -0,0 +1,14 @@
+package pl.edu.agh.sm.eyetracking.source;
+
+import org.opencv.core.Mat;
+
+/**
+ * A single frame delivered by a {@link FrameSource}, in the spirit of OpenCV's CvCameraViewFrame.
+ * Returned Mats are owned by the source and stay valid until the next frame is requested.
+ */
+public interface CameraFrame {
+
+    Mat gray();
+
+    Mat rgba();
+}
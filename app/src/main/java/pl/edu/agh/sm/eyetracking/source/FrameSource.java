@@ -0,0 +1,16 @@
+package pl.edu.agh.sm.eyetracking.source;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+public interface FrameSource extends Closeable {
+
+    Size getFrameSize();
+
+    /**
+     * @return the next frame, or null when the source is exhausted
+     */
+    CameraFrame nextFrame() throws IOException;
+}
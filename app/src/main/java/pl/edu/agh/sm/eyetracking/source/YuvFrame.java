@@ -0,0 +1,174 @@
+package pl.edu.agh.sm.eyetracking.source;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frame backed by the planes of a YUV 4:2:0 image, as delivered by an {@code ImageReader}
+ * in the {@code YUV_420_888} format. The gray Mat wraps the Y plane without copying it,
+ * the RGBA Mat is converted only when asked for, at most once per frame.
+ * The planes must stay valid until the next call to {@link #set}.
+ */
+public class YuvFrame implements CameraFrame {
+
+    private int width;
+    private int height;
+    private ByteBuffer yPlane;
+    private int yRowStride;
+    private ByteBuffer uPlane;
+    private ByteBuffer vPlane;
+    private int uvRowStride;
+    private int uvPixelStride;
+
+    private Mat gray;
+    // headers over the Y plane, ImageReader hands out new plane buffers with every image
+    private Mat wrappedPlane;
+    private Mat wrappedGray;
+    private Mat copiedGray;
+    private byte[] nv21 = new byte[0];
+    private Mat nv21Mat;
+    private Mat rgba;
+    private boolean rgbaConverted;
+
+    public void set(int width, int height,
+                    ByteBuffer yPlane, int yRowStride,
+                    ByteBuffer uPlane, ByteBuffer vPlane, int uvRowStride, int uvPixelStride) {
+        this.width = width;
+        this.height = height;
+        this.yPlane = yPlane;
+        this.yRowStride = yRowStride;
+        this.uPlane = uPlane;
+        this.vPlane = vPlane;
+        this.uvRowStride = uvRowStride;
+        this.uvPixelStride = uvPixelStride;
+        releaseWrapped();
+        gray = null;
+        rgbaConverted = false;
+    }
+
+    @Override
+    public Mat gray() {
+        if (gray == null) {
+            gray = wrapYPlane();
+        }
+        return gray;
+    }
+
+    private Mat wrapYPlane() {
+        // the last row may end right after its last pixel, without the row padding,
+        // which only the submat below ever reads
+        if (!yPlane.isDirect() || yPlane.capacity() < (height - 1) * yRowStride + width) {
+            return copyYPlane();
+        }
+        wrappedPlane = new Mat(height, yRowStride, CvType.CV_8UC1, yPlane);
+        wrappedGray = yRowStride == width ? wrappedPlane : wrappedPlane.submat(0, height, 0, width);
+        return wrappedGray;
+    }
+
+    private void releaseWrapped() {
+        if (wrappedGray != null && wrappedGray != wrappedPlane) {
+            wrappedGray.release();
+        }
+        if (wrappedPlane != null) {
+            wrappedPlane.release();
+        }
+        wrappedGray = null;
+        wrappedPlane = null;
+    }
+
+    private Mat copyYPlane() {
+        if (copiedGray == null || copiedGray.cols() != width || copiedGray.rows() != height) {
+            if (copiedGray != null) {
+                copiedGray.release();
+            }
+            copiedGray = new Mat(height, width, CvType.CV_8UC1);
+        }
+        packY(ensureNv21());
+        copiedGray.put(0, 0, nv21, 0, width * height);
+        return copiedGray;
+    }
+
+    @Override
+    public Mat rgba() {
+        if (rgbaConverted) {
+            return rgba;
+        }
+        byte[] data = ensureNv21();
+        packY(data);
+        packVU(data);
+        if (nv21Mat == null || nv21Mat.cols() != width || nv21Mat.rows() != height * 3 / 2) {
+            if (nv21Mat != null) {
+                nv21Mat.release();
+            }
+            nv21Mat = new Mat(height * 3 / 2, width, CvType.CV_8UC1);
+        }
+        nv21Mat.put(0, 0, data);
+        if (rgba == null) {
+            rgba = new Mat();
+        }
+        Imgproc.cvtColor(nv21Mat, rgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+        rgbaConverted = true;
+        return rgba;
+    }
+
+    private byte[] ensureNv21() {
+        int size = width * height * 3 / 2;
+        if (nv21.length != size) {
+            nv21 = new byte[size];
+        }
+        return nv21;
+    }
+
+    private void packY(byte[] data) {
+        ByteBuffer y = yPlane.duplicate();
+        for (int row = 0; row < height; row++) {
+            y.position(row * yRowStride);
+            y.get(data, row * width, width);
+        }
+    }
+
+    private void packVU(byte[] data) {
+        int offset = width * height;
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        for (int row = 0; row < chromaHeight; row++) {
+            int rowStart = row * uvRowStride;
+            for (int column = 0; column < chromaWidth; column++) {
+                int index = rowStart + column * uvPixelStride;
+                data[offset++] = vPlane.get(index);
+                data[offset++] = uPlane.get(index);
+            }
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void release() {
+        releaseWrapped();
+        if (copiedGray != null) {
+            copiedGray.release();
+            copiedGray = null;
+        }
+        if (nv21Mat != null) {
+            nv21Mat.release();
+            nv21Mat = null;
+        }
+        if (rgba != null) {
+            rgba.release();
+            rgba = null;
+        }
+        gray = null;
+        yPlane = null;
+        uPlane = null;
+        vPlane = null;
+    }
+}
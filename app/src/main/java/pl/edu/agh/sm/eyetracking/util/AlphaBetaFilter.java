@@ -0,0 +1,58 @@
+package pl.edu.agh.sm.eyetracking.util;
+
+/**
+ * Constant velocity tracker of a single coordinate, with one frame as the time step.
+ * {@link #predict()} advances the estimate by one frame, {@link #update(double)} corrects it with a measurement.
+ */
+public class AlphaBetaFilter {
+
+    // when no measurement arrived for longer than a few skipped frames, the velocity fades out
+    // instead of carrying the estimate away
+    private static final int COAST_FRAMES = 3;
+    private static final double COAST_DAMPING = 0.7;
+
+    private final double alpha;
+    private final double beta;
+
+    private double position;
+    private double velocity;
+    private int coasting;
+
+    /**
+     * @param alpha weight of a measurement in the position, 0..1
+     * @param beta weight of a measurement in the velocity, usually well below alpha
+     */
+    public AlphaBetaFilter(double alpha, double beta) {
+        this.alpha = alpha;
+        this.beta = beta;
+    }
+
+    public void reset(double position) {
+        this.position = position;
+        velocity = 0;
+        coasting = 0;
+    }
+
+    public void predict() {
+        if (coasting >= COAST_FRAMES) {
+            velocity *= COAST_DAMPING;
+        }
+        position += velocity;
+        coasting++;
+    }
+
+    public void update(double measurement) {
+        double residual = measurement - position;
+        position += alpha * residual;
+        velocity += beta * residual;
+        coasting = 0;
+    }
+
+    public double position() {
+        return position;
+    }
+
+    public double velocity() {
+        return velocity;
+    }
+}
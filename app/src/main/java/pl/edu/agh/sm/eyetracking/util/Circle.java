@@ -2,13 +2,26 @@ package pl.edu.agh.sm.eyetracking.util;
 
 public class Circle {
     public final Point center;
-    public final int radius;
+    public int radius;
+
+    public Circle() {
+        this(new Point(0, 0), 0);
+    }
 
     public Circle(Point center, int radius) {
         this.center = center;
         this.radius = radius;
     }
 
+    public void set(int x, int y, int radius) {
+        center.set(x, y);
+        this.radius = radius;
+    }
+
+    public void set(Circle circle) {
+        set(circle.center.x, circle.center.y, circle.radius);
+    }
+
     @Override
     public String toString() {
         return "Circle{" +
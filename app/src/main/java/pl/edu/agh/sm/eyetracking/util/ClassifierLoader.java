@@ -1,46 +1,202 @@
 package pl.edu.agh.sm.eyetracking.util;
 
 import android.content.Context;
-
-import androidx.appcompat.app.AppCompatActivity;
+import android.content.pm.PackageManager;
 
 import org.opencv.objdetect.CascadeClassifier;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+
+import pl.edu.agh.sm.eyetracking.logging.Logger;
 
+/**
+ * Loads cascades from raw resources. OpenCV can only read them from files, so each cascade is
+ * copied to app storage once and reused on later launches while its copy is valid: written for
+ * the installed version of the app, and of the recorded size and checksum.
+ * <p>
+ * Copies start on background threads with {@link #prepare}, which needs no OpenCV and can run
+ * while the library is being loaded. Parsing a cascade needs the library, so {@link #loadAsync}
+ * must be called after it is loaded; it parses every cascade on a thread of its own.
+ */
 public class ClassifierLoader {
 
+    private static final String TAG = ClassifierLoader.class.getCanonicalName();
     private static final String DIRECTORY = "classifier";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Context context;
+    // copies by file name, started at most once
+    private final Map<String, Future<File>> files = new HashMap<>();
+
+    public ClassifierLoader(Context context) {
+        this.context = context;
+    }
 
-    private final AppCompatActivity activity;
+    /**
+     * Starts making a valid copy of the cascade available, without waiting for it.
+     */
+    public synchronized Future<File> prepare(final int resource, final String filename) {
+        Future<File> file = files.get(filename);
+        if (file != null) {
+            return file;
+        }
+        FutureTask<File> task = new FutureTask<>(new Callable<File>() {
+            @Override
+            public File call() throws IOException {
+                return cachedCopy(resource, filename);
+            }
+        });
+        files.put(filename, task);
+        new Thread(task, "ClassifierCopy").start();
+        return task;
+    }
 
-    public ClassifierLoader(AppCompatActivity activity) {
-        this.activity = activity;
+    /**
+     * Parses the cascade on a background thread once its copy is ready. Every call returns
+     * a new classifier, so a cascade used on two threads at once can be loaded twice.
+     */
+    public Future<CascadeClassifier> loadAsync(int resource, String filename) {
+        final Future<File> file = prepare(resource, filename);
+        FutureTask<CascadeClassifier> task = new FutureTask<>(new Callable<CascadeClassifier>() {
+            @Override
+            public CascadeClassifier call() throws IOException, InterruptedException {
+                return parse(get(file));
+            }
+        });
+        new Thread(task, "ClassifierLoad").start();
+        return task;
     }
 
     public CascadeClassifier load(int resource, String filename) throws IOException {
-        File classifierFile = copyFile(resource, filename);
-        CascadeClassifier classifier = new CascadeClassifier(classifierFile.getAbsolutePath());
-        classifier.load(classifierFile.getAbsolutePath());
+        try {
+            return get(loadAsync(resource, filename));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + filename);
+        }
+    }
+
+    /**
+     * Waits for a copy or a classifier, rethrowing the failure of its background thread.
+     */
+    public static <T> T get(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static CascadeClassifier parse(File file) throws IOException {
+        // the constructor already loads the file, a second load() would parse it again
+        CascadeClassifier classifier = new CascadeClassifier(file.getAbsolutePath());
+        if (classifier.empty()) {
+            throw new IOException("Could not load cascade " + file);
+        }
         return classifier;
     }
 
-    private File copyFile(int resource, String filename) throws IOException {
-        InputStream is = activity.getResources().openRawResource(resource);
-        File directory = activity.getDir(DIRECTORY, Context.MODE_PRIVATE);
+    private File cachedCopy(int resource, String filename) throws IOException {
+        File directory = context.getDir(DIRECTORY, Context.MODE_PRIVATE);
         File file = new File(directory, filename);
-        FileOutputStream fos = new FileOutputStream(file);
-        byte[] buffer = new byte[4096];
-        int bytesRead;
-        while ((bytesRead = is.read(buffer)) != -1) {
-            fos.write(buffer, 0, bytesRead);
-        }
-        is.close();
-        fos.close();
-        directory.delete();
+        File meta = new File(directory, filename + META_SUFFIX);
+        String version = resource + " " + appUpdateTime();
+
+        if (isValid(file, meta, version)) {
+            return file;
+        }
+        if (Logger.DEBUG && Logger.isLoggable(Logger.Level.DEBUG)) {
+            Logger.d(TAG, "Copying " + filename);
+        }
+        // the metadata is written last, so an interrupted copy is never taken as valid
+        meta.delete();
+        File temp = new File(directory, filename + TEMP_SUFFIX);
+        CRC32 checksum = new CRC32();
+        long size = copy(resource, temp, checksum);
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not rename " + temp + " to " + file);
+        }
+        try (Writer writer = new FileWriter(meta)) {
+            writer.write(version + "\n" + size + "\n" + checksum.getValue() + "\n");
+        }
         return file;
     }
+
+    private boolean isValid(File file, File meta, String version) {
+        if (!file.isFile() || !meta.isFile()) {
+            return false;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(meta))) {
+            if (!version.equals(reader.readLine())) {
+                return false;
+            }
+            long size = Long.parseLong(reader.readLine());
+            long checksum = Long.parseLong(reader.readLine());
+            return file.length() == size && checksum(file) == checksum;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private long copy(int resource, File target, CRC32 checksum) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        try (InputStream input = context.getResources().openRawResource(resource);
+             FileOutputStream output = new FileOutputStream(target)) {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+                checksum.update(buffer, 0, read);
+                size += read;
+            }
+        }
+        return size;
+    }
+
+    private static long checksum(File file) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        CRC32 checksum = new CRC32();
+        try (InputStream input = new FileInputStream(file)) {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                checksum.update(buffer, 0, read);
+            }
+        }
+        return checksum.getValue();
+    }
+
+    /**
+     * Changes whenever the app and so its resources are updated.
+     */
+    private long appUpdateTime() {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
 }
@@ -0,0 +1,111 @@
+package pl.edu.agh.sm.eyetracking.util;
+
+/**
+ * Runs a fixed task on a worker thread of its own while the caller does other work:
+ * <pre>
+ * task.fork();
+ * ... // the other half of the work
+ * task.join();
+ * </pre>
+ * The thread is started once and reused, so forking does not allocate. Everything written
+ * before {@link #fork()} is visible to the task, and everything the task wrote is visible after {@link #join()}.
+ */
+public class ForkedTask {
+
+    private final Runnable task;
+    private final Thread thread;
+
+    private boolean forked;
+    private boolean running;
+    private boolean closed;
+    private RuntimeException failure;
+
+    public ForkedTask(String name, Runnable task) {
+        this.task = task;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void work() {
+        while (true) {
+            synchronized (this) {
+                while (!forked && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                forked = false;
+                running = true;
+            }
+
+            RuntimeException error = null;
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                error = e;
+            }
+
+            synchronized (this) {
+                running = false;
+                failure = error;
+                notifyAll();
+            }
+        }
+    }
+
+    public synchronized void fork() {
+        if (closed || forked || running) {
+            throw new IllegalStateException("Task " + thread.getName() + " cannot be forked");
+        }
+        forked = true;
+        notifyAll();
+    }
+
+    /**
+     * Waits for the forked task, rethrowing what it threw.
+     */
+    public synchronized void join() {
+        boolean interrupted = false;
+        // the caller's data is in use by the task, so the wait is not cut short by an interrupt
+        while (forked || running) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            RuntimeException error = failure;
+            failure = null;
+            throw error;
+        }
+    }
+
+    /**
+     * Stops the thread once a forked task is done.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            join();
+            closed = true;
+            notifyAll();
+        }
+    }
+}
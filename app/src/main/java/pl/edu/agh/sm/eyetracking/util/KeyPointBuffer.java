@@ -0,0 +1,41 @@
+package pl.edu.agh.sm.eyetracking.util;
+
+import org.opencv.core.MatOfKeyPoint;
+
+/**
+ * Reusable view of key points stored in a MatOfKeyPoint, read without allocating KeyPoint objects.
+ */
+public class KeyPointBuffer {
+
+    // x, y, size, angle, response, octave, class_id
+    private static final int CHANNELS = 7;
+
+    private float[] data = new float[CHANNELS * 16];
+    private int count;
+
+    public void read(MatOfKeyPoint keyPoints) {
+        count = (int) keyPoints.total();
+        if (data.length < CHANNELS * count) {
+            data = new float[CHANNELS * count];
+        }
+        if (count > 0) {
+            keyPoints.get(0, 0, data);
+        }
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public float x(int i) {
+        return data[CHANNELS * i];
+    }
+
+    public float y(int i) {
+        return data[CHANNELS * i + 1];
+    }
+
+    public float size(int i) {
+        return data[CHANNELS * i + 2];
+    }
+}
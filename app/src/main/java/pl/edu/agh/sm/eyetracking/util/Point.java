@@ -1,18 +1,29 @@
 package pl.edu.agh.sm.eyetracking.util;
 
 public class Point {
-    public final int x;
-    public final int y;
+    public int x;
+    public int y;
 
     public Point(int x, int y) {
         this.x = x;
         this.y = y;
     }
 
+    public void set(int x, int y) {
+        this.x = x;
+        this.y = y;
+    }
+
     public org.opencv.core.Point toOpenCV() {
         return new org.opencv.core.Point(x, y);
     }
 
+    public org.opencv.core.Point toOpenCV(org.opencv.core.Point out) {
+        out.x = x;
+        out.y = y;
+        return out;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
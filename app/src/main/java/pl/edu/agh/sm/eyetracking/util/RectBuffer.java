@@ -0,0 +1,46 @@
+package pl.edu.agh.sm.eyetracking.util;
+
+import org.opencv.core.MatOfRect;
+
+/**
+ * Reusable view of detections stored in a MatOfRect, read without allocating Rect objects.
+ */
+public class RectBuffer {
+
+    private int[] data = new int[4 * 16];
+    private int count;
+
+    public void read(MatOfRect rects) {
+        count = (int) rects.total();
+        if (data.length < 4 * count) {
+            data = new int[4 * count];
+        }
+        if (count > 0) {
+            rects.get(0, 0, data);
+        }
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int x(int i) {
+        return data[4 * i];
+    }
+
+    public int y(int i) {
+        return data[4 * i + 1];
+    }
+
+    public int width(int i) {
+        return data[4 * i + 2];
+    }
+
+    public int height(int i) {
+        return data[4 * i + 3];
+    }
+
+    public int area(int i) {
+        return width(i) * height(i);
+    }
+}
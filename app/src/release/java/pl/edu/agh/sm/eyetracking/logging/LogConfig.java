@@ -0,0 +1,12 @@
+package pl.edu.agh.sm.eyetracking.logging;
+
+/**
+ * Logging switches of the release build.
+ */
+final class LogConfig {
+
+    static final boolean DEBUG_LOGGING = false;
+
+    private LogConfig() {
+    }
+}
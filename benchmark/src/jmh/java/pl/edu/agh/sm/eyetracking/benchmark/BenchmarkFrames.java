@@ -0,0 +1,120 @@
+package pl.edu.agh.sm.eyetracking.benchmark;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import nu.pattern.OpenCV;
+import pl.edu.agh.sm.eyetracking.FramePyramid;
+import pl.edu.agh.sm.eyetracking.source.CameraFrame;
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+/**
+ * Input frame shared by the benchmarks, scaled to each benchmarked camera resolution.
+ * The frame is read from the file given by the {@code benchmark.frame} system property.
+ * Without it a deterministic synthetic face is drawn, so results stay comparable between runs.
+ * Face and eye ROIs are fixed fractions of the frame, as detected on a typical recording.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkFrames {
+
+    @Param({"320x240", "640x480", "1280x720"})
+    public String resolution;
+
+    public Size frameSize;
+    public Mat gray;
+    public Mat rgba;
+    public CameraFrame frame;
+    public FramePyramid pyramid;
+
+    public Rect faceROI;
+    public Rect leftEyeROI;
+    public Rect rightEyeROI;
+
+    @Setup
+    public void setUp() {
+        OpenCV.loadLocally();
+
+        String[] dimensions = resolution.split("x");
+        frameSize = new Size(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]));
+
+        Mat source = readSource();
+        gray = new Mat();
+        Imgproc.resize(source, gray, frameSize.toOpenCV(), 0, 0, Imgproc.INTER_AREA);
+        source.release();
+        rgba = new Mat();
+        Imgproc.cvtColor(gray, rgba, Imgproc.COLOR_GRAY2RGBA);
+
+        frame = new CameraFrame() {
+            @Override
+            public Mat gray() {
+                return gray;
+            }
+
+            @Override
+            public Mat rgba() {
+                return rgba;
+            }
+        };
+        pyramid = new FramePyramid(frameSize);
+        pyramid.update(gray);
+
+        int width = frameSize.width;
+        int height = frameSize.height;
+        faceROI = new Rect(3 * width / 8, height / 4, width / 4, width / 4);
+        leftEyeROI = new Rect(faceROI.x + faceROI.width / 8, faceROI.y + faceROI.height / 4,
+                faceROI.width / 4, faceROI.width / 4);
+        rightEyeROI = new Rect(faceROI.x + 5 * faceROI.width / 8, faceROI.y + faceROI.height / 4,
+                faceROI.width / 4, faceROI.width / 4);
+    }
+
+    private Mat readSource() {
+        String path = System.getProperty("benchmark.frame");
+        if (path != null && !path.isEmpty()) {
+            Mat image = Imgcodecs.imread(path, Imgcodecs.IMREAD_GRAYSCALE);
+            if (image.empty()) {
+                throw new IllegalArgumentException("Cannot read benchmark frame " + path);
+            }
+            return image;
+        }
+        return syntheticFace();
+    }
+
+    private static Mat syntheticFace() {
+        int width = 1280;
+        int height = 720;
+        Mat image = new Mat(height, width, CvType.CV_8UC1, new Scalar(160));
+        Mat noise = new Mat(height, width, CvType.CV_8UC1);
+        Core.setRNGSeed(42);
+        Core.randn(noise, 0, 12);
+        Core.add(image, noise, image);
+        noise.release();
+
+        Point face = new Point(width / 2.0, height / 2.0);
+        Imgproc.ellipse(image, face, new org.opencv.core.Size(150, 200), 0, 0, 360, new Scalar(200), -1);
+        for (int side = -1; side <= 1; side += 2) {
+            Point eye = new Point(face.x + side * 60, face.y - 50);
+            Imgproc.ellipse(image, eye, new org.opencv.core.Size(32, 16), 0, 0, 360, new Scalar(240), -1);
+            Imgproc.circle(image, eye, 12, new Scalar(30), -1);
+        }
+        Imgproc.GaussianBlur(image, image, new org.opencv.core.Size(5, 5), 0);
+        return image;
+    }
+
+    @TearDown
+    public void tearDown() {
+        pyramid.release();
+        rgba.release();
+        gray.release();
+    }
+}
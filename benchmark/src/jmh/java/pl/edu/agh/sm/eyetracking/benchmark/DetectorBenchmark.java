@@ -0,0 +1,100 @@
+package pl.edu.agh.sm.eyetracking.benchmark;
+
+import org.opencv.core.Rect;
+import org.opencv.objdetect.CascadeClassifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import pl.edu.agh.sm.eyetracking.TrackingResult;
+import pl.edu.agh.sm.eyetracking.detectors.CascadeBackend;
+import pl.edu.agh.sm.eyetracking.detectors.EyeDetector;
+import pl.edu.agh.sm.eyetracking.detectors.FaceDetector;
+import pl.edu.agh.sm.eyetracking.detectors.PupilDetector;
+import pl.edu.agh.sm.eyetracking.replay.Cascades;
+
+/**
+ * Whole detector calls, including the pyramid level or ROI resize each one needs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DetectorBenchmark {
+
+    @Param({"true", "false"})
+    public boolean constrained;
+
+    private FaceDetector faceDetector;
+    private EyeDetector eyeDetector;
+    private PupilDetector pupilDetector;
+
+    private final TrackingResult faceResult = new TrackingResult();
+    private final TrackingResult eyeResult = new TrackingResult();
+    private final TrackingResult pupilResult = new TrackingResult();
+
+    @Setup
+    public void setUp(BenchmarkFrames frames) throws IOException {
+        CascadeClassifier faceClassifier = Cascades.load(Cascades.FACE);
+        CascadeClassifier eyeClassifier = Cascades.load(Cascades.EYE);
+
+        faceDetector = new FaceDetector(new CascadeBackend(faceClassifier));
+        faceDetector.setTracking(constrained);
+        faceDetector.initialize(frames.frameSize);
+
+        eyeDetector = new EyeDetector(new CascadeBackend(eyeClassifier));
+        eyeDetector.setConstrainedSearch(constrained);
+        eyeDetector.initialize(frames.frameSize);
+
+        pupilDetector = new PupilDetector();
+        pupilDetector.initialize(frames.frameSize);
+
+        set(eyeResult.face, frames.faceROI);
+        eyeResult.hasFace = true;
+        set(pupilResult.leftEye, frames.leftEyeROI);
+        set(pupilResult.rightEye, frames.rightEyeROI);
+        pupilResult.hasLeftEye = true;
+        pupilResult.hasRightEye = true;
+    }
+
+    private static void set(Rect rect, Rect source) {
+        rect.x = source.x;
+        rect.y = source.y;
+        rect.width = source.width;
+        rect.height = source.height;
+    }
+
+    @Benchmark
+    public TrackingResult faceDetect(BenchmarkFrames frames) {
+        frames.pyramid.update(frames.gray);
+        faceDetector.detect(frames.pyramid, faceResult);
+        return faceResult;
+    }
+
+    @Benchmark
+    public TrackingResult eyeDetect(BenchmarkFrames frames) {
+        eyeDetector.detect(frames.pyramid, eyeResult);
+        return eyeResult;
+    }
+
+    @Benchmark
+    public TrackingResult pupilDetect(BenchmarkFrames frames) {
+        pupilDetector.detect(frames.pyramid, pupilResult);
+        return pupilResult;
+    }
+
+    @TearDown
+    public void tearDown() {
+        pupilDetector.deinitialize();
+        eyeDetector.deinitialize();
+        faceDetector.deinitialize();
+    }
+}
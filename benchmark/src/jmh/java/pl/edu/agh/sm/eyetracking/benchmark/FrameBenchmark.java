@@ -0,0 +1,54 @@
+package pl.edu.agh.sm.eyetracking.benchmark;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+import pl.edu.agh.sm.eyetracking.Frame;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameBenchmark {
+
+    @Param({"2", "4", "8"})
+    public int scale;
+
+    private Frame frame;
+
+    @Setup
+    public void setUp(BenchmarkFrames frames) {
+        frame = new Frame(frames.frameSize, scale);
+    }
+
+    @Benchmark
+    public Mat resizeFullFrame(BenchmarkFrames frames) {
+        frame.update(frames.gray);
+        return frame.get();
+    }
+
+    @Benchmark
+    public Mat resizeFaceRegion(BenchmarkFrames frames) {
+        return frame.update(frames.gray, frames.faceROI);
+    }
+
+    @Benchmark
+    public Mat pyramidLevel(BenchmarkFrames frames) {
+        frames.pyramid.update(frames.gray);
+        return frames.pyramid.get(scale);
+    }
+
+    @TearDown
+    public void tearDown() {
+        frame.release();
+    }
+}
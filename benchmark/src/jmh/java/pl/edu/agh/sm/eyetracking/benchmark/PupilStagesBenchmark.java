@@ -0,0 +1,162 @@
+package pl.edu.agh.sm.eyetracking.benchmark;
+
+import org.opencv.core.KeyPoint;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.features2d.FeatureDetector;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import pl.edu.agh.sm.eyetracking.Frame;
+import pl.edu.agh.sm.eyetracking.detectors.BlobParameters;
+import pl.edu.agh.sm.eyetracking.detectors.DarkRegionPupilLocator;
+import pl.edu.agh.sm.eyetracking.detectors.PupilKernel;
+import pl.edu.agh.sm.eyetracking.detectors.PupilLocator;
+
+/**
+ * The individual steps of the pupil chain in PupilDetector, on one eye crop.
+ * Every step reads the output of the previous one, prepared once in setup.
+ * {@link #darkRegion()} is the whole alternative locator, for comparison with the sum of the steps.
+ * {@link #pupilKernel()} is threshold to median in one native call, it needs the library built from
+ * {@code app/src/main/cpp} on {@code java.library.path}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PupilStagesBenchmark {
+
+    private static final int SCALE = 2;
+    private static final int THRESHOLD = 70;
+
+    private Frame eyeFrame;
+    private Mat eye;
+    private Mat thresholded;
+    private Mat eroded;
+    private Mat dilated;
+    private Mat blurred;
+    private Mat output;
+    private Mat kernelOutput;
+    private Mat kernel;
+    private Point anchor;
+    private MatOfKeyPoint blobs;
+    private FeatureDetector blobDetector;
+    private DarkRegionPupilLocator darkRegionLocator;
+    private KeyPoint pupil;
+    private PupilKernel pupilKernel;
+
+    @Setup
+    public void setUp(BenchmarkFrames frames) throws IOException {
+        Rect eyeROI = frames.leftEyeROI.clone();
+        eyeROI.y = eyeROI.y + eyeROI.height / 4;
+        eyeROI.height = 3 * eyeROI.height / 4;
+        eyeFrame = new Frame(frames.frameSize, SCALE);
+        eye = eyeFrame.update(frames.gray, eyeROI).clone();
+
+        kernel = new Mat();
+        anchor = new Point(-1, -1);
+        thresholded = new Mat();
+        eroded = new Mat();
+        dilated = new Mat();
+        blurred = new Mat();
+        output = new Mat();
+        blobs = new MatOfKeyPoint();
+
+        Imgproc.threshold(eye, thresholded, THRESHOLD, 255, Imgproc.THRESH_BINARY);
+        Imgproc.erode(thresholded, eroded, kernel, anchor, 2);
+        Imgproc.dilate(eroded, dilated, kernel, anchor, 4);
+        Imgproc.medianBlur(dilated, blurred, 5);
+
+        File parameters = File.createTempFile("blob_parameters", ".yml");
+        new BlobParameters().write(parameters);
+        blobDetector = FeatureDetector.create(FeatureDetector.SIMPLEBLOB);
+        blobDetector.read(parameters.getAbsolutePath());
+        parameters.delete();
+
+        darkRegionLocator = new DarkRegionPupilLocator();
+        darkRegionLocator.initialize();
+        pupil = new KeyPoint();
+        pupilKernel = new PupilKernel();
+        kernelOutput = new Mat(eye.size(), eye.type());
+    }
+
+    @Benchmark
+    public Mat threshold() {
+        Imgproc.threshold(eye, output, THRESHOLD, 255, Imgproc.THRESH_BINARY);
+        return output;
+    }
+
+    @Benchmark
+    public Mat erode() {
+        Imgproc.erode(thresholded, output, kernel, anchor, 2);
+        return output;
+    }
+
+    @Benchmark
+    public Mat dilate() {
+        Imgproc.dilate(eroded, output, kernel, anchor, 4);
+        return output;
+    }
+
+    @Benchmark
+    public Mat median() {
+        Imgproc.medianBlur(dilated, output, 5);
+        return output;
+    }
+
+    @Benchmark
+    public MatOfKeyPoint blob() {
+        blobDetector.detect(blurred, blobs);
+        return blobs;
+    }
+
+    /**
+     * A detector with default parameters created for every call, as PupilDetector used to do.
+     */
+    @Benchmark
+    public MatOfKeyPoint blobCreatedPerCall() {
+        FeatureDetector detector = FeatureDetector.create(FeatureDetector.SIMPLEBLOB);
+        detector.detect(blurred, blobs);
+        return blobs;
+    }
+
+    @Benchmark
+    public KeyPoint darkRegion() {
+        darkRegionLocator.locate(eye, PupilLocator.LEFT_EYE, pupil);
+        return pupil;
+    }
+
+    @Benchmark
+    public Mat pupilKernel() {
+        pupilKernel.apply(eye, kernelOutput, THRESHOLD);
+        return kernelOutput;
+    }
+
+    @TearDown
+    public void tearDown() {
+        darkRegionLocator.deinitialize();
+        pupilKernel.release();
+        kernelOutput.release();
+        blobs.release();
+        output.release();
+        blurred.release();
+        dilated.release();
+        eroded.release();
+        thresholded.release();
+        kernel.release();
+        eye.release();
+        eyeFrame.release();
+    }
+}
@@ -0,0 +1,70 @@
+package pl.edu.agh.sm.eyetracking.benchmark;
+
+import org.opencv.core.KeyPoint;
+import org.opencv.core.Rect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import pl.edu.agh.sm.eyetracking.CircleRegion;
+import pl.edu.agh.sm.eyetracking.SquareRegion;
+import pl.edu.agh.sm.eyetracking.util.Circle;
+import pl.edu.agh.sm.eyetracking.util.Point;
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+/**
+ * Region smoothing with inputs alternating between a small jitter and a real move.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RegionBenchmark {
+
+    private static final Size SCREEN_SIZE = new Size(640, 480);
+
+    private SquareRegion squareRegion;
+    private CircleRegion circleRegion;
+    private Rect[] faces;
+    private KeyPoint[] pupils;
+    private final Rect square = new Rect();
+    private final Circle circle = new Circle();
+    private int index;
+
+    @Setup
+    public void setUp() {
+        squareRegion = new SquareRegion(SCREEN_SIZE, new Point(320, 240), 160, 0.5, 0.1);
+        circleRegion = new CircleRegion(SCREEN_SIZE, new Point(0, 0), 10, 0.7, 0.3);
+        faces = new Rect[]{
+                new Rect(240, 160, 160, 160),
+                new Rect(244, 163, 162, 162),
+                new Rect(300, 200, 200, 200),
+                new Rect(241, 161, 158, 158),
+        };
+        pupils = new KeyPoint[]{
+                new KeyPoint(20, 12, 8),
+                new KeyPoint(21, 12, 8),
+                new KeyPoint(30, 15, 12),
+                new KeyPoint(20, 13, 9),
+        };
+    }
+
+    @Benchmark
+    public Rect squareRegionUpdate() {
+        squareRegion.predict();
+        squareRegion.update(faces[index++ & 3]);
+        return squareRegion.get(0, 0, square);
+    }
+
+    @Benchmark
+    public Circle circleRegionUpdate() {
+        circleRegion.predict();
+        circleRegion.update(pupils[index++ & 3]);
+        return circleRegion.get(0, 0, circle);
+    }
+}
@@ -0,0 +1,40 @@
+package android.util;
+
+/**
+ * Desktop stand-in for android.util.Log used by the shared app sources.
+ * Debug and info messages are printed only with -Dreplay.verbose=true.
+ */
+public final class Log {
+
+    private static final boolean VERBOSE = Boolean.getBoolean("replay.verbose");
+
+    private Log() {}
+
+    public static int d(String tag, String msg) {
+        return VERBOSE ? print("D", tag, msg) : 0;
+    }
+
+    public static int i(String tag, String msg) {
+        return VERBOSE ? print("I", tag, msg) : 0;
+    }
+
+    public static int w(String tag, String msg) {
+        return print("W", tag, msg);
+    }
+
+    public static int e(String tag, String msg) {
+        return print("E", tag, msg);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        int written = print("E", tag, msg);
+        tr.printStackTrace();
+        return written;
+    }
+
+    private static int print(String level, String tag, String msg) {
+        String line = level + "/" + tag + ": " + msg;
+        System.err.println(line);
+        return line.length();
+    }
+}
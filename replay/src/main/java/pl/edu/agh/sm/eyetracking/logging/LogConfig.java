@@ -0,0 +1,12 @@
+package pl.edu.agh.sm.eyetracking.logging;
+
+/**
+ * Logging switches of the replay, which keeps debug messages; they are printed with -Dreplay.verbose=true.
+ */
+final class LogConfig {
+
+    static final boolean DEBUG_LOGGING = true;
+
+    private LogConfig() {
+    }
+}
@@ -0,0 +1,42 @@
+package pl.edu.agh.sm.eyetracking.replay;
+
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Loads the cascades bundled from the app's res/raw directory.
+ */
+public class Cascades {
+
+    public static final String FACE = "haarcascade_frontalface_alt2.xml";
+    public static final String LBP_FACE = "lbpcascade_frontalface_improved.xml";
+    public static final String EYE = "haarcascade_eye.xml";
+
+    public static CascadeClassifier load(String name) throws IOException {
+        File file = File.createTempFile(name, null);
+        file.deleteOnExit();
+        try (InputStream is = Cascades.class.getResourceAsStream("/" + name)) {
+            if (is == null) {
+                throw new IOException("Missing cascade resource: " + name);
+            }
+            Files.copy(is, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return load(file);
+    }
+
+    /**
+     * Loads a cascade from a file, such as one trained for a particular camera.
+     */
+    public static CascadeClassifier load(File file) throws IOException {
+        CascadeClassifier classifier = new CascadeClassifier(file.getAbsolutePath());
+        if (classifier.empty()) {
+            throw new IOException("Cannot load cascade: " + file);
+        }
+        return classifier;
+    }
+}
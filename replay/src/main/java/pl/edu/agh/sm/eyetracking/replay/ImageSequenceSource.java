@@ -0,0 +1,97 @@
+package pl.edu.agh.sm.eyetracking.replay;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import pl.edu.agh.sm.eyetracking.source.CameraFrame;
+import pl.edu.agh.sm.eyetracking.source.FrameSource;
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+/**
+ * Reads a directory of PNG or JPEG frames of one resolution, in file name order.
+ */
+public class ImageSequenceSource implements FrameSource {
+
+    private final List<File> files = new ArrayList<>();
+    private final Size frameSize;
+    private int index;
+
+    private final Mat gray = new Mat();
+    private final Mat rgba = new Mat();
+    private final CameraFrame frame = new CameraFrame() {
+        @Override
+        public Mat gray() {
+            return gray;
+        }
+
+        @Override
+        public Mat rgba() {
+            return rgba;
+        }
+    };
+
+    public ImageSequenceSource(File directory) throws IOException {
+        File[] entries = directory.listFiles();
+        if (entries == null) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        for (File entry : entries) {
+            String name = entry.getName().toLowerCase();
+            if (name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+                files.add(entry);
+            }
+        }
+        if (files.isEmpty()) {
+            throw new IOException("No frames in " + directory);
+        }
+        Collections.sort(files);
+
+        Mat first = read(files.get(0));
+        frameSize = new Size(first.cols(), first.rows());
+        first.release();
+    }
+
+    @Override
+    public Size getFrameSize() {
+        return frameSize;
+    }
+
+    @Override
+    public CameraFrame nextFrame() throws IOException {
+        if (index == files.size()) {
+            return null;
+        }
+        File file = files.get(index++);
+        Mat bgr = read(file);
+        if (bgr.cols() != frameSize.width || bgr.rows() != frameSize.height) {
+            bgr.release();
+            throw new IOException("Unexpected frame size in " + file + ", expected " + frameSize);
+        }
+
+        Imgproc.cvtColor(bgr, gray, Imgproc.COLOR_BGR2GRAY);
+        Imgproc.cvtColor(bgr, rgba, Imgproc.COLOR_BGR2RGBA);
+        bgr.release();
+        return frame;
+    }
+
+    private static Mat read(File file) throws IOException {
+        Mat image = Imgcodecs.imread(file.getAbsolutePath(), Imgcodecs.IMREAD_COLOR);
+        if (image.empty()) {
+            throw new IOException("Cannot read " + file);
+        }
+        return image;
+    }
+
+    @Override
+    public void close() {
+        rgba.release();
+        gray.release();
+    }
+}
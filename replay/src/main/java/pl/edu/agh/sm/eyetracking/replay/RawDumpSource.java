@@ -0,0 +1,75 @@
+package pl.edu.agh.sm.eyetracking.replay;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import pl.edu.agh.sm.eyetracking.source.CameraFrame;
+import pl.edu.agh.sm.eyetracking.source.FrameSource;
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+/**
+ * Reads a raw dump of consecutive NV21 frames, the preview format delivered by JavaCameraView.
+ * Like on the device, the gray image is a view of the Y plane.
+ */
+public class RawDumpSource implements FrameSource {
+
+    private final Size frameSize;
+    private final DataInputStream input;
+    private final byte[] buffer;
+
+    private final Mat yuv;
+    private final Mat gray;
+    private final Mat rgba = new Mat();
+    private final CameraFrame frame = new CameraFrame() {
+        @Override
+        public Mat gray() {
+            return gray;
+        }
+
+        @Override
+        public Mat rgba() {
+            Imgproc.cvtColor(yuv, rgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+            return rgba;
+        }
+    };
+
+    public RawDumpSource(File file, Size frameSize) throws IOException {
+        this.frameSize = frameSize;
+        input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 20));
+        buffer = new byte[frameSize.width * frameSize.height * 3 / 2];
+        yuv = new Mat(frameSize.height * 3 / 2, frameSize.width, CvType.CV_8UC1);
+        gray = yuv.submat(0, frameSize.height, 0, frameSize.width);
+    }
+
+    @Override
+    public Size getFrameSize() {
+        return frameSize;
+    }
+
+    @Override
+    public CameraFrame nextFrame() throws IOException {
+        try {
+            input.readFully(buffer);
+        } catch (EOFException e) {
+            return null;
+        }
+        yuv.put(0, 0, buffer);
+        return frame;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+        rgba.release();
+        gray.release();
+        yuv.release();
+    }
+}
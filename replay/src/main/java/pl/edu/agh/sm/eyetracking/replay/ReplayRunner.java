@@ -0,0 +1,446 @@
+package pl.edu.agh.sm.eyetracking.replay;
+
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+import nu.pattern.OpenCV;
+import pl.edu.agh.sm.eyetracking.DetectorScales;
+import pl.edu.agh.sm.eyetracking.EyeSearchComparison;
+import pl.edu.agh.sm.eyetracking.EyeTrackingProcessor;
+import pl.edu.agh.sm.eyetracking.FramePyramid;
+import pl.edu.agh.sm.eyetracking.PupilLocatorComparison;
+import pl.edu.agh.sm.eyetracking.ScaleCalibration;
+import pl.edu.agh.sm.eyetracking.TrackingListener;
+import pl.edu.agh.sm.eyetracking.TrackingResult;
+import pl.edu.agh.sm.eyetracking.detectors.BlobParameters;
+import pl.edu.agh.sm.eyetracking.detectors.BlobPupilLocator;
+import pl.edu.agh.sm.eyetracking.gaze.GazeListener;
+import pl.edu.agh.sm.eyetracking.gaze.GazeSample;
+import pl.edu.agh.sm.eyetracking.gaze.GazeStream;
+import pl.edu.agh.sm.eyetracking.gaze.SessionRecorder;
+import pl.edu.agh.sm.eyetracking.source.CameraFrame;
+import pl.edu.agh.sm.eyetracking.source.FrameSource;
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+/**
+ * Feeds recorded frames through {@link EyeTrackingProcessor} and prints detected ROIs
+ * and per-stage timings.
+ *
+ * <pre>
+ * ./gradlew :replay:run --args="[options] &lt;frames directory | NV21 dump&gt;"
+ *
+ *   --raw WIDTHxHEIGHT   input is a raw NV21 dump of the given resolution
+ *   --yuv-planes         hand out the raw dump as Camera2 YUV planes, the gray image wraps the Y plane
+ *   --no-preview         skip the RGBA conversion and drawing, as with a camera drawn preview
+ *   --pipelined          run detection on the pipeline threads, total is then the latency from a frame
+ *                        to its result and frames are read as fast as the source allows, so some drop
+ *   --threshold N        pupil threshold, as set by the SeekBar in the app
+ *   --threshold-mode M   manual (default), otsu or dark_percentile
+ *   --blob-parameters F  blob detector parameters, a YAML file as read by the app
+ *   --dark-region        locate pupils as the darkest region of the eye
+ *   --target-fps N       run the face and eye cascades only as often as N fps allows
+ *   --motion-gate        reuse face and eye regions in frames where nothing moved
+ *   --parallel-eyes      process the left and the right eye at the same time on two threads
+ *   --lbp-face           detect faces with the bundled LBP cascade instead of the Haar one
+ *   --face-cascade FILE  detect faces with a cascade from FILE instead of the bundled Haar one
+ *   --calibrate N        calibrate the detector scales on the first N frames, then track with them
+ *   --gaze-batch N       subscribe to the gaze stream with batches of N samples and report its delivery
+ *   --record FILE        record the gaze session to FILE and summarize it as read back
+ *   --trace FILE         write the detector trace events to FILE as CSV
+ *   --compare-eyes       also compare whole-face and constrained eye search
+ *   --compare-pupils     also compare the blob and the dark region pupil locators
+ *   --quiet              print the summary only
+ * </pre>
+ */
+public class ReplayRunner {
+
+    private static final long GAZE_BATCH_DELAY_MS = 100;
+    private static final int GAZE_CAPACITY_BATCHES = 4;
+    private static final int RECORD_BATCH = 32;
+    private static final int RECORD_CAPACITY = 4096;
+
+    private Size rawSize;
+    private boolean yuvPlanes;
+    private boolean preview = true;
+    private boolean pipelined;
+    private Integer threshold;
+    private BlobPupilLocator.ThresholdMode thresholdMode;
+    private File blobParameters;
+    private boolean darkRegion;
+    private Integer targetFps;
+    private boolean motionGate;
+    private boolean parallelEyes;
+    private File faceCascade;
+    private boolean lbpFace;
+    private Integer calibrationFrames;
+    private Integer gazeBatch;
+    private File record;
+    private File trace;
+    private boolean compareEyes;
+    private boolean comparePupils;
+    private boolean quiet;
+    private File input;
+
+    private int frames;
+    private int framesWithFace;
+    private long faceNanos;
+    private long eyesNanos;
+    private long pupilsNanos;
+    private long totalNanos;
+    // time spent in process(), on the camera thread in the app
+    private int processedFrames;
+    private long processNanos;
+    private int faceSearches;
+    private int eyeSearches;
+    private int stillFrames;
+
+    public static void main(String[] args) throws IOException {
+        ReplayRunner runner = new ReplayRunner();
+        if (!runner.parse(args)) {
+            System.err.println("usage: replay [--raw WIDTHxHEIGHT] [--yuv-planes] [--no-preview] [--pipelined]"
+                    + " [--threshold N] [--threshold-mode M]"
+                    + " [--blob-parameters FILE] [--dark-region] [--target-fps N] [--motion-gate]"
+                    + " [--parallel-eyes] [--lbp-face] [--face-cascade FILE] [--calibrate N]"
+                    + " [--gaze-batch N] [--record FILE] [--trace FILE]"
+                    + " [--compare-eyes] [--compare-pupils] [--quiet]"
+                    + " <frames directory | NV21 dump>");
+            System.exit(2);
+        }
+        OpenCV.loadLocally();
+        runner.run();
+    }
+
+    private boolean parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--raw") && i + 1 < args.length) {
+                String[] dimensions = args[++i].split("x");
+                rawSize = new Size(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]));
+            }
+            else if (arg.equals("--yuv-planes")) {
+                yuvPlanes = true;
+            }
+            else if (arg.equals("--no-preview")) {
+                preview = false;
+            }
+            else if (arg.equals("--pipelined")) {
+                pipelined = true;
+            }
+            else if (arg.equals("--threshold") && i + 1 < args.length) {
+                threshold = Integer.parseInt(args[++i]);
+            }
+            else if (arg.equals("--threshold-mode") && i + 1 < args.length) {
+                thresholdMode = BlobPupilLocator.ThresholdMode.valueOf(args[++i].toUpperCase(Locale.US));
+            }
+            else if (arg.equals("--blob-parameters") && i + 1 < args.length) {
+                blobParameters = new File(args[++i]);
+            }
+            else if (arg.equals("--dark-region")) {
+                darkRegion = true;
+            }
+            else if (arg.equals("--target-fps") && i + 1 < args.length) {
+                targetFps = Integer.parseInt(args[++i]);
+            }
+            else if (arg.equals("--motion-gate")) {
+                motionGate = true;
+            }
+            else if (arg.equals("--parallel-eyes")) {
+                parallelEyes = true;
+            }
+            else if (arg.equals("--lbp-face")) {
+                lbpFace = true;
+            }
+            else if (arg.equals("--face-cascade") && i + 1 < args.length) {
+                faceCascade = new File(args[++i]);
+            }
+            else if (arg.equals("--calibrate") && i + 1 < args.length) {
+                calibrationFrames = Integer.parseInt(args[++i]);
+            }
+            else if (arg.equals("--gaze-batch") && i + 1 < args.length) {
+                gazeBatch = Integer.parseInt(args[++i]);
+            }
+            else if (arg.equals("--record") && i + 1 < args.length) {
+                record = new File(args[++i]);
+            }
+            else if (arg.equals("--trace") && i + 1 < args.length) {
+                trace = new File(args[++i]);
+            }
+            else if (arg.equals("--compare-eyes")) {
+                compareEyes = true;
+            }
+            else if (arg.equals("--compare-pupils")) {
+                comparePupils = true;
+            }
+            else if (arg.equals("--quiet")) {
+                quiet = true;
+            }
+            else if (!arg.startsWith("--") && input == null) {
+                input = new File(arg);
+            }
+            else {
+                return false;
+            }
+        }
+        return input != null && (!yuvPlanes || rawSize != null);
+    }
+
+    private void run() throws IOException {
+        CascadeClassifier faceClassifier = faceCascade != null
+                ? Cascades.load(faceCascade)
+                : Cascades.load(lbpFace ? Cascades.LBP_FACE : Cascades.FACE);
+        CascadeClassifier eyeClassifier = Cascades.load(Cascades.EYE);
+        CascadeClassifier secondEyeClassifier = parallelEyes ? Cascades.load(Cascades.EYE) : null;
+
+        EyeTrackingProcessor processor = new EyeTrackingProcessor(faceClassifier, eyeClassifier, secondEyeClassifier);
+        processor.setParallelEyes(parallelEyes);
+        processor.setPipelined(pipelined);
+        if (threshold != null) {
+            processor.setThreshold(threshold);
+        }
+        if (blobParameters != null) {
+            processor.setBlobParameters(BlobParameters.read(blobParameters));
+        }
+        if (thresholdMode != null) {
+            processor.setThresholdMode(thresholdMode);
+        }
+        processor.setDarkRegionPupils(darkRegion);
+        processor.setScheduledDetection(targetFps != null);
+        if (targetFps != null) {
+            processor.setTargetFps(targetFps);
+        }
+        processor.setMotionGate(motionGate);
+        processor.setPreview(preview);
+        processor.getTrace().setEnabled(trace != null);
+        if (pipelined) {
+            // results complete on the last pipeline thread, not in process()
+            processor.setTrackingListener(new TrackingListener() {
+                @Override
+                public void onTrackingStarted(Size frameSize) {}
+
+                @Override
+                public void onTrackingResult(TrackingResult result) {
+                    record(result, System.nanoTime() - result.timestampNanos);
+                }
+
+                @Override
+                public void onTrackingStopped() {}
+            });
+        }
+        if (calibrationFrames != null) {
+            processor.setCalibrationListener(new ScaleCalibration.Listener() {
+                @Override
+                public void onCalibrated(DetectorScales scales, String report) {
+                    System.out.println("calibrated: " + report);
+                }
+            });
+            processor.calibrate(calibrationFrames);
+        }
+
+        GazeStatistics gazeStatistics = null;
+        GazeStream.Subscription gazeSubscription = null;
+        if (gazeBatch != null) {
+            gazeStatistics = new GazeStatistics();
+            gazeSubscription = processor.getGazeStream().subscribe(gazeStatistics, gazeBatch,
+                    GAZE_BATCH_DELAY_MS, GAZE_CAPACITY_BATCHES * gazeBatch, GazeStream.OverflowPolicy.DROP_OLDEST);
+        }
+        SessionRecorder recorder = null;
+        GazeStream.Subscription recordSubscription = null;
+        if (record != null) {
+            recorder = new SessionRecorder(record);
+            recordSubscription = processor.getGazeStream().subscribe(recorder, RECORD_BATCH,
+                    GAZE_BATCH_DELAY_MS, RECORD_CAPACITY, GazeStream.OverflowPolicy.DROP_OLDEST);
+        }
+
+        try (FrameSource source = openSource()) {
+            Size frameSize = source.getFrameSize();
+            processor.start(frameSize);
+
+            FramePyramid pyramid = new FramePyramid(frameSize);
+            EyeSearchComparison comparison = null;
+            if (compareEyes) {
+                comparison = new EyeSearchComparison(eyeClassifier, frameSize);
+            }
+            PupilLocatorComparison pupilComparison = null;
+            if (comparePupils) {
+                pupilComparison = new PupilLocatorComparison(frameSize);
+                if (threshold != null) {
+                    pupilComparison.setThreshold(threshold);
+                }
+                if (thresholdMode != null) {
+                    pupilComparison.setThresholdMode(thresholdMode);
+                }
+            }
+
+            CameraFrame frame;
+            while ((frame = source.nextFrame()) != null) {
+                long start = System.nanoTime();
+                processor.process(frame);
+                long elapsed = System.nanoTime() - start;
+
+                TrackingResult result = processor.getLatestResult();
+                if (result == null) {
+                    // calibrating
+                    continue;
+                }
+                processedFrames++;
+                processNanos += elapsed;
+                if (!pipelined) {
+                    record(result, elapsed);
+                }
+
+                pyramid.update(frame);
+                if (comparison != null && result.hasFace) {
+                    comparison.compare(pyramid, result.face);
+                }
+                if (pupilComparison != null) {
+                    pupilComparison.compare(pyramid, result);
+                }
+            }
+
+            // waits for the frames in the pipeline stages, whose results are recorded meanwhile
+            processor.stop();
+            System.out.println("face backend " + processor.getFaceBackend() + ", " + processor.getScales());
+            printSummary(frameSize);
+            if (pipelined) {
+                System.out.println(String.format(Locale.US,
+                        "pipelined: %d frames submitted in %.2f ms on average, dropped %d, stale %d",
+                        processedFrames,
+                        processedFrames == 0 ? 0 : processNanos / 1e6 / processedFrames,
+                        processor.getDroppedFrames(),
+                        processor.getStaleFrames()));
+            }
+            if (gazeSubscription != null) {
+                gazeSubscription.close();
+                System.out.println("gaze stream: " + gazeStatistics.report(gazeSubscription));
+            }
+            if (recordSubscription != null) {
+                recordSubscription.close();
+                recorder.close();
+                System.out.println("recorded " + record + ", dropped " + recordSubscription.getDroppedSamples()
+                        + " samples: " + SessionSummary.summarize(record));
+            }
+            if (trace != null) {
+                try (Writer writer = new FileWriter(trace)) {
+                    processor.getTrace().writeCsv(writer);
+                }
+                System.out.println("traced " + processor.getTrace().getCount() + " events to " + trace);
+            }
+            StringBuilder stages = new StringBuilder();
+            processor.getProfiler().appendSummary(stages);
+            System.out.print(stages);
+            if (comparison != null) {
+                System.out.println("eye search: " + comparison.report());
+                comparison.release();
+            }
+            if (pupilComparison != null) {
+                System.out.println("pupil locators: " + pupilComparison.report());
+                pupilComparison.release();
+            }
+            pyramid.release();
+        }
+    }
+
+    private FrameSource openSource() throws IOException {
+        if (rawSize != null && yuvPlanes) {
+            return new YuvPlaneSource(input, rawSize);
+        }
+        if (rawSize != null) {
+            return new RawDumpSource(input, rawSize);
+        }
+        return new ImageSequenceSource(input);
+    }
+
+    /**
+     * Called on the last pipeline thread when pipelined, its counts are read once the pipeline is stopped.
+     */
+    private void record(TrackingResult result, long elapsed) {
+        frames++;
+        totalNanos += elapsed;
+        faceNanos += result.faceNanos;
+        eyesNanos += result.eyesNanos;
+        pupilsNanos += result.pupilsNanos;
+        if (result.hasFace) {
+            framesWithFace++;
+        }
+        if (result.faceSearched) {
+            faceSearches++;
+        }
+        if (result.eyesSearched) {
+            eyeSearches++;
+        }
+        if (result.still) {
+            stillFrames++;
+        }
+
+        if (quiet) {
+            return;
+        }
+        System.out.println(String.format(Locale.US,
+                "%5d  face %6.2f ms  eyes %6.2f ms  pupils %6.2f ms  total %6.2f ms  "
+                        + "face=%s leftEye=%s rightEye=%s leftPupil=%s rightPupil=%s",
+                result.sequence,
+                result.faceNanos / 1e6,
+                result.eyesNanos / 1e6,
+                result.pupilsNanos / 1e6,
+                elapsed / 1e6,
+                result.hasFace ? result.face : null,
+                result.hasLeftEye ? result.leftEye : null,
+                result.hasRightEye ? result.rightEye : null,
+                result.hasLeftPupil ? result.leftPupil : null,
+                result.hasRightPupil ? result.rightPupil : null));
+    }
+
+    private void printSummary(Size frameSize) {
+        if (frames == 0) {
+            System.out.println("No frames");
+            return;
+        }
+        System.out.println(String.format(Locale.US,
+                "%d frames at %s, face found in %d, face searched in %d, eyes searched in %d, still %d; "
+                        + "average face %.2f ms, eyes %.2f ms, pupils %.2f ms, total %.2f ms",
+                frames,
+                frameSize,
+                framesWithFace,
+                faceSearches,
+                eyeSearches,
+                stillFrames,
+                faceNanos / 1e6 / frames,
+                eyesNanos / 1e6 / frames,
+                pupilsNanos / 1e6 / frames,
+                totalNanos / 1e6 / frames));
+    }
+
+    private static class GazeStatistics implements GazeListener {
+        private long batches;
+        private long samples;
+        private long latencyNanos;
+        private long maxLatencyNanos;
+
+        @Override
+        public synchronized void onGazeSamples(GazeSample[] batch, int count) {
+            long now = System.nanoTime();
+            batches++;
+            for (int i = 0; i < count; i++) {
+                long latency = now - batch[i].timestampNanos;
+                samples++;
+                latencyNanos += latency;
+                maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+            }
+        }
+
+        synchronized String report(GazeStream.Subscription subscription) {
+            return String.format(Locale.US,
+                    "%d samples in %d batches, dropped %d, latency from frame: mean %.2f ms, max %.2f ms",
+                    samples,
+                    batches,
+                    subscription.getDroppedSamples(),
+                    samples == 0 ? 0 : latencyNanos / 1e6 / samples,
+                    maxLatencyNanos / 1e6);
+        }
+    }
+}
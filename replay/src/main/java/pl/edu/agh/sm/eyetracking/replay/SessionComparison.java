@@ -0,0 +1,189 @@
+package pl.edu.agh.sm.eyetracking.replay;
+
+import org.opencv.core.Rect;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import pl.edu.agh.sm.eyetracking.gaze.GazeSample;
+import pl.edu.agh.sm.eyetracking.gaze.SessionReader;
+import pl.edu.agh.sm.eyetracking.util.Circle;
+
+/**
+ * Compares a candidate gaze session with a reference one recorded from the same frames, e.g. with
+ * the LBP and the Haar face backend, and reports the accuracy and latency of the candidate.
+ * Frames are matched by sequence number.
+ * <pre>
+ * replay --record haar.gaze --quiet frames/
+ * replay --lbp-face --record lbp.gaze --quiet frames/
+ * compare haar.gaze lbp.gaze
+ * </pre>
+ */
+public class SessionComparison {
+
+    private static final double AGREEMENT_IOU = 0.5;
+
+    private final Latency referenceLatency = new Latency();
+    private final Latency candidateLatency = new Latency();
+
+    private long frames;
+    private long referenceFaces;
+    private long candidateFaces;
+    private long bothFaces;
+    private long agreedFaces;
+    private double iouSum;
+    private double centerErrorSum;
+    private long pupils;
+    private double pupilErrorSum;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: compare <reference session> <candidate session>");
+            System.exit(2);
+        }
+        System.out.println(compare(new File(args[0]), new File(args[1])));
+    }
+
+    public static String compare(File referenceFile, File candidateFile) throws IOException {
+        SessionComparison comparison = new SessionComparison();
+        GazeSample reference = new GazeSample();
+        GazeSample candidate = new GazeSample();
+        try (SessionReader referenceReader = new SessionReader(referenceFile);
+             SessionReader candidateReader = new SessionReader(candidateFile)) {
+            boolean hasReference = referenceReader.next(reference);
+            boolean hasCandidate = candidateReader.next(candidate);
+            while (hasReference && hasCandidate) {
+                if (reference.sequence < candidate.sequence) {
+                    hasReference = referenceReader.next(reference);
+                }
+                else if (candidate.sequence < reference.sequence) {
+                    hasCandidate = candidateReader.next(candidate);
+                }
+                else {
+                    comparison.add(reference, candidate);
+                    hasReference = referenceReader.next(reference);
+                    hasCandidate = candidateReader.next(candidate);
+                }
+            }
+        }
+        return comparison.report();
+    }
+
+    private void add(GazeSample reference, GazeSample candidate) {
+        frames++;
+        if (reference.faceSearched) {
+            referenceLatency.add(reference.faceNanos);
+        }
+        if (candidate.faceSearched) {
+            candidateLatency.add(candidate.faceNanos);
+        }
+        if (reference.hasFace) {
+            referenceFaces++;
+        }
+        if (candidate.hasFace) {
+            candidateFaces++;
+        }
+        if (!reference.hasFace || !candidate.hasFace) {
+            return;
+        }
+
+        bothFaces++;
+        double iou = iou(reference.face, candidate.face);
+        iouSum += iou;
+        if (iou >= AGREEMENT_IOU) {
+            agreedFaces++;
+        }
+        centerErrorSum += Math.hypot(
+                reference.face.x + reference.face.width / 2.0 - candidate.face.x - candidate.face.width / 2.0,
+                reference.face.y + reference.face.height / 2.0 - candidate.face.y - candidate.face.height / 2.0)
+                / Math.max(reference.face.width, 1);
+        if (reference.hasLeftPupil && candidate.hasLeftPupil) {
+            addPupil(reference.leftPupil, candidate.leftPupil);
+        }
+        if (reference.hasRightPupil && candidate.hasRightPupil) {
+            addPupil(reference.rightPupil, candidate.rightPupil);
+        }
+    }
+
+    private void addPupil(Circle reference, Circle candidate) {
+        pupils++;
+        pupilErrorSum += Math.hypot(reference.center.x - candidate.center.x, reference.center.y - candidate.center.y);
+    }
+
+    private static double iou(Rect a, Rect b) {
+        int width = Math.min(a.x + a.width, b.x + b.width) - Math.max(a.x, b.x);
+        int height = Math.min(a.y + a.height, b.y + b.height) - Math.max(a.y, b.y);
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        double intersection = (double) width * height;
+        return intersection / (a.area() + b.area() - intersection);
+    }
+
+    private String report() {
+        if (frames == 0) {
+            return "no common frames";
+        }
+        double referenceMean = referenceLatency.mean();
+        double candidateMean = candidateLatency.mean();
+        return String.format(Locale.US,
+                "%d common frames; face in %d reference, %d candidate, %d both, %d agreeing (IoU >= %.1f), "
+                        + "mean IoU %.2f, center error %.1f%% of face width, pupil error %.1f px in %d pupils; "
+                        + "face search reference %.2f ms (p95 %.2f) in %d, candidate %.2f ms (p95 %.2f) in %d, "
+                        + "speedup %.2fx",
+                frames,
+                referenceFaces,
+                candidateFaces,
+                bothFaces,
+                agreedFaces,
+                AGREEMENT_IOU,
+                bothFaces == 0 ? 0 : iouSum / bothFaces,
+                bothFaces == 0 ? 0 : 100 * centerErrorSum / bothFaces,
+                pupils == 0 ? 0 : pupilErrorSum / pupils,
+                pupils,
+                referenceMean,
+                referenceLatency.percentile(0.95),
+                referenceLatency.count,
+                candidateMean,
+                candidateLatency.percentile(0.95),
+                candidateLatency.count,
+                candidateMean == 0 ? 0 : referenceMean / candidateMean);
+    }
+
+    /**
+     * Face search times of one session, in frames where the face cascade was run.
+     */
+    private static class Latency {
+        private long[] nanos = new long[1024];
+        private int count;
+
+        void add(long value) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = value;
+        }
+
+        double mean() {
+            if (count == 0) {
+                return 0;
+            }
+            long sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += nanos[i];
+            }
+            return sum / 1e6 / count;
+        }
+
+        double percentile(double fraction) {
+            if (count == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            return sorted[Math.min((int) (fraction * count), count - 1)] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package pl.edu.agh.sm.eyetracking.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import pl.edu.agh.sm.eyetracking.gaze.GazeSample;
+import pl.edu.agh.sm.eyetracking.gaze.SessionReader;
+
+/**
+ * Summarizes gaze sessions recorded by the app or by the replay, optionally printing every frame.
+ * <pre>
+ * session [--frames] SESSION...
+ * </pre>
+ */
+public class SessionSummary {
+
+    public static void main(String[] args) throws IOException {
+        boolean printFrames = false;
+        int files = 0;
+        for (String arg : args) {
+            if (arg.equals("--frames")) {
+                printFrames = true;
+            }
+            else {
+                File file = new File(arg);
+                System.out.println(file + ": " + summarize(file, printFrames));
+                files++;
+            }
+        }
+        if (files == 0) {
+            System.err.println("usage: session [--frames] <gaze session>...");
+            System.exit(2);
+        }
+    }
+
+    public static String summarize(File file) throws IOException {
+        return summarize(file, false);
+    }
+
+    private static String summarize(File file, boolean printFrames) throws IOException {
+        GazeSample sample = new GazeSample();
+        long frames = 0;
+        long framesWithFace = 0;
+        long framesWithPupils = 0;
+        long faceSearches = 0;
+        long eyeSearches = 0;
+        long gaps = 0;
+        long firstTimestamp = 0;
+        long lastTimestamp = 0;
+        long lastSequence = 0;
+        double confidence = 0;
+        long faceNanos = 0;
+        long eyesNanos = 0;
+        long pupilsNanos = 0;
+
+        try (SessionReader reader = new SessionReader(file)) {
+            while (reader.next(sample)) {
+                if (frames == 0) {
+                    firstTimestamp = sample.timestampNanos;
+                }
+                else if (sample.sequence != lastSequence + 1) {
+                    gaps++;
+                }
+                frames++;
+                lastTimestamp = sample.timestampNanos;
+                lastSequence = sample.sequence;
+                if (sample.hasFace) {
+                    framesWithFace++;
+                }
+                if (sample.hasLeftPupil && sample.hasRightPupil) {
+                    framesWithPupils++;
+                }
+                if (sample.faceSearched) {
+                    faceSearches++;
+                }
+                if (sample.eyesSearched) {
+                    eyeSearches++;
+                }
+                confidence += sample.confidence;
+                faceNanos += sample.faceNanos;
+                eyesNanos += sample.eyesNanos;
+                pupilsNanos += sample.pupilsNanos;
+
+                if (printFrames) {
+                    System.out.println(String.format(Locale.US,
+                            "%5d  %10.3f s  face=%s leftPupil=%s rightPupil=%s gaze=(%.3f, %.3f) confidence=%.2f",
+                            sample.sequence,
+                            (sample.timestampNanos - firstTimestamp) / 1e9,
+                            sample.hasFace ? sample.face : null,
+                            sample.hasLeftPupil ? sample.leftPupil : null,
+                            sample.hasRightPupil ? sample.rightPupil : null,
+                            sample.gazeX,
+                            sample.gazeY,
+                            sample.confidence));
+                }
+            }
+        }
+
+        if (frames == 0) {
+            return "no frames";
+        }
+        return String.format(Locale.US,
+                "%d frames over %.2f s, %d sequence gaps, face in %d, both pupils in %d, "
+                        + "face searched in %d, eyes searched in %d, mean confidence %.2f; "
+                        + "average face %.2f ms, eyes %.2f ms, pupils %.2f ms",
+                frames,
+                (lastTimestamp - firstTimestamp) / 1e9,
+                gaps,
+                framesWithFace,
+                framesWithPupils,
+                faceSearches,
+                eyeSearches,
+                confidence / frames,
+                faceNanos / 1e6 / frames,
+                eyesNanos / 1e6 / frames,
+                pupilsNanos / 1e6 / frames);
+    }
+}
@@ -0,0 +1,88 @@
+package pl.edu.agh.sm.eyetracking.replay;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import pl.edu.agh.sm.eyetracking.source.CameraFrame;
+import pl.edu.agh.sm.eyetracking.source.FrameSource;
+import pl.edu.agh.sm.eyetracking.source.YuvFrame;
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+/**
+ * Reads a raw dump of NV21 frames and hands them out as {@link YuvFrame}s laid out like
+ * the planes of a Camera2 {@code ImageReader}: direct buffers, padded Y rows,
+ * and interleaved chroma with a pixel stride of 2 and a last row without padding.
+ */
+public class YuvPlaneSource implements FrameSource {
+
+    // row alignment of many camera HALs
+    private static final int ROW_ALIGNMENT = 64;
+
+    private final Size frameSize;
+    private final DataInputStream input;
+    private final byte[] buffer;
+    private final int rowStride;
+
+    private final ByteBuffer yPlane;
+    private final ByteBuffer vuPlane;
+    private final ByteBuffer uPlane;
+    private final ByteBuffer vPlane;
+    private final YuvFrame frame = new YuvFrame();
+
+    public YuvPlaneSource(File file, Size frameSize) throws IOException {
+        this.frameSize = frameSize;
+        input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 20));
+        buffer = new byte[frameSize.width * frameSize.height * 3 / 2];
+        rowStride = (frameSize.width + ROW_ALIGNMENT - 1) / ROW_ALIGNMENT * ROW_ALIGNMENT;
+
+        int chromaRows = frameSize.height / 2;
+        yPlane = ByteBuffer.allocateDirect((frameSize.height - 1) * rowStride + frameSize.width);
+        vuPlane = ByteBuffer.allocateDirect((chromaRows - 1) * rowStride + frameSize.width);
+        vPlane = vuPlane.duplicate();
+        vPlane.limit(vuPlane.capacity() - 1);
+        vuPlane.position(1);
+        uPlane = vuPlane.slice();
+        vuPlane.position(0);
+    }
+
+    @Override
+    public Size getFrameSize() {
+        return frameSize;
+    }
+
+    @Override
+    public CameraFrame nextFrame() throws IOException {
+        try {
+            input.readFully(buffer);
+        } catch (EOFException e) {
+            return null;
+        }
+
+        int width = frameSize.width;
+        int height = frameSize.height;
+        for (int row = 0; row < height; row++) {
+            yPlane.position(row * rowStride);
+            yPlane.put(buffer, row * width, width);
+        }
+        yPlane.clear();
+        for (int row = 0; row < height / 2; row++) {
+            vuPlane.position(row * rowStride);
+            vuPlane.put(buffer, width * height + row * width, width);
+        }
+        vuPlane.clear();
+
+        frame.set(width, height, yPlane, rowStride, uPlane, vPlane, rowStride, 2);
+        return frame;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+        frame.release();
+    }
+}
@@ -0,0 +1,149 @@
+package pl.edu.agh.sm.eyetracking;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reports stage costs to {@link DetectionScheduler} and checks the intervals it chooses
+ * for the 33 ms frame budget of 30 fps.
+ */
+public class DetectionSchedulerTest {
+
+    private final DetectionScheduler scheduler = new DetectionScheduler();
+
+    @Test
+    public void intervalsStayAtOneWithinBudget() {
+        complete(10, 10, 5);
+
+        assertEquals(1, scheduler.getFaceInterval());
+        assertEquals(1, scheduler.getEyeInterval());
+    }
+
+    @Test
+    public void costlierStageIsSkippedFirst() {
+        // 52 ms, and 32 ms with the face searched every other frame
+        complete(40, 10, 2);
+
+        assertEquals(2, scheduler.getFaceInterval());
+        assertEquals(1, scheduler.getEyeInterval());
+    }
+
+    @Test
+    public void sequentialStagesAddUp() {
+        // 30 / 3 + 30 / 2 + 5 ms
+        complete(30, 30, 5);
+
+        assertEquals(3, scheduler.getFaceInterval());
+        assertEquals(2, scheduler.getEyeInterval());
+    }
+
+    @Test
+    public void pipelinedStagesAreLimitedBySlowestOne() {
+        scheduler.setPipelined(true);
+        complete(30, 30, 5);
+
+        assertEquals(1, scheduler.getFaceInterval());
+        assertEquals(1, scheduler.getEyeInterval());
+
+        complete(30, 70, 5);
+        // the eye cost averages to 34 ms, over the budget at interval 1
+        assertEquals(1, scheduler.getFaceInterval());
+        assertEquals(2, scheduler.getEyeInterval());
+    }
+
+    @Test
+    public void intervalsStopAtMaximum() {
+        scheduler.setMaxIntervals(4, 2);
+        complete(500, 500, 0);
+
+        assertEquals(4, scheduler.getFaceInterval());
+        assertEquals(2, scheduler.getEyeInterval());
+    }
+
+    @Test
+    public void intervalsShrinkWhenCostsDrop() {
+        complete(40, 10, 2);
+        assertEquals(2, scheduler.getFaceInterval());
+
+        // the average follows the new cost a tenth of the way per frame
+        complete(20, 10, 2);
+        assertEquals(2, scheduler.getFaceInterval());
+        for (int i = 0; i < 40; i++) {
+            complete(20, 10, 2);
+        }
+        assertEquals(1, scheduler.getFaceInterval());
+    }
+
+    @Test
+    public void targetFpsSetsBudget() {
+        scheduler.setTargetFps(15);
+        complete(40, 10, 2);
+
+        assertEquals(1, scheduler.getFaceInterval());
+    }
+
+    @Test
+    public void faceRunsEveryIntervalFrames() {
+        complete(40, 10, 2);
+
+        assertTrue(scheduler.scheduleFace(0, false));
+        assertFalse(scheduler.scheduleFace(0, true));
+        assertTrue(scheduler.scheduleFace(0, true));
+        assertFalse(scheduler.scheduleFace(0, true));
+    }
+
+    @Test
+    public void faceRunsAtOnceOnMotionOrMiss() {
+        complete(40, 10, 2);
+        assertTrue(scheduler.scheduleFace(0, false));
+
+        assertTrue(scheduler.scheduleFace(0.1, true));
+        assertTrue(scheduler.scheduleFace(0, false));
+        assertFalse(scheduler.scheduleFace(0.01, true));
+    }
+
+    @Test
+    public void eyesRunWhenFaceWasSearched() {
+        complete(30, 30, 5);
+        assertTrue(scheduler.scheduleEyes(true, true));
+
+        assertFalse(scheduler.scheduleEyes(false, true));
+        assertTrue(scheduler.scheduleEyes(true, true));
+        assertTrue(scheduler.scheduleEyes(false, false));
+    }
+
+    @Test
+    public void disabledSchedulerRunsEveryStage() {
+        complete(500, 500, 0);
+        scheduler.setEnabled(false);
+
+        assertEquals(1, scheduler.getFaceInterval());
+        assertEquals(1, scheduler.getEyeInterval());
+        assertTrue(scheduler.scheduleFace(0, true));
+        assertTrue(scheduler.scheduleFace(0, true));
+        assertTrue(scheduler.scheduleEyes(false, true));
+    }
+
+    @Test
+    public void resetForgetsCosts() {
+        complete(500, 500, 0);
+        scheduler.reset();
+
+        assertEquals(1, scheduler.getFaceInterval());
+        complete(10, 10, 5);
+        assertEquals(1, scheduler.getFaceInterval());
+    }
+
+    private void complete(long faceMs, long eyesMs, long pupilsMs) {
+        TrackingResult result = new TrackingResult();
+        result.faceSearched = true;
+        result.eyesSearched = true;
+        result.faceNanos = TimeUnit.MILLISECONDS.toNanos(faceMs);
+        result.eyesNanos = TimeUnit.MILLISECONDS.toNanos(eyesMs);
+        result.pupilsNanos = TimeUnit.MILLISECONDS.toNanos(pupilsMs);
+        scheduler.completed(result);
+    }
+}
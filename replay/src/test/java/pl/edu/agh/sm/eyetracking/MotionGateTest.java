@@ -0,0 +1,129 @@
+package pl.edu.agh.sm.eyetracking;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+import nu.pattern.OpenCV;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds {@link MotionGate} a 40x30 frame of uniform gray, 1% of which is 12 pixels, and changes
+ * a few of its pixels or all of them a little.
+ */
+public class MotionGateTest {
+
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+
+    private final MotionGate gate = new MotionGate();
+    private final Mat frame = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1, new Scalar(100));
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    @After
+    public void tearDown() {
+        frame.release();
+    }
+
+    @Test
+    public void firstFrameMoves() {
+        assertFalse(gate.update(frame));
+        assertTrue(gate.update(frame));
+    }
+
+    @Test
+    public void fewChangedPixelsAreStill() {
+        gate.update(frame);
+
+        change(12, 50);
+        assertTrue(gate.update(frame));
+        change(13, 50);
+        assertFalse(gate.update(frame));
+    }
+
+    @Test
+    public void noiseIsNotChange() {
+        gate.update(frame);
+
+        Core.add(frame, new Scalar(10), frame);
+        assertTrue(gate.update(frame));
+        Core.add(frame, new Scalar(1), frame);
+        assertFalse(gate.update(frame));
+    }
+
+    @Test
+    public void changedFractionIsConfigurable() {
+        gate.setChangedFraction(0.1);
+        gate.update(frame);
+
+        change(120, 50);
+        assertTrue(gate.update(frame));
+    }
+
+    @Test
+    public void slowDriftMoves() {
+        gate.update(frame);
+
+        // 4 levels a frame stay under the noise from one frame to the next, but not from the reference
+        Core.add(frame, new Scalar(4), frame);
+        assertTrue(gate.update(frame));
+        Core.add(frame, new Scalar(4), frame);
+        assertTrue(gate.update(frame));
+        Core.add(frame, new Scalar(4), frame);
+        assertFalse(gate.update(frame));
+
+        // the moving frame is the new reference
+        Core.add(frame, new Scalar(4), frame);
+        assertTrue(gate.update(frame));
+    }
+
+    @Test
+    public void stillFramesAreCapped() {
+        gate.setMaxStillFrames(3);
+        assertFalse(gate.update(frame));
+
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(gate.update(frame));
+            }
+            assertFalse(gate.update(frame));
+        }
+    }
+
+    @Test
+    public void resetDropsReference() {
+        gate.update(frame);
+        gate.reset();
+
+        assertFalse(gate.update(frame));
+        assertTrue(gate.update(frame));
+    }
+
+    @Test
+    public void newFrameSizeDropsReference() {
+        gate.update(frame);
+        Mat smaller = new Mat(HEIGHT / 2, WIDTH / 2, CvType.CV_8UC1, new Scalar(100));
+
+        assertFalse(gate.update(smaller));
+        assertTrue(gate.update(smaller));
+        smaller.release();
+    }
+
+    /**
+     * Adds {@code difference} to the first {@code count} pixels of the frame.
+     */
+    private void change(int count, int difference) {
+        Mat pixels = frame.reshape(1, 1).colRange(0, count);
+        Core.add(pixels, new Scalar(difference), pixels);
+        pixels.release();
+    }
+}
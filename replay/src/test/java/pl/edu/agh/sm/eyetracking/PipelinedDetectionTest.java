@@ -0,0 +1,263 @@
+package pl.edu.agh.sm.eyetracking;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nu.pattern.OpenCV;
+import pl.edu.agh.sm.eyetracking.detectors.DetectorBackend;
+import pl.edu.agh.sm.eyetracking.source.CameraFrame;
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link EyeTrackingProcessor} on the pipeline threads and on the calling thread over the same
+ * frames. The backends find bright regions instead of running a cascade, so both runs are
+ * deterministic and a frame fed to the pipeline only once the previous one completed has to give
+ * the same result as in the sequential run.
+ */
+public class PipelinedDetectionTest {
+
+    private static final Size FRAME_SIZE = new Size(640, 480);
+    private static final int FRAMES = 30;
+    private static final long RESULT_TIMEOUT_MS = 5000;
+
+    private static List<Mat> frames;
+
+    @BeforeClass
+    public static void setUpFrames() {
+        OpenCV.loadLocally();
+        frames = new ArrayList<>();
+        for (int i = 0; i < FRAMES; i++) {
+            frames.add(syntheticFace(i));
+        }
+    }
+
+    @AfterClass
+    public static void releaseFrames() {
+        for (Mat frame : frames) {
+            frame.release();
+        }
+    }
+
+    @Test
+    public void pipelinedMatchesSequential() throws InterruptedException {
+        List<TrackingResult> sequential = runSequential();
+        List<TrackingResult> pipelined = runPipelined();
+
+        assertEquals(FRAMES, sequential.size());
+        assertEquals(FRAMES, pipelined.size());
+        int withEyes = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            TrackingResult expected = sequential.get(i);
+            TrackingResult actual = pipelined.get(i);
+            String frame = "frame " + i;
+            assertEquals(frame, expected.sequence, actual.sequence);
+            assertEquals(frame, expected.hasFace, actual.hasFace);
+            assertEquals(frame, expected.face, actual.face);
+            assertEquals(frame, expected.hasLeftEye, actual.hasLeftEye);
+            assertEquals(frame, expected.leftEye, actual.leftEye);
+            assertEquals(frame, expected.hasRightEye, actual.hasRightEye);
+            assertEquals(frame, expected.rightEye, actual.rightEye);
+            assertEquals(frame, expected.hasLeftPupil, actual.hasLeftPupil);
+            assertEquals(frame, expected.leftPupil.toString(), actual.leftPupil.toString());
+            assertEquals(frame, expected.hasRightPupil, actual.hasRightPupil);
+            assertEquals(frame, expected.rightPupil.toString(), actual.rightPupil.toString());
+            if (expected.hasLeftEye && expected.hasRightEye) {
+                withEyes++;
+            }
+        }
+        // the comparison says little unless the later stages had something to work on
+        assertTrue("eyes found in " + withEyes + " frames", withEyes > FRAMES / 2);
+    }
+
+    @Test
+    public void pipelinedSchedulerSeesStageCosts() throws InterruptedException {
+        EyeTrackingProcessor processor = newProcessor();
+        processor.setScheduledDetection(true);
+        // a budget no stage fits in, so both intervals grow once the last stage reports the costs
+        processor.setTargetFps(1_000_000);
+        processor.setPipelined(true);
+        List<TrackingResult> results = run(processor, true);
+
+        assertEquals(FRAMES, results.size());
+        assertTrue(processor.getScheduler().getFaceInterval() > 1);
+        assertTrue(processor.getScheduler().getEyeInterval() > 1);
+        int faceSearches = 0;
+        for (TrackingResult result : results) {
+            if (result.faceSearched) {
+                faceSearches++;
+            }
+        }
+        assertTrue("face searched in " + faceSearches + " frames", faceSearches < FRAMES);
+    }
+
+    private List<TrackingResult> runSequential() throws InterruptedException {
+        EyeTrackingProcessor processor = newProcessor();
+        processor.setPipelined(false);
+        return run(processor, false);
+    }
+
+    private List<TrackingResult> runPipelined() throws InterruptedException {
+        EyeTrackingProcessor processor = newProcessor();
+        processor.setPipelined(true);
+        return run(processor, true);
+    }
+
+    private static EyeTrackingProcessor newProcessor() {
+        EyeTrackingProcessor processor = new EyeTrackingProcessor(
+                new BrightRegionBackend(180, 20), new BrightRegionBackend(225, 4), null);
+        processor.setPreview(false);
+        processor.setScheduledDetection(false);
+        processor.setMotionGate(false);
+        return processor;
+    }
+
+    /**
+     * Feeds the frames one at a time, each once the previous one has completed.
+     */
+    private static List<TrackingResult> run(EyeTrackingProcessor processor, boolean pipelined)
+            throws InterruptedException {
+        ResultCollector collector = new ResultCollector();
+        processor.setTrackingListener(collector);
+        processor.start(FRAME_SIZE);
+        try {
+            for (int i = 0; i < FRAMES; i++) {
+                final Mat gray = frames.get(i);
+                processor.process(new CameraFrame() {
+                    @Override
+                    public Mat gray() {
+                        return gray;
+                    }
+
+                    @Override
+                    public Mat rgba() {
+                        throw new UnsupportedOperationException();
+                    }
+                });
+                if (pipelined) {
+                    assertTrue("frame " + i + " not completed", collector.await(i + 1));
+                    assertNotSame(Thread.currentThread(), collector.thread);
+                }
+            }
+        } finally {
+            processor.stop();
+        }
+        assertEquals(0, processor.getDroppedFrames());
+        assertEquals(0, processor.getStaleFrames());
+        return collector.results;
+    }
+
+    /**
+     * A face with two eyes and pupils, moving a few pixels to the right from frame to frame.
+     */
+    private static Mat syntheticFace(int i) {
+        Mat image = new Mat(FRAME_SIZE.height, FRAME_SIZE.width, CvType.CV_8UC1, new Scalar(120));
+        Mat noise = new Mat(image.size(), CvType.CV_8UC1);
+        Core.setRNGSeed(i);
+        Core.randn(noise, 0, 8);
+        Core.add(image, noise, image);
+        noise.release();
+
+        Point face = new Point(FRAME_SIZE.width / 2.0 - 30 + 2 * i, FRAME_SIZE.height / 2.0);
+        Imgproc.ellipse(image, face, new org.opencv.core.Size(75, 100), 0, 0, 360, new Scalar(200), -1);
+        for (int side = -1; side <= 1; side += 2) {
+            Point eye = new Point(face.x + side * 32, face.y - 35);
+            Imgproc.ellipse(image, eye, new org.opencv.core.Size(16, 9), 0, 0, 360, new Scalar(250), -1);
+            Imgproc.circle(image, eye, 5, new Scalar(20), -1);
+        }
+        Imgproc.GaussianBlur(image, image, new org.opencv.core.Size(3, 3), 0);
+        return image;
+    }
+
+    /**
+     * Finds the regions brighter than a level, as bounding boxes of their outer contours.
+     */
+    private static class BrightRegionBackend implements DetectorBackend {
+        private final int level;
+        private final int windowSize;
+        private final Mat mask = new Mat();
+        private final Mat hierarchy = new Mat();
+
+        BrightRegionBackend(int level, int windowSize) {
+            this.level = level;
+            this.windowSize = windowSize;
+        }
+
+        @Override
+        public Type getType() {
+            return Type.HAAR;
+        }
+
+        @Override
+        public int getWindowSize() {
+            return windowSize;
+        }
+
+        @Override
+        public void detect(Mat image, MatOfRect objects, double scaleFactor, int minNeighbors,
+                           org.opencv.core.Size minSize, org.opencv.core.Size maxSize) {
+            Imgproc.threshold(image, mask, level, 255, Imgproc.THRESH_BINARY);
+            List<MatOfPoint> contours = new ArrayList<>();
+            Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+            List<Rect> found = new ArrayList<>();
+            for (MatOfPoint contour : contours) {
+                Rect rect = Imgproc.boundingRect(contour);
+                contour.release();
+                int side = Math.max(rect.width, rect.height);
+                if (side < Math.max(minSize.width, windowSize / 2)
+                        || (maxSize.width > 0 && side > maxSize.width)) {
+                    continue;
+                }
+                found.add(rect);
+            }
+            objects.fromList(found);
+        }
+    }
+
+    private static class ResultCollector implements TrackingListener {
+        final List<TrackingResult> results = new ArrayList<>();
+        volatile Thread thread;
+
+        @Override
+        public void onTrackingStarted(Size frameSize) {}
+
+        @Override
+        public synchronized void onTrackingResult(TrackingResult result) {
+            TrackingResult copy = new TrackingResult();
+            copy.set(result);
+            results.add(copy);
+            thread = Thread.currentThread();
+            notifyAll();
+        }
+
+        @Override
+        public void onTrackingStopped() {}
+
+        synchronized boolean await(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RESULT_TIMEOUT_MS);
+            while (results.size() < count) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package pl.edu.agh.sm.eyetracking.detectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+import nu.pattern.OpenCV;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds {@link AdaptiveThreshold} eye crops of a few gray levels, whose thresholds can be worked out by hand:
+ * 10% of the pixels at 20, 30% at 120 and 60% at 200. Otsu's method splits them best above 120,
+ * the darkest 6% are already below 20.
+ */
+public class AdaptiveThresholdTest {
+
+    private static final int SIZE = 100;
+
+    private final AdaptiveThreshold threshold = new AdaptiveThreshold();
+    private final Mat eye = new Mat(SIZE, SIZE, CvType.CV_8UC1);
+    private final Mat blink = new Mat(SIZE, SIZE, CvType.CV_8UC1, new Scalar(200));
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    @Before
+    public void setUp() {
+        eye.rowRange(0, 10).setTo(new Scalar(20));
+        eye.rowRange(10, 40).setTo(new Scalar(120));
+        eye.rowRange(40, SIZE).setTo(new Scalar(200));
+    }
+
+    @After
+    public void tearDown() {
+        eye.release();
+        blink.release();
+    }
+
+    @Test
+    public void otsuSplitsDarkAndBrightPart() {
+        assertEquals(120, threshold.update(eye, AdaptiveThreshold.Method.OTSU));
+        assertEquals(120, threshold.get());
+    }
+
+    @Test
+    public void darkPercentileCoversPupil() {
+        assertEquals(20, threshold.update(eye, AdaptiveThreshold.Method.DARK_PERCENTILE));
+    }
+
+    @Test
+    public void singleOddFrameBarelyMovesThreshold() {
+        for (int i = 0; i < 10; i++) {
+            threshold.update(eye, AdaptiveThreshold.Method.DARK_PERCENTILE);
+        }
+        // a quarter of the blink goes into the histogram, 7.5% of the pixels stay at 20
+        assertEquals(20, threshold.update(blink, AdaptiveThreshold.Method.DARK_PERCENTILE));
+        // another one leaves 5.6%, below the percentile
+        assertEquals(120, threshold.update(blink, AdaptiveThreshold.Method.DARK_PERCENTILE));
+    }
+
+    @Test
+    public void firstFrameAfterResetIsNotSmoothed() {
+        threshold.update(eye, AdaptiveThreshold.Method.DARK_PERCENTILE);
+        threshold.reset();
+        assertEquals(0, threshold.get());
+
+        assertEquals(200, threshold.update(blink, AdaptiveThreshold.Method.DARK_PERCENTILE));
+    }
+
+    @Test
+    public void emptyCropKeepsThreshold() {
+        threshold.update(eye, AdaptiveThreshold.Method.OTSU);
+        Mat empty = new Mat();
+        assertEquals(120, threshold.update(empty, AdaptiveThreshold.Method.DARK_PERCENTILE));
+        empty.release();
+    }
+}
@@ -0,0 +1,186 @@
+package pl.edu.agh.sm.eyetracking.gaze;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import pl.edu.agh.sm.eyetracking.TrackingResult;
+
+import static org.junit.Assert.*;
+
+/**
+ * Publishes numbered results to {@link GazeStream} subscriptions and checks which samples
+ * the listeners get, in which batches. A listener held in its first callback lets the ring fill up.
+ */
+public class GazeStreamTest {
+
+    private static final long TIMEOUT_MS = 5000;
+    // longer than any test, so only full batches are delivered before closing
+    private static final long NO_DELAY_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private final GazeStream stream = new GazeStream();
+
+    @After
+    public void tearDown() {
+        stream.close();
+    }
+
+    @Test
+    public void deliversFullBatches() throws InterruptedException {
+        Recorder recorder = new Recorder();
+        stream.subscribe(recorder, 4, NO_DELAY_MS, 16, GazeStream.OverflowPolicy.DROP_OLDEST);
+
+        publish(0, 8);
+
+        assertTrue(recorder.await(8));
+        assertEquals(Arrays.asList(4, 4), recorder.batches);
+        assertEquals(sequences(0, 8), recorder.sequences);
+    }
+
+    @Test
+    public void deliversPartialBatchAfterDelay() throws InterruptedException {
+        Recorder recorder = new Recorder();
+        stream.subscribe(recorder, 10, 20, 16, GazeStream.OverflowPolicy.DROP_OLDEST);
+
+        publish(0, 3);
+
+        assertTrue(recorder.await(3));
+        assertEquals(Arrays.asList(3), recorder.batches);
+    }
+
+    @Test
+    public void dropOldestKeepsMostRecentSamples() throws InterruptedException {
+        Recorder recorder = new Recorder();
+        GazeStream.Subscription subscription = stream.subscribe(recorder, 1, 0, 4,
+                GazeStream.OverflowPolicy.DROP_OLDEST);
+
+        fillWhileHeld(recorder);
+
+        assertTrue(recorder.await(5));
+        assertEquals(Arrays.asList(0L, 7L, 8L, 9L, 10L), recorder.sequences);
+        assertEquals(6, subscription.getDroppedSamples());
+        assertEquals(5, subscription.getDeliveredSamples());
+    }
+
+    @Test
+    public void coalesceSkipsToNewestSample() throws InterruptedException {
+        Recorder recorder = new Recorder();
+        GazeStream.Subscription subscription = stream.subscribe(recorder, 1, 0, 4,
+                GazeStream.OverflowPolicy.COALESCE);
+
+        fillWhileHeld(recorder);
+
+        // 5 and 9 each replace a full ring
+        assertTrue(recorder.await(3));
+        assertEquals(Arrays.asList(0L, 9L, 10L), recorder.sequences);
+        assertEquals(8, subscription.getDroppedSamples());
+    }
+
+    @Test
+    public void closeDrainsWaitingSamples() {
+        Recorder recorder = new Recorder();
+        GazeStream.Subscription subscription = stream.subscribe(recorder, 4, NO_DELAY_MS, 16,
+                GazeStream.OverflowPolicy.DROP_OLDEST);
+
+        publish(0, 6);
+        subscription.close();
+
+        assertEquals(sequences(0, 6), recorder.sequences);
+        assertEquals(Arrays.asList(4, 2), recorder.batches);
+
+        // closed subscriptions are not published to
+        publish(6, 1);
+        assertEquals(6, subscription.getDeliveredSamples());
+    }
+
+    @Test
+    public void failingListenerKeepsDelivery() throws InterruptedException {
+        Recorder recorder = new Recorder() {
+            @Override
+            public void onGazeSamples(GazeSample[] samples, int count) {
+                super.onGazeSamples(samples, count);
+                throw new IllegalStateException("listener failure");
+            }
+        };
+        stream.subscribe(recorder, 1, 0, 4, GazeStream.OverflowPolicy.DROP_OLDEST);
+
+        publish(0, 2);
+
+        assertTrue(recorder.await(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCapacityBelowBatchSize() {
+        stream.subscribe(new Recorder(), 4, 0, 2, GazeStream.OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Publishes 0, waits until the listener holds it, publishes 1 to 10 into a ring of 4 and releases it.
+     */
+    private void fillWhileHeld(Recorder recorder) throws InterruptedException {
+        recorder.hold = new CountDownLatch(1);
+        publish(0, 1);
+        assertTrue(recorder.held.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        publish(1, 10);
+        recorder.hold.countDown();
+    }
+
+    private void publish(long first, int count) {
+        for (long sequence = first; sequence < first + count; sequence++) {
+            stream.publish(new TrackingResult(sequence));
+        }
+    }
+
+    private static List<Long> sequences(long first, int count) {
+        List<Long> sequences = new ArrayList<>();
+        for (long sequence = first; sequence < first + count; sequence++) {
+            sequences.add(sequence);
+        }
+        return sequences;
+    }
+
+    private static class Recorder implements GazeListener {
+        final List<Long> sequences = new ArrayList<>();
+        final List<Integer> batches = new ArrayList<>();
+        final CountDownLatch held = new CountDownLatch(1);
+        volatile CountDownLatch hold;
+
+        @Override
+        public void onGazeSamples(GazeSample[] samples, int count) {
+            synchronized (this) {
+                for (int i = 0; i < count; i++) {
+                    sequences.add(samples[i].sequence);
+                }
+                batches.add(count);
+                notifyAll();
+            }
+            CountDownLatch latch = hold;
+            if (latch != null) {
+                held.countDown();
+                try {
+                    latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                hold = null;
+            }
+        }
+
+        synchronized boolean await(int samples) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+            while (sequences.size() < samples) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return true;
+        }
+    }
+}
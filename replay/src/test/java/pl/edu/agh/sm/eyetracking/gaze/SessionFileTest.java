@@ -0,0 +1,207 @@
+package pl.edu.agh.sm.eyetracking.gaze;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencv.core.Rect;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import pl.edu.agh.sm.eyetracking.util.Circle;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes sessions with {@link SessionRecorder} and reads them back with {@link SessionReader}.
+ * The file sizes are fixed, so a change of the format shows up here before old sessions
+ * stop being readable.
+ */
+public class SessionFileTest {
+
+    // 16 bytes of file header, 3 chunks of 24 header bytes, 66 bytes per frame
+    private static final int FRAMES = 2500;
+    private static final long FILE_BYTES = 165088;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackEveryFrame() throws IOException {
+        File file = folder.newFile("session.gaze");
+        record(file, FRAMES, 0);
+
+        assertEquals(FILE_BYTES, file.length());
+        assertEquals(FRAMES, readAll(file, FRAMES));
+    }
+
+    @Test
+    public void splitsChunksOnLongGaps() throws IOException {
+        File file = folder.newFile("gaps.gaze");
+        // larger than 32-bit microsecond and sequence offsets from the start of the chunk
+        long gap = Integer.MAX_VALUE + 1000L;
+        try (SessionRecorder recorder = new SessionRecorder(file)) {
+            GazeSample sample = new GazeSample();
+            for (int i = 0; i < 10; i++) {
+                fill(sample, i, i < 5 ? 0 : gap);
+                recorder.record(sample);
+            }
+        }
+
+        assertEquals(SessionFormat.HEADER_BYTES + 2 * SessionFormat.CHUNK_HEADER_BYTES
+                + 10 * SessionFormat.FRAME_BYTES, file.length());
+        try (SessionReader reader = new SessionReader(file)) {
+            GazeSample expected = new GazeSample();
+            GazeSample sample = new GazeSample();
+            for (int i = 0; i < 10; i++) {
+                assertTrue(reader.next(sample));
+                fill(expected, i, i < 5 ? 0 : gap);
+                assertSame(expected, sample);
+            }
+            assertFalse(reader.next(sample));
+        }
+    }
+
+    @Test
+    public void readsCompleteChunksOfTruncatedFile() throws IOException {
+        File file = folder.newFile("truncated.gaze");
+        record(file, FRAMES, 0);
+        truncate(file, FILE_BYTES - 100);
+
+        int complete = 2 * SessionFormat.CHUNK_FRAMES;
+        try (SessionReader reader = new SessionReader(file)) {
+            GazeSample expected = new GazeSample();
+            GazeSample sample = new GazeSample();
+            for (int i = 0; i < complete; i++) {
+                assertTrue(reader.next(sample));
+                fill(expected, i, 0);
+                assertSame(expected, sample);
+            }
+            try {
+                reader.next(sample);
+                fail("Truncated chunk read");
+            } catch (EOFException expectedException) {
+                // the last chunk is incomplete
+            }
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void rejectsTruncatedChunkHeader() throws IOException {
+        File file = folder.newFile("header.gaze");
+        record(file, 10, 0);
+        truncate(file, SessionFormat.HEADER_BYTES + SessionFormat.CHUNK_HEADER_BYTES / 2);
+
+        try (SessionReader reader = new SessionReader(file)) {
+            reader.next(new GazeSample());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        File file = folder.newFile("other.gaze");
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.write(new byte[SessionFormat.HEADER_BYTES]);
+        }
+        new SessionReader(file).close();
+    }
+
+    private static void record(File file, int frames, long gap) throws IOException {
+        try (SessionRecorder recorder = new SessionRecorder(file)) {
+            GazeSample sample = new GazeSample();
+            for (int i = 0; i < frames; i++) {
+                fill(sample, i, gap);
+                recorder.record(sample);
+            }
+            assertEquals(frames, recorder.getRecordedFrames());
+        }
+    }
+
+    private static int readAll(File file, int frames) throws IOException {
+        int read = 0;
+        try (SessionReader reader = new SessionReader(file)) {
+            GazeSample expected = new GazeSample();
+            GazeSample sample = new GazeSample();
+            while (reader.next(sample)) {
+                fill(expected, read, 0);
+                assertSame(expected, sample);
+                read++;
+            }
+        }
+        assertEquals(frames, read);
+        return read;
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.setLength(length);
+        }
+    }
+
+    /**
+     * A sample of frame {@code i}, with values the format stores exactly: whole microseconds,
+     * floats, confidence in steps of 1/255 and coordinates in 16 bits.
+     */
+    private static void fill(GazeSample sample, int i, long gap) {
+        sample.sequence = 1000 + 2L * i + gap;
+        sample.timestampNanos = 5_000_000_000L + TimeUnit.MICROSECONDS.toNanos(33_333L * i + gap);
+        set(sample.face, 100 + i % 50, 80 + i % 40, 200 + i % 7, 200 + i % 9);
+        set(sample.leftEye, 140 + i % 30, 120, 40, 30 + i % 3);
+        set(sample.rightEye, 220 - i % 30, 121, 41, 30);
+        set(sample.leftPupil, 150 + i % 11, 130 - i % 5, 4 + i % 3);
+        set(sample.rightPupil, 230, 131, 5);
+        sample.hasFace = i % 10 != 0;
+        sample.hasLeftEye = i % 3 != 0;
+        sample.hasRightEye = i % 4 != 0;
+        sample.hasLeftPupil = i % 5 != 0;
+        sample.hasRightPupil = i % 6 != 0;
+        sample.faceSearched = i % 7 == 0;
+        sample.eyesSearched = i % 2 == 0;
+        sample.still = i % 9 == 0;
+        sample.gazeX = (float) ((i % 21 - 10) / 10.0);
+        sample.gazeY = (float) -(i % 13 / 13.0);
+        sample.confidence = (i % 256) / 255.0;
+        sample.faceNanos = TimeUnit.MICROSECONDS.toNanos(i % 5000);
+        sample.eyesNanos = TimeUnit.MICROSECONDS.toNanos(i % 700);
+        sample.pupilsNanos = TimeUnit.MICROSECONDS.toNanos(i % 300);
+    }
+
+    private static void set(Rect rect, int x, int y, int width, int height) {
+        rect.x = x;
+        rect.y = y;
+        rect.width = width;
+        rect.height = height;
+    }
+
+    private static void set(Circle circle, int x, int y, int radius) {
+        circle.set(x, y, radius);
+    }
+
+    private static void assertSame(GazeSample expected, GazeSample actual) {
+        String frame = "frame " + expected.sequence;
+        assertEquals(frame, expected.sequence, actual.sequence);
+        assertEquals(frame, expected.timestampNanos, actual.timestampNanos);
+        assertEquals(frame, expected.face, actual.face);
+        assertEquals(frame, expected.leftEye, actual.leftEye);
+        assertEquals(frame, expected.rightEye, actual.rightEye);
+        assertEquals(frame, expected.leftPupil.toString(), actual.leftPupil.toString());
+        assertEquals(frame, expected.rightPupil.toString(), actual.rightPupil.toString());
+        assertEquals(frame, expected.hasFace, actual.hasFace);
+        assertEquals(frame, expected.hasLeftEye, actual.hasLeftEye);
+        assertEquals(frame, expected.hasRightEye, actual.hasRightEye);
+        assertEquals(frame, expected.hasLeftPupil, actual.hasLeftPupil);
+        assertEquals(frame, expected.hasRightPupil, actual.hasRightPupil);
+        assertEquals(frame, expected.faceSearched, actual.faceSearched);
+        assertEquals(frame, expected.eyesSearched, actual.eyesSearched);
+        assertEquals(frame, expected.still, actual.still);
+        assertEquals(frame, expected.gazeX, actual.gazeX, 0);
+        assertEquals(frame, expected.gazeY, actual.gazeY, 0);
+        assertEquals(frame, expected.confidence, actual.confidence, 1e-9);
+        assertEquals(frame, expected.faceNanos, actual.faceNanos);
+        assertEquals(frame, expected.eyesNanos, actual.eyesNanos);
+        assertEquals(frame, expected.pupilsNanos, actual.pupilsNanos);
+    }
+}
@@ -0,0 +1,224 @@
+package pl.edu.agh.sm.eyetracking.source;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencv.core.Mat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import nu.pattern.OpenCV;
+import pl.edu.agh.sm.eyetracking.replay.RawDumpSource;
+import pl.edu.agh.sm.eyetracking.replay.YuvPlaneSource;
+import pl.edu.agh.sm.eyetracking.util.Size;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hands the same NV21 frame to {@link YuvFrame} in the plane layouts of {@code YUV_420_888} images
+ * and compares its gray and RGBA images with those of {@link RawDumpSource}, which reads NV21 as
+ * JavaCameraView delivers it.
+ */
+public class YuvFrameTest {
+
+    // rows padded to the 64 byte alignment of many camera HALs, an odd number of chroma rows
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 226;
+    private static final int ROW_STRIDE = 320;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] nv21;
+    private RawDumpSource rawSource;
+    private CameraFrame rawFrame;
+    private final YuvFrame frame = new YuvFrame();
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        new Random(7).nextBytes(nv21);
+        File file = writeFrames(nv21);
+        rawSource = new RawDumpSource(file, new Size(WIDTH, HEIGHT));
+        rawFrame = rawSource.nextFrame();
+        assertNotNull(rawFrame);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        frame.release();
+        rawSource.close();
+    }
+
+    @Test
+    public void wrapsPaddedYPlaneWithShortLastRow() {
+        ByteBuffer yPlane = yPlane(true, ROW_STRIDE, (HEIGHT - 1) * ROW_STRIDE + WIDTH);
+        setInterleaved(yPlane, ROW_STRIDE);
+
+        Mat gray = frame.gray();
+        assertMatEquals(rawFrame.gray(), gray);
+        assertSame(gray, frame.gray());
+
+        // a view of the plane sees it change, a copy would not
+        byte changed = (byte) (nv21[WIDTH] + 1);
+        yPlane.put(ROW_STRIDE, changed);
+        byte[] pixel = new byte[1];
+        gray.get(1, 0, pixel);
+        assertEquals(changed, pixel[0]);
+    }
+
+    @Test
+    public void wrapsUnpaddedYPlane() {
+        ByteBuffer yPlane = yPlane(true, WIDTH, WIDTH * HEIGHT);
+        setInterleaved(yPlane, WIDTH);
+
+        assertMatEquals(rawFrame.gray(), frame.gray());
+        assertMatEquals(rawFrame.rgba(), frame.rgba());
+    }
+
+    @Test
+    public void copiesHeapYPlane() {
+        ByteBuffer yPlane = yPlane(false, ROW_STRIDE, HEIGHT * ROW_STRIDE);
+        setInterleaved(yPlane, ROW_STRIDE);
+
+        Mat gray = frame.gray();
+        assertMatEquals(rawFrame.gray(), gray);
+
+        // copied when first asked for, later changes of the plane are not seen
+        yPlane.put(ROW_STRIDE, (byte) (nv21[WIDTH] + 1));
+        assertMatEquals(rawFrame.gray(), gray);
+    }
+
+    @Test
+    public void convertsInterleavedChromaToRgba() {
+        setInterleaved(yPlane(true, ROW_STRIDE, (HEIGHT - 1) * ROW_STRIDE + WIDTH), ROW_STRIDE);
+
+        assertMatEquals(rawFrame.rgba(), frame.rgba());
+    }
+
+    @Test
+    public void convertsPlanarChromaToRgba() {
+        ByteBuffer yPlane = yPlane(false, ROW_STRIDE, HEIGHT * ROW_STRIDE);
+        int chromaWidth = WIDTH / 2;
+        int chromaHeight = HEIGHT / 2;
+        int chromaStride = ROW_STRIDE / 2;
+        ByteBuffer uPlane = ByteBuffer.allocate((chromaHeight - 1) * chromaStride + chromaWidth);
+        ByteBuffer vPlane = ByteBuffer.allocate(uPlane.capacity());
+        int offset = WIDTH * HEIGHT;
+        for (int row = 0; row < chromaHeight; row++) {
+            for (int column = 0; column < chromaWidth; column++) {
+                vPlane.put(row * chromaStride + column, nv21[offset++]);
+                uPlane.put(row * chromaStride + column, nv21[offset++]);
+            }
+        }
+        frame.set(WIDTH, HEIGHT, yPlane, ROW_STRIDE, uPlane, vPlane, chromaStride, 1);
+
+        assertMatEquals(rawFrame.rgba(), frame.rgba());
+    }
+
+    @Test
+    public void convertsRgbaOncePerFrame() {
+        ByteBuffer yPlane = yPlane(true, ROW_STRIDE, (HEIGHT - 1) * ROW_STRIDE + WIDTH);
+        setInterleaved(yPlane, ROW_STRIDE);
+
+        Mat rgba = frame.rgba();
+        Mat expected = rawFrame.rgba().clone();
+        // not converted again until the next frame is set
+        yPlane.put(0, (byte) (nv21[0] + 100));
+        assertMatEquals(expected, frame.rgba());
+        assertSame(rgba, frame.rgba());
+
+        setInterleaved(yPlane, ROW_STRIDE);
+        assertFalse(matEquals(expected, frame.rgba()));
+        expected.release();
+    }
+
+    @Test
+    public void yuvPlaneSourceMatchesRawDump() throws IOException {
+        File file = writeFrames(nv21);
+        try (YuvPlaneSource source = new YuvPlaneSource(file, new Size(WIDTH, HEIGHT))) {
+            CameraFrame planes = source.nextFrame();
+            assertMatEquals(rawFrame.gray(), planes.gray());
+            assertMatEquals(rawFrame.rgba(), planes.rgba());
+            assertNull(source.nextFrame());
+        }
+    }
+
+    private File writeFrames(byte[] data) throws IOException {
+        File file = folder.newFile();
+        try (OutputStream output = new FileOutputStream(file)) {
+            output.write(data);
+        }
+        return file;
+    }
+
+    /**
+     * The Y rows of the frame at {@code rowStride}, the padding filled with a value that shows if read.
+     */
+    private ByteBuffer yPlane(boolean direct, int rowStride, int capacity) {
+        ByteBuffer plane = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        for (int i = 0; i < capacity; i++) {
+            plane.put(i, (byte) 0xEE);
+        }
+        for (int row = 0; row < HEIGHT; row++) {
+            plane.position(row * rowStride);
+            plane.put(nv21, row * WIDTH, WIDTH);
+        }
+        plane.clear();
+        return plane;
+    }
+
+    /**
+     * Sets the frame with the chroma of {@link #nv21} in one VU plane at {@code rowStride},
+     * as V and U views with a pixel stride of 2, like most Camera2 devices deliver it.
+     */
+    private void setInterleaved(ByteBuffer yPlane, int rowStride) {
+        int chromaHeight = HEIGHT / 2;
+        ByteBuffer vuPlane = ByteBuffer.allocateDirect((chromaHeight - 1) * rowStride + WIDTH);
+        for (int row = 0; row < chromaHeight; row++) {
+            vuPlane.position(row * rowStride);
+            vuPlane.put(nv21, WIDTH * HEIGHT + row * WIDTH, WIDTH);
+        }
+        vuPlane.clear();
+        ByteBuffer vPlane = vuPlane.duplicate();
+        vPlane.limit(vuPlane.capacity() - 1);
+        vuPlane.position(1);
+        ByteBuffer uPlane = vuPlane.slice();
+        frame.set(WIDTH, HEIGHT, yPlane, rowStride, uPlane, vPlane, rowStride, 2);
+    }
+
+    private static void assertMatEquals(Mat expected, Mat actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.type(), actual.type());
+        assertArrayEquals(bytes(expected), bytes(actual));
+    }
+
+    private static boolean matEquals(Mat expected, Mat actual) {
+        return expected.size().equals(actual.size()) && expected.type() == actual.type()
+                && Arrays.equals(bytes(expected), bytes(actual));
+    }
+
+    private static byte[] bytes(Mat mat) {
+        Mat continuous = mat.isContinuous() ? mat : mat.clone();
+        byte[] data = new byte[(int) (continuous.total() * continuous.elemSize())];
+        continuous.get(0, 0, data);
+        if (continuous != mat) {
+            continuous.release();
+        }
+        return data;
+    }
+}